@@ -0,0 +1,71 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ClassIndexGenerator.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv;
+
+import com.github.fracpete.wekavirtualenv.command.AbstractCommand;
+import com.github.fracpete.wekavirtualenv.command.filter.AbstractFilter;
+import com.github.fracpete.wekavirtualenv.command.script.AbstractScriptCommand;
+import com.github.fracpete.wekavirtualenv.core.ClassIndex;
+import com.github.fracpete.wekavirtualenv.gui.command.AbstractGUICommand;
+
+import java.io.File;
+
+/**
+ * Generates the class indices for commands, filters, script commands and
+ * GUI commands. Gets called by the build (process-classes phase) with the
+ * output directory of the compiled classes as argument.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class ClassIndexGenerator {
+
+  /**
+   * Generates the indices.
+   *
+   * @param args	the output directory
+   */
+  public static void main(String[] args) {
+    File		dir;
+    String		msg;
+    ClassIndex<?>[]	indices;
+
+    if (args.length != 1) {
+      System.err.println("Usage: " + ClassIndexGenerator.class.getName() + " <output dir>");
+      System.exit(1);
+    }
+
+    dir     = new File(args[0]);
+    indices = new ClassIndex<?>[]{
+      AbstractCommand.getIndex(),
+      AbstractFilter.getIndex(),
+      AbstractScriptCommand.getScriptIndex(),
+      AbstractGUICommand.getIndex(),
+    };
+    for (ClassIndex<?> index: indices) {
+      msg = index.write(dir);
+      if (msg != null) {
+	System.err.println(msg);
+	System.exit(1);
+      }
+      System.out.println("Generated index: " + new File(dir, index.getResource()));
+    }
+  }
+}
@@ -25,13 +25,15 @@ import com.github.fracpete.simpleargparse4j.ArgumentParserException;
 import com.github.fracpete.simpleargparse4j.Namespace;
 import com.github.fracpete.wekavirtualenv.command.filter.AbstractFilter;
 import com.github.fracpete.wekavirtualenv.command.filter.FilterSetup;
+import com.github.fracpete.wekavirtualenv.core.ClassIndex;
+import com.github.fracpete.wekavirtualenv.core.DefaultOutputCapture;
 import com.github.fracpete.wekavirtualenv.core.InvalidEnvironmentException;
 import com.github.fracpete.wekavirtualenv.core.MissingEnvironmentException;
+import com.github.fracpete.wekavirtualenv.core.OutputCapture;
 import com.github.fracpete.wekavirtualenv.env.Environment;
 import com.github.fracpete.wekavirtualenv.env.Environments;
 import nz.ac.waikato.cms.core.Utils;
 import nz.ac.waikato.cms.jenericcmdline.core.OptionUtils;
-import nz.ac.waikato.cms.locator.ClassLocator;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -47,6 +49,10 @@ import java.util.Set;
 public abstract class AbstractCommand
   implements Command {
 
+  /** the index of the commands (name - class). */
+  protected static ClassIndex<Command> m_Index = new ClassIndex<>(
+    Command.class, Command.class.getPackage().getName(), "commands", Command::getName);
+
   /** the environment to use. */
   protected Environment m_Env;
 
@@ -56,6 +62,9 @@ public abstract class AbstractCommand
   /** the output listeners. */
   protected Set<OutputListener> m_OutputListeners;
 
+  /** for outputting messages. */
+  protected OutputCapture m_OutputCapture;
+
   /**
    * Initializes the command.
    */
@@ -70,6 +79,7 @@ public abstract class AbstractCommand
   protected void initialize() {
     m_Errors          = null;
     m_OutputListeners = new HashSet<>();
+    m_OutputCapture   = new DefaultOutputCapture();
   }
 
   /**
@@ -197,10 +207,7 @@ public abstract class AbstractCommand
    */
   @Override
   public void println(String line, boolean stdout) {
-    if (stdout)
-      System.out.println(line);
-    else
-      System.err.println(line);
+    m_OutputCapture.println(line, stdout);
     for (OutputListener l: m_OutputListeners)
       l.outputOccurred(line, stdout);
   }
@@ -216,6 +223,24 @@ public abstract class AbstractCommand
     println(msg + "\n" + Utils.throwableToString(t), false);
   }
 
+  /**
+   * Sets the capture to use for outputting messages.
+   *
+   * @param value	the capture
+   */
+  public void setOutputCapture(OutputCapture value) {
+    m_OutputCapture = value;
+  }
+
+  /**
+   * Returns the capture used for outputting messages.
+   *
+   * @return		the capture
+   */
+  public OutputCapture getOutputCapture() {
+    return m_OutputCapture;
+  }
+
   /**
    * Hook method for loading the environment.
    * <br>
@@ -343,29 +368,22 @@ public abstract class AbstractCommand
    */
   public static List<Command> getCommands() {
     List<Command>	result;
-    List<Class>		classes;
-    Command		cmd;
-
-    result = new ArrayList<>();
-    classes = ClassLocator.getSingleton().findClasses(
-      Command.class,
-      new String[]{Command.class.getPackage().getName()});
-
-    for (Class cls: classes) {
-      try {
-	cmd = (Command) cls.newInstance();
-	result.add(cmd);
-      }
-      catch (Exception e) {
-	// ignored
-      }
-    }
 
+    result = m_Index.newInstances();
     Collections.sort(result);
 
     return result;
   }
 
+  /**
+   * Returns the index of the commands.
+   *
+   * @return		the index
+   */
+  public static ClassIndex<Command> getIndex() {
+    return m_Index;
+  }
+
   /**
    * Returns the command associated with the command name.
    *
@@ -373,17 +391,7 @@ public abstract class AbstractCommand
    * @return		the command, null if not available
    */
   public static Command getCommand(String name) {
-    Command		result;
-
-    result = null;
-    for (Command cmd: getCommands()) {
-      if (cmd.getName().equals(name)) {
-        result = cmd;
-        break;
-      }
-    }
-
-    return result;
+    return m_Index.newInstance(name);
   }
 
   /**
@@ -520,14 +528,25 @@ public abstract class AbstractCommand
    * @return		true if successfully executed
    */
   public static boolean executeSetup(CommandSetup setup) {
+    return executeSetup(setup, new DefaultOutputCapture());
+  }
+
+  /**
+   * Executes the command setup.
+   *
+   * @param setup	the setup
+   * @param capture	for outputting errors
+   * @return		true if successfully executed
+   */
+  public static boolean executeSetup(CommandSetup setup, OutputCapture capture) {
     boolean	success;
 
     success = setup.command.execute(setup.options);
     if (!success) {
       if (setup.command.hasErrors())
-	System.err.println(setup.command.getErrors());
+	capture.println(setup.command.getErrors(), false);
       else
-	System.err.println("Failed to execute command!");
+	capture.println("Failed to execute command!", false);
       return false;
     }
 
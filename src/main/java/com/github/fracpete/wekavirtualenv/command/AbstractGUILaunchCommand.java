@@ -21,7 +21,6 @@
 package com.github.fracpete.wekavirtualenv.command;
 
 import com.github.fracpete.simpleargparse4j.Namespace;
-import com.github.fracpete.wekavirtualenv.env.Environment;
 import nz.ac.waikato.cms.core.Utils;
 
 /**
@@ -46,17 +45,21 @@ public abstract class AbstractGUILaunchCommand
    */
   @Override
   public boolean isAvailable() {
-    boolean	result;
-
-    result = false;
+    return (findGUIClass() != null);
+  }
 
+  /**
+   * Returns the first of the GUI classes that is present in the Weka jar.
+   *
+   * @return		the class, null if none available
+   */
+  protected String findGUIClass() {
     for (String cls: getGUIClasses()) {
-      result = Environment.hasClass(getEnv().weka, cls, true);
-      if (result)
-        break;
+      if (getEnv().hasClass(cls, true))
+        return cls;
     }
 
-    return result;
+    return null;
   }
 
   /**
@@ -77,17 +80,14 @@ public abstract class AbstractGUILaunchCommand
    * @return		true if successful
    */
   protected boolean doExecute(Namespace ns, String[] options) {
-    if (!isAvailable()) {
+    String	cls;
+
+    cls = findGUIClass();
+    if (cls == null) {
       addError(getNotAvailableMessage());
       return false;
     }
 
-    for (String cls: getGUIClasses()) {
-      if (Environment.hasClass(getEnv().weka, cls, false))
-	return launch(build(cls, options));
-    }
-
-    addError("Failed to launch?");
-    return false;
+    return launch(build(cls, options));
   }
 }
@@ -21,16 +21,27 @@
 package com.github.fracpete.wekavirtualenv.command;
 
 import com.github.fracpete.processoutput4j.core.StreamingProcessOutputType;
-import com.github.fracpete.processoutput4j.core.StreamingProcessOwner;
-import com.github.fracpete.processoutput4j.output.StreamingProcessOutput;
 import com.github.fracpete.wekavirtualenv.command.filter.Filter;
 import com.github.fracpete.wekavirtualenv.command.filter.FilterChain;
+import com.github.fracpete.wekavirtualenv.core.DefaultOutputCapture;
 import com.github.fracpete.wekavirtualenv.core.Destroyable;
 import com.github.fracpete.wekavirtualenv.env.Environments;
+import com.github.fracpete.wekavirtualenv.env.SharedArchive;
+import com.github.fracpete.wekavirtualenv.launch.BootstrapMain;
+import com.github.fracpete.wekavirtualenv.launch.InProcessEngine;
+import com.github.fracpete.wekavirtualenv.launch.JobRequest;
+import com.github.fracpete.wekavirtualenv.launch.OutputPump;
+import com.github.fracpete.wekavirtualenv.launch.OutputPump.BatchOwner;
+import com.github.fracpete.wekavirtualenv.launch.OutputRouter;
+import com.github.fracpete.wekavirtualenv.launch.ProcessPool;
+import com.github.fracpete.wekavirtualenv.launch.Worker;
+import com.github.fracpete.wekavirtualenv.launch.WorkerMain;
+import com.github.fracpete.wekavirtualenv.launch.Workers;
 import nz.ac.waikato.cms.jenericcmdline.core.OptionUtils;
 import org.apache.commons.lang3.SystemUtils;
 
 import java.io.File;
+import java.lang.ProcessBuilder.Redirect;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -43,20 +54,42 @@ import java.util.Map;
  */
 public abstract class AbstractLaunchCommand
   extends AbstractCommand
-  implements StreamingProcessOwner, CommandWithFilterSupport, Destroyable {
+  implements BatchOwner, CommandWithFilterSupport, Destroyable, InterceptorOwner {
 
   /** the output. */
-  protected StreamingProcessOutput m_Output;
+  protected OutputPump m_Output;
 
   /** for intercepting the process output. */
   protected FilterChain m_FilterChain;
 
+  /** the worker currently executing the class. */
+  protected Worker m_Worker;
+
+  /** the thread currently executing the class in-process. */
+  protected Thread m_InProcessThread;
+
+  /** whether a filter requested stopping the current execution. */
+  protected volatile boolean m_Satisfied;
+
+  /** whether to connect the output of the process directly to the console. */
+  protected boolean m_Passthrough;
+
+  /** the process currently running in passthrough mode. */
+  protected volatile Process m_PassthroughProcess;
+
+  /** the class being launched, null if none. */
+  protected String m_LaunchClass;
+
+  /** the options for the class being launched, null if none. */
+  protected String[] m_LaunchOptions;
+
   /**
    * For initializing the members.
    */
   protected void initialize() {
     super.initialize();
     m_FilterChain = new FilterChain();
+    m_FilterChain.setOwner(this);
   }
 
   /**
@@ -68,6 +101,86 @@ public abstract class AbstractLaunchCommand
     m_FilterChain.addFilter(value);
   }
 
+  /**
+   * Sets whether to connect the output of the process directly to the
+   * console, ignoring any filters and output listeners.
+   *
+   * @param value	true if to pass through
+   */
+  public void setPassthrough(boolean value) {
+    m_Passthrough = value;
+  }
+
+  /**
+   * Returns whether to connect the output of the process directly to the
+   * console, ignoring any filters and output listeners.
+   *
+   * @return		true if to pass through
+   */
+  public boolean getPassthrough() {
+    return m_Passthrough;
+  }
+
+  /**
+   * Returns whether the output of the process can be connected directly
+   * to the console, i.e., no filters or output listeners are present and
+   * the output isn't captured or routed elsewhere.
+   *
+   * @return		true if passthrough is possible
+   */
+  protected boolean canPassthrough() {
+    return m_FilterChain.isEmpty()
+      && m_OutputListeners.isEmpty()
+      && (m_OutputCapture instanceof DefaultOutputCapture)
+      && !OutputRouter.isRouted();
+  }
+
+  /**
+   * Executes the command. Closes the filters afterwards.
+   *
+   * @param options 	the arguments for the command
+   * @return		true if successful
+   */
+  @Override
+  public boolean execute(String[] options) {
+    try {
+      return super.execute(options);
+    }
+    finally {
+      m_FilterChain.close();
+    }
+  }
+
+  /**
+   * Returns the class being launched.
+   *
+   * @return		the class, null if none
+   */
+  public String getLaunchClass() {
+    return m_LaunchClass;
+  }
+
+  /**
+   * Returns the options for the class being launched.
+   *
+   * @return		the options, null if none
+   */
+  public String[] getLaunchOptions() {
+    return m_LaunchOptions;
+  }
+
+  /**
+   * Records the class and options being launched.
+   *
+   * @param cls		the class
+   * @param options	the options, can be null
+   */
+  protected void setLaunched(String cls, String[] options) {
+    m_LaunchClass   = cls;
+    m_LaunchOptions = options;
+    m_Satisfied     = false;
+  }
+
   /**
    * Returns whether it requires an environment.
    *
@@ -114,6 +227,20 @@ public abstract class AbstractLaunchCommand
     return result;
   }
 
+  /**
+   * Returns additional options for the JVM, like the class-data-sharing
+   * archive of the environment if present and still valid.
+   *
+   * @return		the options
+   * @see		SharedArchive
+   */
+  protected List<String> getAdditionalJvmOptions() {
+    if (SharedArchive.isValid(m_Env, getJava()))
+      return SharedArchive.getJvmOptions(m_Env);
+    else
+      return new ArrayList<>();
+  }
+
   /**
    * Builds the commands.
    *
@@ -122,6 +249,19 @@ public abstract class AbstractLaunchCommand
    * @return		the process builder
    */
   protected ProcessBuilder build(String cls, String[] options) {
+    setLaunched(cls, options);
+    return build(m_Env.weka, cls, options);
+  }
+
+  /**
+   * Builds the commands.
+   *
+   * @param classpath	the classpath to use
+   * @param cls		the class to launch (null to ignore)
+   * @param options	optional arguments for the class (null to ignore)
+   * @return		the process builder
+   */
+  protected ProcessBuilder build(String classpath, String cls, String[] options) {
     ProcessBuilder	result;
     List<String>	cmd;
     Map<String, String> vars;
@@ -132,9 +272,11 @@ public abstract class AbstractLaunchCommand
     cmd.add(getJava());
     if (!m_Env.memory.isEmpty())
       cmd.add("-Xmx" + m_Env.memory);
+    cmd.addAll(getAdditionalJvmOptions());
     cmd.add("-classpath");
-    cmd.add(m_Env.weka);
-    cmd.add(cls);
+    cmd.add(classpath);
+    if (cls != null)
+      cmd.add(cls);
     if (options != null)
       cmd.addAll(Arrays.asList(options));
 
@@ -183,6 +325,39 @@ public abstract class AbstractLaunchCommand
       println(line, stdout);
   }
 
+  /**
+   * Processes the incoming lines. When outputting on stdout/stderr, all
+   * lines that pass the filters get output with a single write.
+   *
+   * @param lines	the lines to process
+   * @param stdout	whether stdout or stderr
+   */
+  public synchronized void processOutput(List<String> lines, boolean stdout) {
+    List<String>	output;
+    String		line;
+
+    if (!(m_OutputCapture instanceof DefaultOutputCapture)) {
+      for (String l: lines)
+	processOutput(l, stdout);
+      return;
+    }
+
+    output = new ArrayList<>(lines.size());
+    for (String l: lines) {
+      line = m_FilterChain.intercept(l, stdout);
+      if (line != null)
+	output.add(line);
+    }
+    if (output.isEmpty())
+      return;
+
+    ((DefaultOutputCapture) m_OutputCapture).println(output, stdout);
+    for (String l: output) {
+      for (OutputListener listener: m_OutputListeners)
+	listener.outputOccurred(l, stdout);
+    }
+  }
+
   /**
    * Launches the process.
    *
@@ -190,8 +365,11 @@ public abstract class AbstractLaunchCommand
    * @return		true if successful
    */
   protected boolean launch(ProcessBuilder builder) {
+    if (m_Passthrough || canPassthrough())
+      return launchPassthrough(builder);
+
     try {
-      m_Output = new StreamingProcessOutput(this);
+      m_Output = new OutputPump(this);
       m_Output.monitor(builder);
       return true;
     }
@@ -205,10 +383,174 @@ public abstract class AbstractLaunchCommand
   }
 
   /**
-   * Destroys the process if possible.
+   * Launches the process with its stdout/stderr connected directly to the
+   * ones of the current process, i.e., the output doesn't get processed.
+   *
+   * @param builder	the builder to use
+   * @return		true if successful
+   */
+  protected boolean launchPassthrough(ProcessBuilder builder) {
+    if (!canPassthrough())
+      println("Passthrough mode, ignoring any filters and output listeners!", false);
+
+    try {
+      System.out.flush();
+      System.err.flush();
+      builder.redirectOutput(Redirect.INHERIT);
+      builder.redirectError(Redirect.INHERIT);
+      m_PassthroughProcess = builder.start();
+      m_PassthroughProcess.waitFor();
+      return true;
+    }
+    catch (InterruptedException e) {
+      m_PassthroughProcess.destroy();
+      addError("Interrupted while waiting for command:\n" + builder.command());
+      return false;
+    }
+    catch (Exception e) {
+      addError("Failed to launch command:\n" + builder.command());
+      return false;
+    }
+    finally {
+      m_PassthroughProcess = null;
+      m_OutputListeners.clear();
+    }
+  }
+
+  /**
+   * Executes the class in a pre-spawned JVM of the environment, which only
+   * gets used for this single class.
+   *
+   * @param cls		the class to execute
+   * @param options	optional arguments for the class (null to ignore)
+   * @param poolSize	the number of JVMs to keep pre-spawned
+   * @return		true if successful
+   * @see		ProcessPool
+   */
+  protected boolean launchPrespawned(String cls, String[] options, int poolSize) {
+    ProcessBuilder	builder;
+    Process		process;
+
+    setLaunched(cls, options);
+    builder = build(Worker.getClassPath(m_Env), BootstrapMain.class.getName(), null);
+    try {
+      process  = ProcessPool.getSingleton().take(Worker.getKey(m_Env), builder, poolSize);
+      m_Output = new OutputPump(this);
+      m_Output.monitor(new JobRequest(cls, options).toLine() + "\n", process);
+      return true;
+    }
+    catch (Exception e) {
+      addError("Failed to launch pre-spawned command:\n" + builder.command(), e);
+      return false;
+    }
+    finally {
+      m_OutputListeners.clear();
+    }
+  }
+
+  /**
+   * Executes the class in a persistent worker JVM of the environment.
+   * Starts a new worker if no idle one is available.
+   *
+   * @param cls		the class to execute
+   * @param options	optional arguments for the class (null to ignore)
+   * @param maxJobs	the maximum number of jobs a worker executes before
+   *                    getting recycled, less than 1 for unlimited
+   * @param maxHeap	the fraction of the heap (0-1) still in use after a
+   *                    job that triggers recycling of the worker
+   * @return		true if successful
+   */
+  protected boolean launchWorker(String cls, String[] options, int maxJobs, double maxHeap) {
+    Worker	worker;
+    int		exitCode;
+
+    setLaunched(cls, options);
+    worker = null;
+    try {
+      worker = Workers.getSingleton().checkout(m_Env, maxJobs, maxHeap);
+      if (worker == null) {
+	worker = new Worker(m_Env, maxJobs, maxHeap);
+	Workers.getSingleton().add(worker);
+	worker.start(build(Worker.getClassPath(m_Env), WorkerMain.class.getName(), worker.getMainOptions()));
+      }
+      m_Worker = worker;
+      exitCode = worker.execute(this, cls, options);
+      // worker got destroyed on request of a filter
+      if (m_Satisfied)
+	return true;
+      if (exitCode != 0)
+	addError("Class in worker finished with exit code " + exitCode + ": " + cls);
+      return (exitCode == 0);
+    }
+    catch (Exception e) {
+      if (m_Satisfied)
+	return true;
+      addError("Failed to execute class in worker: " + cls, e);
+      return false;
+    }
+    finally {
+      // dead workers (e.g., destroyed on request of a filter) get dropped
+      if (worker != null)
+	Workers.getSingleton().checkin(worker);
+      m_Worker = null;
+      m_OutputListeners.clear();
+    }
+  }
+
+  /**
+   * Executes the class within the current JVM, using a classloader that
+   * only sees the Weka jar of the environment.
+   *
+   * @param cls		the class to execute
+   * @param options	optional arguments for the class (null to ignore)
+   * @return		true if successful
+   * @see		InProcessEngine
+   */
+  protected boolean launchInProcess(String cls, String[] options) {
+    setLaunched(cls, options);
+    try {
+      m_InProcessThread = Thread.currentThread();
+      InProcessEngine.getSingleton().execute(m_Env, this, cls, options);
+      return true;
+    }
+    catch (Exception e) {
+      // interrupted on request of a filter
+      if (m_Satisfied)
+	return true;
+      addError("Failed to execute class in-process: " + cls, e);
+      return false;
+    }
+    finally {
+      m_InProcessThread = null;
+      m_OutputListeners.clear();
+    }
+  }
+
+  /**
+   * Gets called by a filter once it doesn't require any further output.
+   * Destroys the process. In-process executions only get interrupted, which
+   * Weka code busy computing ignores, i.e., these keep running and only
+   * their output gets dropped by the filters.
+   *
+   * @param interceptor	the filter that is satisfied
+   */
+  public void interceptorSatisfied(ProcessOutputInterceptor interceptor) {
+    m_Satisfied = true;
+    destroy();
+  }
+
+  /**
+   * Destroys the process if possible. In-process executions can only get
+   * interrupted.
    */
   public void destroy() {
     if (m_Output != null)
       m_Output.destroy();
+    if (m_PassthroughProcess != null)
+      m_PassthroughProcess.destroy();
+    if (m_Worker != null)
+      m_Worker.destroy();
+    if (m_InProcessThread != null)
+      m_InProcessThread.interrupt();
   }
 }
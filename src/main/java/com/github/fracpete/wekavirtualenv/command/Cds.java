@@ -0,0 +1,271 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Cds.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.command;
+
+import com.github.fracpete.simpleargparse4j.ArgumentParser;
+import com.github.fracpete.simpleargparse4j.Namespace;
+import com.github.fracpete.simpleargparse4j.Option.Type;
+import com.github.fracpete.wekavirtualenv.env.SharedArchive;
+import com.github.fracpete.wekavirtualenv.launch.ClassLoadingProbe;
+import com.github.fracpete.wekavirtualenv.launch.OutputPump;
+import com.github.fracpete.wekavirtualenv.launch.Worker;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates a class-data-sharing (AppCDS) archive for the environment,
+ * which gets used automatically when launching classes/GUIs.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Cds
+  extends AbstractLaunchCommand {
+
+  /** the JVM options for the current step. */
+  protected List<String> m_JvmOptions;
+
+  /**
+   * For initializing the members.
+   */
+  @Override
+  protected void initialize() {
+    super.initialize();
+    m_JvmOptions = new ArrayList<>();
+  }
+
+  /**
+   * The name of the command (used on the commandline).
+   *
+   * @return		the name
+   */
+  @Override
+  public String getName() {
+    return "cds";
+  }
+
+  /**
+   * Returns a short help string.
+   *
+   * @return		the help string
+   */
+  public String getHelp() {
+    return "Generates a class-data-sharing archive for the environment from a training run\n"
+      + "of the specified class (with the unconsumed command-line options), which speeds up\n"
+      + "the startup of subsequent launches. Requires Java 10 or later.";
+  }
+
+  /**
+   * Returns whether the command utilizes additional arguments that get passed on.
+   *
+   * @return		true if additional options
+   */
+  @Override
+  public boolean supportsAdditionalArguments() {
+    return true;
+  }
+
+  /**
+   * Returns the parser to use for the arguments.
+   *
+   * @return		the parser
+   */
+  @Override
+  public ArgumentParser getParser() {
+    ArgumentParser 	result;
+
+    result = new ArgumentParser(getName());
+    result.addOption("--class")
+      .dest("class")
+      .help("the class to execute for the training run, eg weka.classifiers.trees.J48 or weka.gui.explorer.Explorer")
+      .setDefault("weka.classifiers.trees.J48");
+    result.addOption("--measure")
+      .dest("measure")
+      .type(Type.INTEGER)
+      .help("the number of runs for measuring the class loading time without and with the archive (0 to skip)")
+      .setDefault(0);
+    result.addOption("--delete")
+      .dest("delete")
+      .help("removes the archive from the environment")
+      .argument(false);
+
+    return result;
+  }
+
+  /**
+   * Returns additional options for the JVM.
+   *
+   * @return		the options of the current step
+   */
+  @Override
+  protected List<String> getAdditionalJvmOptions() {
+    return m_JvmOptions;
+  }
+
+  /**
+   * Executes the process and forwards its output.
+   *
+   * @param builder	the process to execute
+   * @return		the exit code
+   * @throws Exception	if execution fails
+   */
+  protected int monitor(ProcessBuilder builder) throws Exception {
+    m_Output = new OutputPump(this);
+    m_Output.monitor(builder);
+    return m_Output.getExitCode();
+  }
+
+  /**
+   * Executes the process, discarding its output, and returns the time it took.
+   *
+   * @param builder	the process to execute
+   * @return		the time in msec
+   * @throws Exception	if execution fails
+   */
+  protected long time(ProcessBuilder builder) throws Exception {
+    long	start;
+    Process	process;
+    InputStream	in;
+    byte[]	buffer;
+
+    buffer = new byte[8192];
+    builder.redirectErrorStream(true);
+    start   = System.nanoTime();
+    process = builder.start();
+    in      = process.getInputStream();
+    while (in.read(buffer) != -1) {
+      // discard
+    }
+    process.waitFor();
+
+    return (System.nanoTime() - start) / 1000000;
+  }
+
+  /**
+   * Measures the time for loading the classes from the training run without
+   * and with the archive.
+   *
+   * @param runs	the number of runs
+   * @throws Exception	if execution fails
+   */
+  protected void measure(int runs) throws Exception {
+    ProcessBuilder	without;
+    ProcessBuilder	with;
+    String[]		probe;
+    long		timeWithout;
+    long		timeWith;
+    int			i;
+
+    probe = new String[]{SharedArchive.getClassListFile(m_Env).getAbsolutePath()};
+    m_JvmOptions = new ArrayList<>();
+    without = build(Worker.getClassPath(m_Env), ClassLoadingProbe.class.getName(), probe);
+    m_JvmOptions = SharedArchive.getJvmOptions(m_Env);
+    with    = build(Worker.getClassPath(m_Env), ClassLoadingProbe.class.getName(), probe);
+
+    // warm up file system caches
+    time(without);
+    time(with);
+
+    timeWithout = 0;
+    timeWith    = 0;
+    for (i = 0; i < runs; i++) {
+      timeWithout += time(without);
+      timeWith    += time(with);
+    }
+    timeWithout /= runs;
+    timeWith    /= runs;
+
+    println("Average time for loading the classes of the training run (" + runs + " runs):", true);
+    println("- without archive: " + timeWithout + "ms", true);
+    println("- with archive: " + timeWith + "ms", true);
+    if (timeWithout > 0)
+      println("- savings: " + (timeWithout - timeWith) + "ms (" + ((timeWithout - timeWith) * 100 / timeWithout) + "%)", true);
+  }
+
+  /**
+   * Executes the command.
+   *
+   * @param ns		the namespace of the parsed options, null if no options to parse
+   * @param options	additional command-line options
+   * @return		true if successful
+   */
+  protected boolean doExecute(Namespace ns, String[] options) {
+    File	classList;
+    File	archive;
+    String	msg;
+
+    try {
+      if (!SharedArchive.delete(m_Env)) {
+	addError("Failed to remove existing archive: " + SharedArchive.getArchiveFile(m_Env));
+	return false;
+      }
+      if (ns.getBoolean("delete")) {
+	println("Archive removed from environment: " + m_Env.name, true);
+	return true;
+      }
+
+      classList = SharedArchive.getClassListFile(m_Env);
+      archive   = SharedArchive.getArchiveFile(m_Env);
+
+      // training run
+      println("Training run: " + ns.getString("class"), true);
+      m_JvmOptions = new ArrayList<>();
+      m_JvmOptions.add("-Xshare:off");
+      m_JvmOptions.add("-XX:DumpLoadedClassList=" + classList.getAbsolutePath());
+      monitor(build(ns.getString("class"), options));
+      if (!classList.exists() || (classList.length() == 0)) {
+	addError("Training run failed to generate class list: " + classList);
+	return false;
+      }
+
+      // dump archive
+      println("Generating archive: " + archive, true);
+      m_JvmOptions = new ArrayList<>();
+      m_JvmOptions.add("-Xshare:dump");
+      m_JvmOptions.add("-XX:SharedClassListFile=" + classList.getAbsolutePath());
+      m_JvmOptions.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+      if ((monitor(build(m_Env.weka, null, null)) != 0) || !archive.exists()) {
+	addError("Failed to generate archive: " + archive);
+	return false;
+      }
+      msg = SharedArchive.writeSetup(m_Env, getJava());
+      if (msg != null) {
+	addError(msg);
+	return false;
+      }
+      println("Archive successfully generated for environment: " + m_Env.name, true);
+
+      if (ns.getInt("measure") > 0)
+	measure(ns.getInt("measure"));
+
+      return true;
+    }
+    catch (Exception e) {
+      addError("Failed to generate class-data-sharing archive!", e);
+      return false;
+    }
+    finally {
+      m_OutputListeners.clear();
+    }
+  }
+}
@@ -22,12 +22,15 @@ package com.github.fracpete.wekavirtualenv.command;
 
 import com.github.fracpete.simpleargparse4j.ArgumentParser;
 import com.github.fracpete.simpleargparse4j.Namespace;
+import com.github.fracpete.simpleargparse4j.Option.Type;
 import com.github.fracpete.wekavirtualenv.env.Environment;
 import com.github.fracpete.wekavirtualenv.env.Environments;
-import nz.ac.waikato.cms.core.FileUtils;
+import com.github.fracpete.wekavirtualenv.env.PackageStore;
+import com.github.fracpete.wekavirtualenv.core.TreeCopier;
 import nz.ac.waikato.cms.jenericcmdline.core.OptionUtils;
 
 import java.io.File;
+import java.text.DecimalFormat;
 
 /**
  * Clones a existing environment.
@@ -56,7 +59,10 @@ public class Clone
   public String getHelp() {
     return
       "Clones an existing environment.\n"
-      + "Allows adjusting of environment parameters.";
+      + "Allows adjusting of environment parameters.\n"
+      + "Jars in 'wekafiles' (e.g., of packages) get hardlinked if possible,\n"
+      + "all other files get copied in parallel.\n"
+      + "With --share-packages, the packages use the shared package store.";
   }
 
   /**
@@ -99,6 +105,20 @@ public class Clone
       .dest("setuponly")
       .help("if set, does not copy the 'wekafiles' directory of the environment")
       .argument(false);
+    result.addOption("--no-links")
+      .dest("nolinks")
+      .help("if set, copies all files of the 'wekafiles' directory rather than hardlinking jars")
+      .argument(false);
+    result.addOption("--share-packages")
+      .dest("sharepackages")
+      .help("if set, the packages of the new environment use the shared package store,\n"
+	+ "i.e., their jars get hardlinked to the ones in the store; cannot be used with --no-links")
+      .argument(false);
+    result.addOption("--num-threads")
+      .dest("numthreads")
+      .help("the number of threads to use for copying the 'wekafiles' directory, < 1 for number of cores")
+      .type(Type.INTEGER)
+      .setDefault(0);
     result.addOption("--no-envvars")
       .dest("noenvvars")
       .help("if set, removes any existing environment variables")
@@ -122,8 +142,16 @@ public class Clone
     File		from;
     File		to;
     File		file;
+    TreeCopier		copier;
+    DecimalFormat	dformat;
 
-    msg = null;
+    msg    = null;
+    copier = null;
+
+    if (ns.getBoolean("sharepackages") && ns.getBoolean("nolinks")) {
+      addError("Options --share-packages and --no-links cannot be used together!");
+      return false;
+    }
 
     oldEnv = Environments.readEnv(ns.getString("old"));
     if (oldEnv == null) {
@@ -169,29 +197,34 @@ public class Clone
         from = new File(Environments.getWekaFilesDir(oldEnv.name));
         to = new File(Environments.getWekaFilesDir(newEnv.name));
         if (from.exists() && from.isDirectory()) {
-          try {
-            if (!FileUtils.copyOrMove(from, to, false, false)) {
-              msg = "Failed to copy 'wekafiles' from old to new environment:\n"
-                + "- old: " + Environments.getWekaFilesDir(oldEnv.name) + "\n"
-                + "- new: " + Environments.getWekaFilesDir(newEnv.name);
-            }
-          }
-          catch (Exception e) {
-            msg = "Failed to copy 'wekafiles' from old to new environment:\n"
-              + "- old: " + Environments.getWekaFilesDir(oldEnv.name) + "\n"
-              + "- new: " + Environments.getWekaFilesDir(newEnv.name) + "\n"
-              + "- exception:\n"
-              + e;
-          }
+          copier = new TreeCopier();
+          copier.setLink(!ns.getBoolean("nolinks"));
+          copier.setNumThreads(ns.getInt("numthreads"));
+          msg = copier.copy(from, to);
+          if (msg != null)
+            msg = "Failed to copy 'wekafiles' from old to new environment:\n" + msg;
         }
       }
     }
 
+    // use package store?
+    if ((msg == null) && ns.getBoolean("sharepackages"))
+      msg = PackageStore.share(newEnv.name, oldEnv.name);
+
     if (msg != null)
       addError("Failed to create environment:\n" + msg);
     else
       println("Created environment:\n\n" + newEnv, true);
 
+    if ((msg == null) && (copier != null)) {
+      dformat = new DecimalFormat("###,###.###");
+      println("Copied 'wekafiles': " + copier.getFiles() + " files in "
+	+ dformat.format(copier.getDuration() / 1000.0) + "s, "
+	+ dformat.format(copier.getCopiedBytes() / 1024.0 / 1024.0) + "MB copied, "
+	+ copier.getLinkedFiles() + " files with "
+	+ dformat.format(copier.getLinkedBytes() / 1024.0 / 1024.0) + "MB linked (saved)", true);
+    }
+
     return (msg == null);
   }
 }
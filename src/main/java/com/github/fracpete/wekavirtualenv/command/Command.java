@@ -84,6 +84,20 @@ public interface Command
    */
   public Environment getEnv();
 
+  /**
+   * Sets the capture to use for outputting messages.
+   *
+   * @param value	the capture
+   */
+  public void setOutputCapture(OutputCapture value);
+
+  /**
+   * Returns the capture used for outputting messages.
+   *
+   * @return		the capture
+   */
+  public OutputCapture getOutputCapture();
+
   /**
    * Returns the parser to use for the arguments.
    *
@@ -24,6 +24,7 @@ import com.github.fracpete.simpleargparse4j.ArgumentParser;
 import com.github.fracpete.simpleargparse4j.Namespace;
 import com.github.fracpete.wekavirtualenv.env.Environment;
 import com.github.fracpete.wekavirtualenv.env.Environments;
+import com.github.fracpete.wekavirtualenv.env.PackageStore;
 import nz.ac.waikato.cms.core.FileUtils;
 import nz.ac.waikato.cms.jenericcmdline.core.OptionUtils;
 
@@ -56,7 +57,8 @@ public class Create
   public String getHelp() {
     return
       "Creates a new environment.\n"
-      + "Can be initialized with the content of an existing 'wekafiles' directory.";
+      + "Can be initialized with the content of an existing 'wekafiles' directory.\n"
+      + "With --share-packages, the packages use the shared package store.";
   }
 
   /**
@@ -93,6 +95,11 @@ public class Create
       .dest("envvar")
       .help("optional environment variables to set (key=value)")
       .multiple(true);
+    result.addOption("--share-packages")
+      .dest("sharepackages")
+      .help("if set, the packages of the environment use the shared package store,\n"
+	+ "i.e., their jars get hardlinked to the ones in the store")
+      .argument(false);
 
     return result;
   }
@@ -152,6 +159,10 @@ public class Create
       }
     }
 
+    // use package store?
+    if ((msg == null) && ns.getBoolean("sharepackages"))
+      msg = PackageStore.share(env.name);
+
     if (msg != null)
       addError("Failed to create environment:\n" + msg);
     else
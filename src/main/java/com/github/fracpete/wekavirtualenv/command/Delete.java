@@ -20,6 +20,7 @@
 
 package com.github.fracpete.wekavirtualenv.command;
 
+import com.github.fracpete.wekavirtualenv.core.Trash;
 import com.github.fracpete.wekavirtualenv.env.Environments;
 import com.github.fracpete.simpleargparse4j.ArgumentParser;
 import com.github.fracpete.simpleargparse4j.Namespace;
@@ -48,7 +49,9 @@ public class Delete
    * @return		the help string
    */
   public String getHelp() {
-    return "Deletes an existing environment.";
+    return "Deletes an existing environment.\n"
+      + "With --async, the environment directory gets moved into the trash\n"
+      + "and removed by a background process.";
   }
 
   /**
@@ -65,6 +68,10 @@ public class Delete
       .dest("name")
       .help("the name of the environment to delete")
       .required(true);
+    result.addOption("--async")
+      .dest("async")
+      .help("if set, moves the environment into the trash and removes it in the background")
+      .argument(false);
 
     return result;
   }
@@ -80,11 +87,19 @@ public class Delete
   protected boolean doExecute(Namespace ns, String[] options) {
     String	msg;
 
-    msg = Environments.delete(ns.getString("name"));
-    if (msg != null)
+    msg = Environments.delete(ns.getString("name"), ns.getBoolean("async"));
+    if (msg != null) {
       addError("Failed to delete environment '" + ns.getString("name") + "':\n" + msg);
-    else
+    }
+    else {
       println("Environment successfully deleted: " + ns.getString("name"), true);
+      if (ns.getBoolean("async")) {
+        msg = Trash.emptyInBackground();
+        if (msg != null)
+          println(msg, false);
+      }
+      msg = null;
+    }
 
     return (msg == null);
   }
@@ -111,6 +111,7 @@ public class Echo
     line   = CommandUtils.unbackquote(ns.getString("message"));
     stdout = !ns.getBoolean("stderr");
     line   = m_FilterChain.intercept(line, stdout);
+    m_FilterChain.close();
     if (line != null)
       println(line, stdout);
     return true;
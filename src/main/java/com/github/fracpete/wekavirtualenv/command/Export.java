@@ -0,0 +1,129 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Export.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.command;
+
+import com.github.fracpete.simpleargparse4j.ArgumentParser;
+import com.github.fracpete.simpleargparse4j.Namespace;
+import com.github.fracpete.simpleargparse4j.Option.Type;
+import com.github.fracpete.wekavirtualenv.env.Environment;
+import com.github.fracpete.wekavirtualenv.env.EnvironmentArchive;
+import com.github.fracpete.wekavirtualenv.env.Environments;
+
+import java.io.File;
+import java.text.DecimalFormat;
+
+/**
+ * Exports an environment into a zip archive.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Export
+  extends AbstractCommand {
+
+  /**
+   * The name of the command (used on the commandline).
+   *
+   * @return		the name
+   */
+  @Override
+  public String getName() {
+    return "export";
+  }
+
+  /**
+   * Returns a short help string.
+   *
+   * @return		the help string
+   */
+  public String getHelp() {
+    return "Exports an environment (setup, 'wekafiles' and optionally the Weka jar)\n"
+      + "into a zip archive, which can be imported with the 'import' command.";
+  }
+
+  /**
+   * Returns the parser to use for the arguments.
+   *
+   * @return		the parser
+   */
+  @Override
+  public ArgumentParser getParser() {
+    ArgumentParser 	result;
+
+    result = new ArgumentParser(getName());
+    result.addOption("--name")
+      .dest("name")
+      .help("the name of the environment to export")
+      .required(true);
+    result.addOption("--output")
+      .dest("output")
+      .help("the zip file to write the environment to")
+      .required(true);
+    result.addOption("--include-jar")
+      .dest("includejar")
+      .help("if set, the Weka jar gets included in the archive")
+      .argument(false);
+    result.addOption("--num-threads")
+      .dest("numthreads")
+      .type(Type.INTEGER)
+      .help("the number of threads to use for compressing, < 1 for number of cores")
+      .setDefault(0);
+
+    return result;
+  }
+
+  /**
+   * Executes the command.
+   *
+   * @param ns		the namespace of the parsed options, null if no options to parse
+   * @param options	additional command-line options
+   * @return		true if successful
+   */
+  @Override
+  protected boolean doExecute(Namespace ns, String[] options) {
+    Environment		env;
+    EnvironmentArchive	archive;
+    String		msg;
+    DecimalFormat	dformat;
+
+    env = Environments.readEnv(ns.getString("name"));
+    if (env == null) {
+      addError("Failed to load environment: " + ns.getString("name"));
+      return false;
+    }
+
+    archive = new EnvironmentArchive();
+    archive.setIncludeJar(ns.getBoolean("includejar"));
+    archive.setNumThreads(ns.getInt("numthreads"));
+    msg = archive.exportArchive(env, new File(ns.getString("output")));
+    if (msg != null) {
+      addError(msg);
+      return false;
+    }
+
+    dformat = new DecimalFormat("###,###.###");
+    println("Exported environment '" + env.name + "' to " + ns.getString("output") + ": "
+      + archive.getEntries() + " files, "
+      + dformat.format(archive.getBytes() / 1024.0 / 1024.0) + "MB in "
+      + dformat.format(archive.getDuration() / 1000.0) + "s", true);
+
+    return true;
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Gc.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.command;
+
+import com.github.fracpete.wekavirtualenv.core.Trash;
+import com.github.fracpete.wekavirtualenv.env.PackageStore;
+import com.github.fracpete.simpleargparse4j.Namespace;
+
+/**
+ * Removes leftovers: empties the trash (e.g., after a crash during an
+ * asynchronous delete/reset) and cleans up the package store.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Gc
+  extends AbstractCommand {
+
+  /**
+   * The name of the command (used on the commandline).
+   *
+   * @return		the name
+   */
+  @Override
+  public String getName() {
+    return "gc";
+  }
+
+  /**
+   * Returns a short help string.
+   *
+   * @return		the help string
+   */
+  public String getHelp() {
+    return "Empties the trash (asynchronously deleted/reset environments)\n"
+      + "and removes unused packages from the package store.";
+  }
+
+  /**
+   * Executes the command.
+   *
+   * @param ns		the namespace of the parsed options, null if no options to parse
+   * @param options	additional command-line options
+   * @return		true if successful
+   */
+  @Override
+  protected boolean doExecute(Namespace ns, String[] options) {
+    String	msg;
+    int		size;
+    long	start;
+
+    start = System.currentTimeMillis();
+    size  = Trash.size();
+    msg   = Trash.empty();
+    if (msg != null) {
+      addError("Failed to empty trash:\n" + msg);
+      return false;
+    }
+    println("Emptied trash: " + size + " entries in " + (System.currentTimeMillis() - start) + "ms", true);
+
+    msg = PackageStore.gc();
+    if (msg != null) {
+      addError(msg);
+      return false;
+    }
+    println("Cleaned up package store", true);
+
+    return true;
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Import.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.command;
+
+import com.github.fracpete.simpleargparse4j.ArgumentParser;
+import com.github.fracpete.simpleargparse4j.Namespace;
+import com.github.fracpete.simpleargparse4j.Option.Type;
+import com.github.fracpete.wekavirtualenv.env.EnvironmentArchive;
+
+import java.io.File;
+import java.text.DecimalFormat;
+
+/**
+ * Imports an environment from a zip archive generated by the 'export'
+ * command.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Import
+  extends AbstractCommand {
+
+  /**
+   * The name of the command (used on the commandline).
+   *
+   * @return		the name
+   */
+  @Override
+  public String getName() {
+    return "import";
+  }
+
+  /**
+   * Returns a short help string.
+   *
+   * @return		the help string
+   */
+  public String getHelp() {
+    return "Imports an environment from a zip archive generated by the 'export' command.\n"
+      + "A Weka jar included in the archive gets extracted into the environment directory.\n"
+      + "Paths referring to the original environment directory get rewritten.";
+  }
+
+  /**
+   * Returns the parser to use for the arguments.
+   *
+   * @return		the parser
+   */
+  @Override
+  public ArgumentParser getParser() {
+    ArgumentParser 	result;
+
+    result = new ArgumentParser(getName());
+    result.addOption("--input")
+      .dest("input")
+      .help("the zip file to import the environment from")
+      .required(true);
+    result.addOption("--name")
+      .dest("name")
+      .help("the name for the environment, uses the original name if omitted")
+      .setDefault("");
+    result.addOption("--weka")
+      .dest("weka")
+      .help("the full path to the weka.jar to use, uses the included or original one if omitted")
+      .setDefault("");
+    result.addOption("--num-threads")
+      .dest("numthreads")
+      .type(Type.INTEGER)
+      .help("the number of threads to use for extracting, < 1 for number of cores")
+      .setDefault(0);
+    result.addOption("--share-packages")
+      .dest("sharepackages")
+      .help("if set, the packages of the environment use the shared package store,\n"
+	+ "i.e., their jars get hardlinked to the ones in the store")
+      .argument(false);
+
+    return result;
+  }
+
+  /**
+   * Executes the command.
+   *
+   * @param ns		the namespace of the parsed options, null if no options to parse
+   * @param options	additional command-line options
+   * @return		true if successful
+   */
+  @Override
+  protected boolean doExecute(Namespace ns, String[] options) {
+    EnvironmentArchive	archive;
+    String		msg;
+    DecimalFormat	dformat;
+
+    archive = new EnvironmentArchive();
+    archive.setNumThreads(ns.getInt("numthreads"));
+    archive.setSharePackages(ns.getBoolean("sharepackages"));
+    msg = archive.importArchive(
+      new File(ns.getString("input")),
+      ns.getString("name").isEmpty() ? null : ns.getString("name"),
+      ns.getString("weka").isEmpty() ? null : ns.getString("weka"));
+    if (msg != null) {
+      addError(msg);
+      return false;
+    }
+
+    dformat = new DecimalFormat("###,###.###");
+    println("Imported environment from " + ns.getString("input") + ": "
+      + archive.getEntries() + " files, "
+      + dformat.format(archive.getBytes() / 1024.0 / 1024.0) + "MB in "
+      + dformat.format(archive.getDuration() / 1000.0) + "s", true);
+
+    return true;
+  }
+}
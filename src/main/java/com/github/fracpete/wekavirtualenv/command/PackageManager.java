@@ -21,7 +21,7 @@
 package com.github.fracpete.wekavirtualenv.command;
 
 import com.github.fracpete.simpleargparse4j.Namespace;
-import com.github.fracpete.wekavirtualenv.env.Environment;
+import com.github.fracpete.wekavirtualenv.env.PackageStore;
 
 /**
  * Executes the commandline package manager.
@@ -70,7 +70,7 @@ public class PackageManager
    */
   @Override
   public boolean isAvailable() {
-    return Environment.hasClass(getEnv().weka, CLASSNAME, true);
+    return getEnv().hasClass(CLASSNAME, true);
   }
 
   /**
@@ -81,10 +81,22 @@ public class PackageManager
    * @return		true if successful
    */
   protected boolean doExecute(Namespace ns, String[] options) {
+    boolean	result;
+    String	msg;
+
     if (!isAvailable()) {
       addError("Package manager command-line tool is not available in Weka " + getEnv().version() + " (" + CLASSNAME + ")!");
       return false;
     }
-    return launch(build(CLASSNAME, options));
+    result = launch(build(CLASSNAME, options));
+
+    // move (new) packages into store
+    if (result && PackageStore.isShared(getEnv().name)) {
+      msg = PackageStore.share(getEnv().name);
+      if (msg != null)
+	println(msg, false);
+    }
+
+    return result;
   }
 }
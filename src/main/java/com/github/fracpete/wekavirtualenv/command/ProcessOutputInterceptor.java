@@ -35,4 +35,11 @@ public interface ProcessOutputInterceptor {
    * @return		the string to keep or null
    */
   public String intercept(String line, boolean stdout);
+
+  /**
+   * Sets the owner to notify, e.g., once no further output is required.
+   *
+   * @param value	the owner, null for none
+   */
+  public void setOwner(InterceptorOwner value);
 }
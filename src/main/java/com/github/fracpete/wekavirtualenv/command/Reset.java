@@ -22,7 +22,9 @@ package com.github.fracpete.wekavirtualenv.command;
 
 import com.github.fracpete.simpleargparse4j.ArgumentParser;
 import com.github.fracpete.simpleargparse4j.Namespace;
+import com.github.fracpete.wekavirtualenv.core.Trash;
 import com.github.fracpete.wekavirtualenv.env.Environments;
+import com.github.fracpete.wekavirtualenv.env.PackageStore;
 import nz.ac.waikato.cms.core.FileUtils;
 
 import java.io.File;
@@ -51,7 +53,9 @@ public class Reset
    * @return		the help string
    */
   public String getHelp() {
-    return "Deletes an existing environment, i.e., deletes the \"wekafiles\" sub-directory.";
+    return "Deletes an existing environment, i.e., deletes the \"wekafiles\" sub-directory.\n"
+      + "With --async, the directory gets moved into the trash and removed by\n"
+      + "a background process.";
   }
 
   /**
@@ -68,6 +72,10 @@ public class Reset
       .dest("name")
       .help("the name of the environment to reset")
       .required(true);
+    result.addOption("--async")
+      .dest("async")
+      .help("if set, moves the 'wekafiles' directory into the trash and removes it in the background")
+      .argument(false);
 
     return result;
   }
@@ -82,12 +90,32 @@ public class Reset
   @Override
   protected boolean doExecute(Namespace ns, String[] options) {
     boolean 	result;
+    String	msg;
+    File	dir;
 
-    result = FileUtils.delete(new File(Environments.getWekaFilesDir(ns.getString("name"))));
-    if (!result)
-      addError("Failed to reset environment '" + ns.getString("name") + "':\n" + result);
-    else
+    msg = PackageStore.release(ns.getString("name"));
+    if (msg != null)
+      println(msg, false);
+
+    dir = new File(Environments.getWekaFilesDir(ns.getString("name")));
+    if (ns.getBoolean("async")) {
+      msg    = dir.exists() ? Trash.move(dir) : null;
+      result = (msg == null);
+    }
+    else {
+      result = FileUtils.delete(dir);
+    }
+    if (!result) {
+      addError("Failed to reset environment '" + ns.getString("name") + "':\n" + msg);
+    }
+    else {
       println("Environment successfully reset: " + ns.getString("name"), true);
+      if (ns.getBoolean("async")) {
+	msg = Trash.emptyInBackground();
+	if (msg != null)
+	  println(msg, false);
+      }
+    }
 
     return result;
   }
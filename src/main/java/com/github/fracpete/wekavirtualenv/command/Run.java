@@ -15,13 +15,15 @@
 
 /*
  * Run.java
- * Copyright (C) 2017 University of Waikato, Hamilton, NZ
+ * Copyright (C) 2017-2018 University of Waikato, Hamilton, NZ
  */
 
 package com.github.fracpete.wekavirtualenv.command;
 
 import com.github.fracpete.simpleargparse4j.ArgumentParser;
 import com.github.fracpete.simpleargparse4j.Namespace;
+import com.github.fracpete.simpleargparse4j.Option.Type;
+import com.github.fracpete.wekavirtualenv.launch.InProcessEngine;
 
 /**
  * Executes an arbitrary class.
@@ -47,7 +49,13 @@ public class Run
    * @return		the help string
    */
   public String getHelp() {
-    return "Executes an arbitrary class with the unconsumed command-line options.";
+    return "Executes an arbitrary class with the unconsumed command-line options.\n"
+      + "With --worker, the class gets executed in a persistent JVM of the environment.\n"
+      + "With --prespawn, the class gets executed in a JVM that was started ahead of time.\n"
+      + "With --in-process, the class gets executed within the current JVM, using a\n"
+      + "classloader for the environment's Weka jar and its packages (no environment variables).\n"
+      + "Without any filters, the output of the class gets passed straight through to the\n"
+      + "console; --passthrough enforces this, ignoring any filters.";
   }
 
   /**
@@ -74,6 +82,42 @@ public class Run
       .dest("class")
       .help("the class to execute")
       .required(true);
+    result.addOption("--worker")
+      .dest("worker")
+      .help("executes the class in a persistent JVM of the environment rather than launching a new one")
+      .argument(false);
+    result.addOption("--worker-max-jobs")
+      .dest("workermaxjobs")
+      .type(Type.INTEGER)
+      .help("the number of jobs after which a worker JVM gets replaced with a fresh one (< 1 for unlimited)")
+      .setDefault(100);
+    result.addOption("--worker-max-heap")
+      .dest("workermaxheap")
+      .type(Type.DOUBLE)
+      .help("the fraction of the heap (0-1) still in use after a job that triggers replacing the worker JVM")
+      .setDefault(0.75);
+    result.addOption("--prespawn")
+      .dest("prespawn")
+      .help("executes the class in a fresh JVM that was started ahead of time (eg within loops)")
+      .argument(false);
+    result.addOption("--prespawn-size")
+      .dest("prespawnsize")
+      .type(Type.INTEGER)
+      .help("the number of JVMs to keep pre-spawned for the environment")
+      .setDefault(2);
+    result.addOption("--passthrough")
+      .dest("passthrough")
+      .help("connects the output of the process directly to the console, ignoring any filters")
+      .argument(false);
+    result.addOption("--in-process")
+      .dest("inprocess")
+      .help("executes the class within the current JVM, without environment variables (for lightweight jobs)")
+      .argument(false);
+    result.addOption("--in-process-max-loaders")
+      .dest("inprocessmaxloaders")
+      .type(Type.INTEGER)
+      .help("the maximum number of environment classloaders to keep for in-process execution")
+      .setDefault(InProcessEngine.DEFAULT_MAX_LOADERS);
 
     return result;
   }
@@ -86,6 +130,15 @@ public class Run
    * @return		true if successful
    */
   protected boolean doExecute(Namespace ns, String[] options) {
+    if (ns.getBoolean("worker"))
+      return launchWorker(ns.getString("class"), options, ns.getInt("workermaxjobs"), ns.getDouble("workermaxheap"));
+    if (ns.getBoolean("inprocess")) {
+      InProcessEngine.getSingleton().setMaxLoaders(ns.getInt("inprocessmaxloaders"));
+      return launchInProcess(ns.getString("class"), options);
+    }
+    if (ns.getBoolean("prespawn"))
+      return launchPrespawned(ns.getString("class"), options, ns.getInt("prespawnsize"));
+    setPassthrough(ns.getBoolean("passthrough"));
     return launch(build(ns.getString("class"), options));
   }
 }
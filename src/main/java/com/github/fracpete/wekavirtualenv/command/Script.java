@@ -22,11 +22,13 @@ package com.github.fracpete.wekavirtualenv.command;
 
 import com.github.fracpete.simpleargparse4j.ArgumentParser;
 import com.github.fracpete.simpleargparse4j.Namespace;
+import com.github.fracpete.simpleargparse4j.Option.Type;
 import com.github.fracpete.wekavirtualenv.command.script.Variables;
 import com.github.fracpete.wekavirtualenv.command.script.VariablesHandler;
 import com.github.fracpete.wekavirtualenv.command.script.instructions.Block;
 import com.github.fracpete.wekavirtualenv.command.script.instructions.Engine;
 import com.github.fracpete.wekavirtualenv.command.script.instructions.EngineContext;
+import com.github.fracpete.wekavirtualenv.command.script.instructions.Jobs;
 import com.github.fracpete.wekavirtualenv.core.Destroyable;
 import com.github.fracpete.wekavirtualenv.core.InvalidIndentationException;
 
@@ -52,6 +54,9 @@ public class Script
   /** the engine for executing the commands. */
   protected Engine m_Engine;
 
+  /** the background jobs. */
+  protected Jobs m_Jobs;
+
   /**
    * Initializes the members.
    */
@@ -59,6 +64,7 @@ public class Script
   protected void initialize() {
     super.initialize();
     m_Engine = null;
+    m_Jobs   = null;
   }
 
   /**
@@ -78,7 +84,8 @@ public class Script
    */
   public String getHelp() {
     return "Executes the commands in the specified script file.\n"
-      + "Empty lines and lines starting with " + Block.COMMENT + " get skipped.";
+      + "Empty lines and lines starting with " + Block.COMMENT + " get skipped.\n"
+      + "Commands ending with " + Engine.BACKGROUND + " get executed in the background.";
   }
 
   /**
@@ -99,6 +106,11 @@ public class Script
       .dest("verbose")
       .help("in verbose mode, commands to be executed are output on stderr")
       .argument(false);
+    result.addOption("--max-jobs")
+      .dest("maxjobs")
+      .type(Type.INTEGER)
+      .help("the maximum number of background jobs running at the same time, further ones get queued (< 1 = number of cores)")
+      .setDefault(0);
 
     return result;
   }
@@ -112,6 +124,15 @@ public class Script
     return m_Variables;
   }
 
+  /**
+   * Returns the table of background jobs.
+   *
+   * @return		the jobs
+   */
+  public Jobs getJobs() {
+    return m_Jobs;
+  }
+
   /**
    * Executes the command.
    *
@@ -121,6 +142,7 @@ public class Script
    */
   @Override
   protected boolean doExecute(Namespace ns, String[] options) {
+    boolean		result;
     File 		scriptfile;
     List<String>	cmds;
     Block		instructions;
@@ -145,17 +167,25 @@ public class Script
 
     m_Verbose = ns.getBoolean("verbose");
     m_Variables = new Variables();
+    m_Jobs = new Jobs(ns.getInt("maxjobs"));
 
     try {
       instructions = Block.parse(cmds);
+      instructions.compile();
       m_Engine = new Engine(this, instructions, m_Verbose, m_OutputListeners);
-      return m_Engine.execute();
+      m_Engine.setOutputCapture(m_OutputCapture);
+      result = m_Engine.execute();
+      // wait for any remaining background jobs
+      if (result)
+	result = m_Jobs.waitForAll(this);
+      return result;
     }
     catch (InvalidIndentationException e) {
       addError("Failed to parse instructions!", e);
       return false;
     }
     finally {
+      m_Jobs.destroy();
       m_OutputListeners.clear();
       m_Engine = null;
     }
@@ -167,5 +197,7 @@ public class Script
   public void destroy() {
     if (m_Engine != null)
       m_Engine.destroy();
+    if (m_Jobs != null)
+      m_Jobs.destroy();
   }
 }
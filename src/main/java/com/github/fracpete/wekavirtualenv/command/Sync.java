@@ -0,0 +1,136 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Sync.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.command;
+
+import com.github.fracpete.simpleargparse4j.ArgumentParser;
+import com.github.fracpete.simpleargparse4j.Namespace;
+import com.github.fracpete.wekavirtualenv.env.Environment;
+import com.github.fracpete.wekavirtualenv.env.EnvironmentSync;
+import com.github.fracpete.wekavirtualenv.env.Environments;
+
+import java.io.File;
+import java.text.DecimalFormat;
+
+/**
+ * Replicates an environment into a directory, only transferring what changed.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Sync
+  extends AbstractCommand {
+
+  /**
+   * The name of the command (used on the commandline).
+   *
+   * @return		the name
+   */
+  @Override
+  public String getName() {
+    return "sync";
+  }
+
+  /**
+   * Returns a short help string.
+   *
+   * @return		the help string
+   */
+  public String getHelp() {
+    return "Replicates an environment (setup and 'wekafiles') into a directory,\n"
+      + "e.g., the environment directory on another host mounted locally.\n"
+      + "Only the blocks of files that changed since the last sync get transferred.\n"
+      + "References to the environment directory in the setup get rewritten to the\n"
+      + "directory on the other host (--remote-dir, default: target directory).\n"
+      + "The Weka jar must exist at the same location on the other host, unless --weka is used.";
+  }
+
+  /**
+   * Returns the parser to use for the arguments.
+   *
+   * @return		the parser
+   */
+  @Override
+  public ArgumentParser getParser() {
+    ArgumentParser 	result;
+
+    result = new ArgumentParser(getName());
+    result.addOption("--name")
+      .dest("name")
+      .help("the name of the environment to replicate")
+      .required(true);
+    result.addOption("--target")
+      .dest("target")
+      .help("the directory to replicate the environment to")
+      .required(true);
+    result.addOption("--remote-dir")
+      .dest("remotedir")
+      .help("the directory of the environment on the other host, uses the target directory if omitted")
+      .setDefault("");
+    result.addOption("--weka")
+      .dest("weka")
+      .help("the full path to the weka.jar to use on the other host, uses the same one if omitted")
+      .setDefault("");
+
+    return result;
+  }
+
+  /**
+   * Executes the command.
+   *
+   * @param ns		the namespace of the parsed options, null if no options to parse
+   * @param options	additional command-line options
+   * @return		true if successful
+   */
+  @Override
+  protected boolean doExecute(Namespace ns, String[] options) {
+    Environment		env;
+    EnvironmentSync	sync;
+    String		msg;
+    DecimalFormat	dformat;
+
+    env = Environments.readEnv(ns.getString("name"));
+    if (env == null) {
+      addError("Failed to load environment: " + ns.getString("name"));
+      return false;
+    }
+
+    sync = new EnvironmentSync();
+    if (!ns.getString("remotedir").isEmpty())
+      sync.setRemoteDir(ns.getString("remotedir"));
+    if (!ns.getString("weka").isEmpty())
+      sync.setWeka(ns.getString("weka"));
+    msg  = sync.sync(env, new File(ns.getString("target")));
+    if (msg != null) {
+      addError(msg);
+      return false;
+    }
+
+    dformat = new DecimalFormat("###,###.###");
+    println("Synced environment '" + env.name + "' to " + ns.getString("target") + ": "
+      + sync.getFiles() + " files, "
+      + sync.getUpdatedFiles() + " updated, "
+      + sync.getDeletedFiles() + " deleted, "
+      + dformat.format(sync.getTransferredBytes() / 1024.0 / 1024.0) + "MB of "
+      + dformat.format(sync.getTotalBytes() / 1024.0 / 1024.0) + "MB transferred in "
+      + dformat.format(sync.getDuration() / 1000.0) + "s", true);
+
+    return true;
+  }
+}
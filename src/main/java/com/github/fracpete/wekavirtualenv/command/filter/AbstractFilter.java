@@ -24,10 +24,10 @@ import com.github.fracpete.simpleargparse4j.ArgumentParser;
 import com.github.fracpete.simpleargparse4j.Namespace;
 import com.github.fracpete.wekavirtualenv.command.CommandUtils;
 import com.github.fracpete.wekavirtualenv.command.Help;
+import com.github.fracpete.wekavirtualenv.command.InterceptorOwner;
+import com.github.fracpete.wekavirtualenv.core.ClassIndex;
 import nz.ac.waikato.cms.core.Utils;
-import nz.ac.waikato.cms.locator.ClassLocator;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -39,6 +39,10 @@ import java.util.List;
 public abstract class AbstractFilter
   implements Filter {
 
+  /** the index of the filters (name - class). */
+  protected static ClassIndex<Filter> m_Index = new ClassIndex<>(
+    Filter.class, Filter.class.getPackage().getName(), "filters", Filter::getName);
+
   /** for storing any errors. */
   protected StringBuilder m_Errors;
 
@@ -48,6 +52,9 @@ public abstract class AbstractFilter
   /** whether to capture stderr. */
   protected boolean m_StdErr;
 
+  /** the owner to notify, can be null. */
+  protected InterceptorOwner m_Owner;
+
   /**
    * Initializes the filter.
    */
@@ -163,6 +170,23 @@ public abstract class AbstractFilter
     return true;
   }
 
+  /**
+   * Sets the owner to notify, e.g., once no further output is required.
+   *
+   * @param value	the owner, null for none
+   */
+  public void setOwner(InterceptorOwner value) {
+    m_Owner = value;
+  }
+
+  /**
+   * Notifies the owner that the filter doesn't require any further output.
+   */
+  protected void satisfied() {
+    if (m_Owner != null)
+      m_Owner.interceptorSatisfied(this);
+  }
+
   /**
    * Intercepts the process output.
    *
@@ -180,12 +204,51 @@ public abstract class AbstractFilter
    * @return		the string to keep or null
    */
   public String intercept(String line, boolean stdout) {
-    if ((m_StdOut && stdout) || (m_StdErr && !stdout))
+    if (appliesTo(stdout))
       return doIntercept(line, stdout);
     else
       return line;
   }
 
+  /**
+   * Returns whether the filter processes output from the stream.
+   *
+   * @param stdout	whether stdout or stderr
+   * @return		true if processing the output
+   */
+  public boolean appliesTo(boolean stdout) {
+    return (m_StdOut && stdout) || (m_StdErr && !stdout);
+  }
+
+  /**
+   * Processes the line in the buffer, without checking whether the filter
+   * applies to the stream.
+   * <br>
+   * Default implementation uses {@link #doIntercept(String, boolean)}.
+   *
+   * @param line	the line to process, gets modified in place
+   * @param stdout	whether stdout or stderr
+   * @return		true if to keep the line
+   */
+  public boolean process(LineBuffer line, boolean stdout) {
+    String	result;
+
+    result = doIntercept(line.toString(), stdout);
+    if (result == null)
+      return false;
+    line.set(result);
+    return true;
+  }
+
+  /**
+   * Gets called once no more output is to be processed, e.g., for
+   * releasing resources.
+   * <br>
+   * Default implementation does nothing.
+   */
+  public void close() {
+  }
+
   /**
    * Simply uses the filter for comparing.
    *
@@ -218,12 +281,7 @@ public abstract class AbstractFilter
   public static boolean configure(FilterSetup setup) {
     Namespace 	ns;
 
-    for (Filter f : getFilters()) {
-      if (f.getName().equals(setup.options[0])) {
-	setup.filter = f;
-	break;
-      }
-    }
+    setup.filter = getFilter(setup.options[0]);
     if (setup.filter == null) {
       System.err.println("Unknown filter: " + setup.options[0]);
       new Help().execute(new String[0]);
@@ -236,6 +294,7 @@ public abstract class AbstractFilter
 
     try {
       ns = setup.filter.getParser().parseArgs(setup.options, true);
+      setup.namespace = ns;
       return setup.filter.initialize(ns);
     }
     catch (Exception e) {
@@ -252,29 +311,22 @@ public abstract class AbstractFilter
    */
   public static List<Filter> getFilters() {
     List<Filter>	result;
-    List<Class>		classes;
-    Filter		cmd;
-
-    result = new ArrayList<>();
-    classes = ClassLocator.getSingleton().findClasses(
-      Filter.class,
-      new String[]{Filter.class.getPackage().getName()});
-
-    for (Class cls: classes) {
-      try {
-	cmd = (Filter) cls.newInstance();
-	result.add(cmd);
-      }
-      catch (Exception e) {
-	// ignored
-      }
-    }
 
+    result = m_Index.newInstances();
     Collections.sort(result);
 
     return result;
   }
 
+  /**
+   * Returns the index of the filters.
+   *
+   * @return		the index
+   */
+  public static ClassIndex<Filter> getIndex() {
+    return m_Index;
+  }
+
   /**
    * Returns the filter associated with the filter name.
    *
@@ -282,16 +334,6 @@ public abstract class AbstractFilter
    * @return		the filter, null if not available
    */
   public static Filter getFilter(String name) {
-    Filter		result;
-
-    result = null;
-    for (Filter cmd: getFilters()) {
-      if (cmd.getName().equals(name)) {
-        result = cmd;
-        break;
-      }
-    }
-
-    return result;
+    return m_Index.newInstance(name);
   }
 }
@@ -83,6 +83,31 @@ public interface Filter
    */
   public boolean initialize(Namespace ns);
 
+  /**
+   * Returns whether the filter processes output from the stream.
+   *
+   * @param stdout	whether stdout or stderr
+   * @return		true if processing the output
+   */
+  public boolean appliesTo(boolean stdout);
+
+  /**
+   * Processes the line in the buffer, without checking whether the filter
+   * applies to the stream.
+   *
+   * @param line	the line to process, gets modified in place
+   * @param stdout	whether stdout or stderr
+   * @return		true if to keep the line
+   * @see		#appliesTo(boolean)
+   */
+  public boolean process(LineBuffer line, boolean stdout);
+
+  /**
+   * Gets called once no more output is to be processed, e.g., for
+   * releasing resources.
+   */
+  public void close();
+
   /**
    * Simply uses the filter for comparing.
    *
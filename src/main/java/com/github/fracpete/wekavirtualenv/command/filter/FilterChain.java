@@ -20,13 +20,17 @@
 
 package com.github.fracpete.wekavirtualenv.command.filter;
 
+import com.github.fracpete.wekavirtualenv.command.InterceptorOwner;
 import com.github.fracpete.wekavirtualenv.command.ProcessOutputInterceptor;
 
 import java.util.ArrayList;
 import java.util.List;
 
 /**
- * For applying multiple filters sequentially.
+ * For applying multiple filters sequentially. Before processing the first
+ * line, the chain gets compiled into the filters that apply to stdout and
+ * stderr, respectively. Lines get processed in a reused buffer and a new
+ * string is only created for lines that got modified.
  *
  * @author FracPete (fracpete at waikato dot ac dot nz)
  */
@@ -36,11 +40,28 @@ public class FilterChain
   /** the filters to apply. */
   protected List<Filter> m_Filters;
 
+  /** the compiled filters for stdout, null if not compiled. */
+  protected Filter[] m_StdOutFilters;
+
+  /** the compiled filters for stderr, null if not compiled. */
+  protected Filter[] m_StdErrFilters;
+
+  /** the buffer for stdout lines. */
+  protected LineBuffer m_StdOutBuffer;
+
+  /** the buffer for stderr lines. */
+  protected LineBuffer m_StdErrBuffer;
+
+  /** the owner to notify, can be null. */
+  protected InterceptorOwner m_Owner;
+
   /**
    * Initializes the chain.
    */
   public FilterChain() {
-    m_Filters = new ArrayList<>();
+    m_Filters      = new ArrayList<>();
+    m_StdOutBuffer = new LineBuffer();
+    m_StdErrBuffer = new LineBuffer();
   }
 
   /**
@@ -50,6 +71,31 @@ public class FilterChain
    */
   public void addFilter(Filter value) {
     m_Filters.add(value);
+    value.setOwner(m_Owner);
+    m_StdOutFilters = null;
+    m_StdErrFilters = null;
+  }
+
+  /**
+   * Sets the owner to notify, e.g., once a filter doesn't require any
+   * further output. Gets passed on to the filters.
+   *
+   * @param value	the owner, null for none
+   */
+  @Override
+  public void setOwner(InterceptorOwner value) {
+    m_Owner = value;
+    for (Filter filter: m_Filters)
+      filter.setOwner(value);
+  }
+
+  /**
+   * Returns whether the chain contains no filters.
+   *
+   * @return		true if empty
+   */
+  public boolean isEmpty() {
+    return m_Filters.isEmpty();
   }
 
   /**
@@ -60,17 +106,51 @@ public class FilterChain
    * @return		the string to keep or null
    */
   @Override
-  public String intercept(String line, boolean stdout) {
-    String	result;
+  public synchronized String intercept(String line, boolean stdout) {
+    Filter[]	filters;
+    LineBuffer	buffer;
+
+    if (m_StdOutFilters == null)
+      compile();
+
+    filters = stdout ? m_StdOutFilters : m_StdErrFilters;
+    if (filters.length == 0)
+      return line;
 
-    result = line;
+    buffer = stdout ? m_StdOutBuffer : m_StdErrBuffer;
+    buffer.reset(line);
+    for (Filter filter: filters) {
+      if (!filter.process(buffer, stdout))
+        return null;
+    }
+
+    return buffer.toString();
+  }
 
+  /**
+   * Determines the filters that apply to stdout and stderr.
+   */
+  public synchronized void compile() {
+    List<Filter>	stdout;
+    List<Filter>	stderr;
+
+    stdout = new ArrayList<>();
+    stderr = new ArrayList<>();
     for (Filter filter: m_Filters) {
-      result = filter.intercept(result, stdout);
-      if (result == null)
-        break;
+      if (filter.appliesTo(true))
+        stdout.add(filter);
+      if (filter.appliesTo(false))
+        stderr.add(filter);
     }
+    m_StdOutFilters = stdout.toArray(new Filter[stdout.size()]);
+    m_StdErrFilters = stderr.toArray(new Filter[stderr.size()]);
+  }
 
-    return result;
+  /**
+   * Closes all filters, once no more output is to be processed.
+   */
+  public void close() {
+    for (Filter filter: m_Filters)
+      filter.close();
   }
 }
@@ -22,23 +22,55 @@ package com.github.fracpete.wekavirtualenv.command.filter;
 
 import com.github.fracpete.simpleargparse4j.ArgumentParser;
 import com.github.fracpete.simpleargparse4j.Namespace;
+import com.github.fracpete.simpleargparse4j.Option.Type;
+import com.github.fracpete.wekavirtualenv.core.AhoCorasick;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Captures matching strings similar to the unix 'grep' command.
+ * <br>
+ * Literal strings (--contains) get matched in a single pass using an
+ * Aho-Corasick automaton. Regular expressions of the form ".*(a|b|c).*"
+ * with only literal alternatives get matched the same way.
+ * <br>
+ * With --stop-after, the process gets stopped once the specified number
+ * of lines has been kept. In-process executions only get interrupted, i.e.,
+ * a class that ignores interrupts keeps running, with all further output
+ * getting dropped.
  *
  * @author FracPete (fracpete at waikato dot ac dot nz)
  */
 public class Grep
   extends AbstractFilter {
 
+  /** the pattern for simple regular expressions that can be matched literally. */
+  public final static Pattern LITERAL_ALTERNATIVES = Pattern.compile("^\\.\\*\\((?:\\?:)?([^\\\\.\\[\\]{}()*+?^$]*)\\)\\.\\*$");
+
   /** the pattern for matching. */
   protected Pattern m_RegExp;
 
+  /** the reused matcher. */
+  protected Matcher m_Matcher;
+
+  /** the automaton for matching literals, null if using the regular expression. */
+  protected AhoCorasick m_Literals;
+
+  /** whether lines containing line terminators must be rejected (regexp semantics of '.'). */
+  protected boolean m_RejectTerminators;
+
   /** whether to invert the matching sense. */
   protected boolean m_Invert;
 
+  /** the number of kept lines after which to stop (less than 1 for never). */
+  protected int m_StopAfter;
+
+  /** the number of lines kept so far. */
+  protected int m_Count;
+
   /**
    * The name of the filter (used on the filterline).
    *
@@ -56,7 +88,8 @@ public class Grep
    */
   @Override
   public String getHelp() {
-    return "For capturing strings that match a regular expression.";
+    return "For capturing strings that match a regular expression\n"
+      + "or that contain any of the specified literal strings.";
   }
 
   /**
@@ -71,11 +104,21 @@ public class Grep
     result.addOption("--regexp")
       .dest("regexp")
       .help("the regular expression that the output must match to be kept.")
-      .required(true);
+      .required(false);
+    result.addOption("--contains")
+      .dest("contains")
+      .help("the literal string that the output must contain to be kept, can be specified multiple times (any must be contained).")
+      .multiple(true);
     result.addOption("--invert")
       .dest("invert")
       .help("whether to invert the matching sense.")
       .argument(false);
+    result.addOption("--stop-after")
+      .dest("stopafter")
+      .type(Type.INTEGER)
+      .help("the number of kept lines after which to stop the process, < 1 for never;\n"
+	+ "in-process executions keep running if they ignore interrupts, with further output dropped.")
+      .setDefault(0);
 
     return result;
   }
@@ -92,20 +135,129 @@ public class Grep
     result = super.initialize(ns);
 
     if (result) {
-      try {
-	m_RegExp = Pattern.compile(ns.getString("regexp"));
+      m_RegExp            = null;
+      m_Literals          = null;
+      m_RejectTerminators = false;
+      if ((ns.getString("regexp") != null) && (ns.getList("contains").size() > 0)) {
+        addError("Either --regexp or --contains can be supplied, not both!");
+        return false;
       }
-      catch (Exception e) {
-        addError("Invalid regular expression: " + ns.getString("regexp"), e);
+      if (ns.getList("contains").size() > 0) {
+        m_Literals = new AhoCorasick(ns.<String>getList("contains"));
+      }
+      else if (ns.getString("regexp") != null) {
+	try {
+	  m_RegExp  = Pattern.compile(ns.getString("regexp"));
+	  m_Matcher = m_RegExp.matcher("");
+	}
+	catch (Exception e) {
+	  addError("Invalid regular expression: " + ns.getString("regexp"), e);
+	  return false;
+	}
+	m_Literals          = toLiterals(ns.getString("regexp"));
+	m_RejectTerminators = (m_Literals != null);
+      }
+      else {
+        addError("Either --regexp or --contains must be supplied!");
         return false;
       }
 
-      m_Invert = ns.getBoolean("invert");
+      m_Invert    = ns.getBoolean("invert");
+      m_StopAfter = ns.getInt("stopafter");
+      m_Count     = 0;
+    }
+
+    return result;
+  }
+
+  /**
+   * Turns a regular expression of the form ".*(a|b|c).*" with only literal
+   * alternatives into an automaton.
+   *
+   * @param regexp	the regular expression to convert
+   * @return		the automaton, null if not a literal alternatives expression
+   */
+  public static AhoCorasick toLiterals(String regexp) {
+    Matcher		matcher;
+    List<String>	literals;
+    String		alternatives;
+    int			start;
+    int			end;
+
+    matcher = LITERAL_ALTERNATIVES.matcher(regexp);
+    if (!matcher.matches())
+      return null;
+
+    literals     = new ArrayList<>();
+    alternatives = matcher.group(1);
+    start        = 0;
+    while ((end = alternatives.indexOf('|', start)) > -1) {
+      literals.add(alternatives.substring(start, end));
+      start = end + 1;
+    }
+    literals.add(alternatives.substring(start));
+
+    return new AhoCorasick(literals);
+  }
+
+  /**
+   * Checks whether the line contains any line terminators, which '.'
+   * in regular expressions doesn't match.
+   *
+   * @param line	the line to check
+   * @return		true if line terminators present
+   */
+  protected static boolean hasTerminators(CharSequence line) {
+    int		i;
+    char	c;
+
+    for (i = 0; i < line.length(); i++) {
+      c = line.charAt(i);
+      if ((c == '\n') || (c == '\r') || (c == '\u0085') || (c == '\u2028') || (c == '\u2029'))
+	return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Checks whether the line matches.
+   *
+   * @param line	the line to check
+   * @return		true if matching
+   */
+  protected boolean matches(CharSequence line) {
+    boolean	result;
+
+    if (m_Literals != null) {
+      result = m_Literals.containsAny(line) && !(m_RejectTerminators && hasTerminators(line));
+    }
+    else {
+      result = m_Matcher.reset(line).matches();
+      m_Matcher.reset("");
     }
 
     return result;
   }
 
+  /**
+   * Checks whether to keep the line. Notifies the owner once the number
+   * of lines to stop after has been reached.
+   *
+   * @param line	the line to check
+   * @return		true if to keep
+   */
+  protected boolean keep(CharSequence line) {
+    if ((m_StopAfter > 0) && (m_Count >= m_StopAfter))
+      return false;
+    if (matches(line) == m_Invert)
+      return false;
+    m_Count++;
+    if (m_Count == m_StopAfter)
+      satisfied();
+    return true;
+  }
+
   /**
    * Intercepts the process output.
    *
@@ -115,10 +267,21 @@ public class Grep
    */
   @Override
   protected String doIntercept(String line, boolean stdout) {
-    if ((!m_Invert && m_RegExp.matcher(line).matches())
-      || (m_Invert && !m_RegExp.matcher(line).matches())) {
+    if (keep(line))
       return line;
-    }
     return null;
   }
+
+  /**
+   * Processes the line in the buffer, without checking whether the filter
+   * applies to the stream.
+   *
+   * @param line	the line to process
+   * @param stdout	whether stdout or stderr
+   * @return		true if to keep the line
+   */
+  @Override
+  public boolean process(LineBuffer line, boolean stdout) {
+    return keep(line);
+  }
 }
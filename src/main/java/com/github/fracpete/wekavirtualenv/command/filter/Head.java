@@ -0,0 +1,123 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Head.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.command.filter;
+
+import com.github.fracpete.simpleargparse4j.ArgumentParser;
+import com.github.fracpete.simpleargparse4j.Namespace;
+import com.github.fracpete.simpleargparse4j.Option.Type;
+
+/**
+ * Keeps only the first lines, similar to the unix 'head' command. Stops
+ * the process once the lines have been output. In-process executions only
+ * get interrupted, i.e., a class that ignores interrupts keeps running,
+ * with all further output getting dropped.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Head
+  extends AbstractFilter {
+
+  /** the number of lines to keep. */
+  protected int m_Lines;
+
+  /** the number of lines kept so far. */
+  protected int m_Count;
+
+  /**
+   * The name of the filter (used on the filterline).
+   *
+   * @return		the name
+   */
+  @Override
+  public String getName() {
+    return "head";
+  }
+
+  /**
+   * Returns a short help string.
+   *
+   * @return		the help string
+   */
+  @Override
+  public String getHelp() {
+    return "Keeps only the first lines of the output.\n"
+      + "Stops the process once these have been output.\n"
+      + "In-process executions keep running if they ignore interrupts, with further output dropped.";
+  }
+
+  /**
+   * Returns the parser to use for the arguments.
+   *
+   * @return		the parser, null if no arguments to parse
+   */
+  public ArgumentParser getParser() {
+    ArgumentParser 	result;
+
+    result = super.getParser();
+    result.addOption("--lines")
+      .dest("lines")
+      .type(Type.INTEGER)
+      .help("the number of lines to keep.")
+      .setDefault(10);
+
+    return result;
+  }
+
+  /**
+   * Initializes the filter with the parsed options.
+   *
+   * @param ns		the parsed options
+   * @return		true if successfully parsed
+   */
+  public boolean initialize(Namespace ns) {
+    boolean	result;
+
+    result = super.initialize(ns);
+
+    if (result) {
+      m_Lines = ns.getInt("lines");
+      m_Count = 0;
+      if (m_Lines < 1) {
+        addError("Number of lines must be at least 1: " + m_Lines);
+        return false;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Intercepts the process output.
+   *
+   * @param line	the output to process
+   * @param stdout	whether stdout or stderr
+   * @return		the string to keep or null
+   */
+  @Override
+  protected String doIntercept(String line, boolean stdout) {
+    if (m_Count >= m_Lines)
+      return null;
+    m_Count++;
+    if (m_Count == m_Lines)
+      satisfied();
+    return line;
+  }
+}
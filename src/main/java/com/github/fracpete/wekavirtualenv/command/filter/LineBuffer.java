@@ -0,0 +1,163 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * LineBuffer.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.command.filter;
+
+/**
+ * Reusable buffer for a line passing through a filter chain. Wraps the
+ * original string until a filter modifies the line, which then gets edited
+ * in a reused {@link StringBuilder}. Only when the line got modified does
+ * {@link #toString()} create a new string.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class LineBuffer
+  implements CharSequence {
+
+  /** the current line, null if edited in the buffer. */
+  protected String m_Line;
+
+  /** the buffer for editing the line in place. */
+  protected StringBuilder m_Buffer;
+
+  /** whether the line got modified. */
+  protected boolean m_Modified;
+
+  /**
+   * Initializes the buffer.
+   */
+  public LineBuffer() {
+    m_Line     = "";
+    m_Buffer   = new StringBuilder();
+    m_Modified = false;
+  }
+
+  /**
+   * Sets the line to process.
+   *
+   * @param line	the line
+   */
+  public void reset(String line) {
+    m_Line     = line;
+    m_Modified = false;
+  }
+
+  /**
+   * Replaces the line with the string.
+   *
+   * @param line	the new line
+   */
+  public void set(String line) {
+    if (line != m_Line) {
+      reset(line);
+      m_Modified = true;
+    }
+  }
+
+  /**
+   * Returns the buffer for editing the line in place.
+   *
+   * @return		the buffer, containing the current line
+   */
+  public StringBuilder edit() {
+    if (m_Line != null) {
+      m_Buffer.setLength(0);
+      m_Buffer.append(m_Line);
+      m_Line = null;
+    }
+    m_Modified = true;
+    return m_Buffer;
+  }
+
+  /**
+   * Returns whether the line got modified.
+   *
+   * @return		true if modified
+   */
+  public boolean isModified() {
+    return m_Modified;
+  }
+
+  /**
+   * Returns the current line.
+   *
+   * @return		the line
+   */
+  protected CharSequence current() {
+    return (m_Line != null) ? m_Line : m_Buffer;
+  }
+
+  /**
+   * Returns the length of the line.
+   *
+   * @return		the length
+   */
+  @Override
+  public int length() {
+    return current().length();
+  }
+
+  /**
+   * Returns the character at the specified position.
+   *
+   * @param index	the position
+   * @return		the character
+   */
+  @Override
+  public char charAt(int index) {
+    return current().charAt(index);
+  }
+
+  /**
+   * Returns the specified sub-sequence.
+   *
+   * @param start	the start (incl)
+   * @param end		the end (excl)
+   * @return		the sub-sequence
+   */
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return current().subSequence(start, end);
+  }
+
+  /**
+   * Returns the position of the first occurrence of the string.
+   *
+   * @param str		the string to look for
+   * @param from	the position to start from
+   * @return		the position, -1 if not found
+   */
+  public int indexOf(String str, int from) {
+    return (m_Line != null) ? m_Line.indexOf(str, from) : m_Buffer.indexOf(str, from);
+  }
+
+  /**
+   * Returns the line, only creating a new string if it got modified
+   * in place.
+   *
+   * @return		the line
+   */
+  @Override
+  public String toString() {
+    if (m_Line == null)
+      m_Line = m_Buffer.toString();
+    return m_Line;
+  }
+}
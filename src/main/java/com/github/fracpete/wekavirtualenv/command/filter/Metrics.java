@@ -0,0 +1,655 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Metrics.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.command.filter;
+
+import com.github.fracpete.simpleargparse4j.ArgumentParser;
+import com.github.fracpete.simpleargparse4j.Namespace;
+import com.github.fracpete.wekavirtualenv.command.AbstractLaunchCommand;
+import nz.ac.waikato.cms.jenericcmdline.core.OptionUtils;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the metrics from Weka's evaluation output while it passes
+ * through (summary, detailed accuracy by class, confusion matrix, timing)
+ * and appends one record per evaluation (e.g., training data and
+ * cross-validation) to a CSV or JSONL file. Each record contains the
+ * environment, class and options that were launched. The output itself
+ * passes through unchanged.
+ * <br>
+ * The CSV format uses a fixed set of columns for the summary metrics, the
+ * per-class details and the confusion matrix are stored as JSON strings.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Metrics
+  extends AbstractFilter {
+
+  /** the CSV format. */
+  public final static String FORMAT_CSV = "csv";
+
+  /** the JSON lines format. */
+  public final static String FORMAT_JSONL = "jsonl";
+
+  /** the metrics that are output as columns in CSV format. */
+  public final static String[] CSV_METRICS = {
+    "Correctly Classified Instances",
+    "Correctly Classified Instances %",
+    "Incorrectly Classified Instances",
+    "Incorrectly Classified Instances %",
+    "Kappa statistic",
+    "Correlation coefficient",
+    "Mean absolute error",
+    "Root mean squared error",
+    "Relative absolute error",
+    "Root relative squared error",
+    "Coverage of cases (0.95 level)",
+    "Mean rel. region size (0.95 level)",
+    "UnClassified Instances",
+    "Total Number of Instances",
+    "Time taken to build model",
+    "Time taken to test model",
+    "Time taken to perform cross-validation",
+  };
+
+  /** the pattern for section headers. */
+  public final static Pattern SECTION = Pattern.compile("^\\s*=== (.*) ===\\s*$");
+
+  /** the pattern for timing lines. */
+  public final static Pattern TIMING = Pattern.compile("^\\s*Time taken to (.*?):\\s*(\\S+) seconds\\s*$");
+
+  /** the pattern separating names and columns. */
+  public final static Pattern COLUMNS = Pattern.compile("\\s{2,}");
+
+  /** the pattern for numbers. */
+  public final static Pattern NUMBER = Pattern.compile("^-?[0-9]+(\\.[0-9]+)?([eE][-+]?[0-9]+)?$");
+
+  /** the sections of the evaluation output. */
+  protected enum Section {
+    NONE,
+    SUMMARY,
+    DETAILS,
+    MATRIX,
+  }
+
+  /**
+   * The metrics of a single evaluation.
+   */
+  protected static class Record {
+
+    /** the name of the evaluation. */
+    public String evaluation;
+
+    /** the metrics (name - value). */
+    public Map<String,String> metrics = new LinkedHashMap<>();
+
+    /** the per-class details (column - value). */
+    public List<Map<String,String>> details = new ArrayList<>();
+
+    /** the labels of the confusion matrix. */
+    public List<String> labels = new ArrayList<>();
+
+    /** the rows of the confusion matrix. */
+    public List<List<String>> matrix = new ArrayList<>();
+  }
+
+  /** the output file. */
+  protected File m_Output;
+
+  /** the output format. */
+  protected String m_Format;
+
+  /** the writer in use, null if none acquired yet. */
+  protected TeeWriter m_Writer;
+
+  /** the current section. */
+  protected Section m_Section;
+
+  /** the metrics that apply to all evaluations of the run (e.g., build time). */
+  protected Map<String,String> m_RunMetrics;
+
+  /** the timing metrics output ahead of the next evaluation. */
+  protected Map<String,String> m_Pending;
+
+  /** the current evaluation, null if none. */
+  protected Record m_Record;
+
+  /** the columns of the per-class details, null if not encountered yet. */
+  protected String[] m_DetailColumns;
+
+  /**
+   * Initializes the filter.
+   */
+  public Metrics() {
+    super();
+    m_Section    = Section.NONE;
+    m_RunMetrics = new LinkedHashMap<>();
+    m_Pending    = new LinkedHashMap<>();
+  }
+
+  /**
+   * The name of the filter (used on the filterline).
+   *
+   * @return		the name
+   */
+  @Override
+  public String getName() {
+    return "metrics";
+  }
+
+  /**
+   * Returns a short help string.
+   *
+   * @return		the help string
+   */
+  @Override
+  public String getHelp() {
+    return "Extracts the metrics from Weka's evaluation output and appends\n"
+      + "one record per evaluation to a CSV or JSONL file.";
+  }
+
+  /**
+   * Returns the parser to use for the arguments.
+   *
+   * @return		the parser, null if no arguments to parse
+   */
+  public ArgumentParser getParser() {
+    ArgumentParser 	result;
+
+    result = super.getParser();
+    result.addOption("--output")
+      .dest("output")
+      .help("the file to append the records to.")
+      .required(true);
+    result.addOption("--format")
+      .dest("format")
+      .help("the format of the records: " + FORMAT_CSV + "|" + FORMAT_JSONL + ".")
+      .setDefault(FORMAT_CSV);
+
+    return result;
+  }
+
+  /**
+   * Initializes the filter with the parsed options.
+   *
+   * @param ns		the parsed options
+   * @return		true if successfully parsed
+   */
+  public boolean initialize(Namespace ns) {
+    boolean	result;
+
+    result = super.initialize(ns);
+
+    if (result) {
+      m_Output = new File(ns.getString("output"));
+      if (m_Output.isDirectory()) {
+        addError("Output points to a directory: " + m_Output);
+        return false;
+      }
+
+      m_Format = ns.getString("format");
+      if (!m_Format.equals(FORMAT_CSV) && !m_Format.equals(FORMAT_JSONL)) {
+        addError("Unsupported format: " + m_Format);
+        return false;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Checks whether the section header starts a new evaluation.
+   *
+   * @param header	the header to check
+   * @return		true if an evaluation
+   */
+  protected boolean isEvaluation(String header) {
+    return header.startsWith("Error on")
+      || header.startsWith("Evaluation")
+      || header.startsWith("Re-evaluation")
+      || header.toLowerCase().contains("cross-validation");
+  }
+
+  /**
+   * Returns the current evaluation, starting one if necessary. A new
+   * evaluation receives the timing metrics output ahead of it.
+   *
+   * @return		the evaluation
+   */
+  protected Record getRecord() {
+    if (m_Record == null) {
+      m_Record = new Record();
+      m_Record.evaluation = "";
+      m_Record.metrics.putAll(m_Pending);
+      m_Pending.clear();
+    }
+    return m_Record;
+  }
+
+  /**
+   * Parses a line of the summary.
+   *
+   * @param line	the line to parse
+   */
+  protected void parseSummary(String line) {
+    String[]		parts;
+    List<String>	values;
+
+    parts = COLUMNS.split(line.trim(), 2);
+    if (parts.length != 2)
+      return;
+
+    values = new ArrayList<>();
+    for (String value: parts[1].trim().split("\\s+")) {
+      if (!value.equals("%"))
+	values.add(value);
+    }
+    if (values.isEmpty())
+      return;
+
+    getRecord().metrics.put(parts[0], values.get(0));
+    if ((values.size() > 1) && parts[1].trim().endsWith("%"))
+      getRecord().metrics.put(parts[0] + " %", values.get(1));
+  }
+
+  /**
+   * Parses a line of the per-class details.
+   *
+   * @param line	the line to parse
+   */
+  protected void parseDetails(String line) {
+    Map<String,String>	row;
+    String[]		tokens;
+    String		label;
+    int			numValues;
+    int			offset;
+    int			i;
+
+    if (m_DetailColumns == null) {
+      m_DetailColumns = COLUMNS.split(line.trim());
+      return;
+    }
+
+    numValues = m_DetailColumns.length;
+    if (m_DetailColumns[numValues - 1].equals("Class"))
+      numValues--;
+    tokens = line.trim().split("\\s+");
+    if (line.trim().startsWith("Weighted Avg.")) {
+      label  = "Weighted Avg.";
+      offset = 2;
+    }
+    else {
+      label  = null;
+      offset = 0;
+    }
+    if (tokens.length < offset + numValues)
+      return;
+    if (label == null) {
+      label = "";
+      for (i = numValues; i < tokens.length; i++)
+	label += (label.isEmpty() ? "" : " ") + tokens[i];
+    }
+
+    row = new LinkedHashMap<>();
+    row.put("Class", label);
+    for (i = 0; i < numValues; i++)
+      row.put(m_DetailColumns[i], tokens[offset + i]);
+    getRecord().details.add(row);
+  }
+
+  /**
+   * Parses a line of the confusion matrix.
+   *
+   * @param line	the line to parse
+   */
+  protected void parseMatrix(String line) {
+    List<String>	row;
+    int			pos;
+    String		label;
+
+    if (line.contains("<-- classified as"))
+      return;
+    pos = line.indexOf('|');
+    if (pos == -1)
+      return;
+
+    row = new ArrayList<>();
+    for (String value: line.substring(0, pos).trim().split("\\s+"))
+      row.add(value);
+    label = line.substring(pos + 1).trim();
+    if (label.contains(" = "))
+      label = label.substring(label.indexOf(" = ") + 3);
+    getRecord().matrix.add(row);
+    getRecord().labels.add(label);
+  }
+
+  /**
+   * Parses the line of output.
+   *
+   * @param line	the line to parse
+   */
+  protected void parse(String line) {
+    Matcher	matcher;
+    String	header;
+
+    matcher = SECTION.matcher(line);
+    if (matcher.matches()) {
+      header = matcher.group(1).trim();
+      if (header.equals("Summary")) {
+	getRecord();
+	m_Section = Section.SUMMARY;
+      }
+      else if (header.equals("Detailed Accuracy By Class")) {
+	getRecord();
+	m_Section       = Section.DETAILS;
+	m_DetailColumns = null;
+      }
+      else if (header.equals("Confusion Matrix")) {
+	getRecord();
+	m_Section = Section.MATRIX;
+      }
+      else if (isEvaluation(header)) {
+	emit();
+	getRecord().evaluation = header;
+	m_Section = Section.SUMMARY;
+      }
+      else {
+	m_Section = Section.NONE;
+      }
+      return;
+    }
+
+    matcher = TIMING.matcher(line);
+    if (matcher.matches()) {
+      if (matcher.group(1).equals("build model"))
+	m_RunMetrics.put("Time taken to " + matcher.group(1), matcher.group(2));
+      else
+	m_Pending.put("Time taken to " + matcher.group(1), matcher.group(2));
+      return;
+    }
+
+    if (line.trim().isEmpty())
+      return;
+
+    switch (m_Section) {
+      case SUMMARY:
+	parseSummary(line);
+	break;
+      case DETAILS:
+	parseDetails(line);
+	break;
+      case MATRIX:
+	parseMatrix(line);
+	break;
+      default:
+	break;
+    }
+  }
+
+  /**
+   * Turns the string into a JSON string.
+   *
+   * @param s		the string to convert
+   * @return		the quoted and escaped string
+   */
+  protected static String quoteJson(String s) {
+    StringBuilder	result;
+    char		c;
+    int			i;
+
+    result = new StringBuilder("\"");
+    for (i = 0; i < s.length(); i++) {
+      c = s.charAt(i);
+      if ((c == '"') || (c == '\\'))
+	result.append('\\').append(c);
+      else if (c == '\n')
+	result.append("\\n");
+      else if (c == '\r')
+	result.append("\\r");
+      else if (c == '\t')
+	result.append("\\t");
+      else if (c < ' ')
+	result.append(String.format("\\u%04x", (int) c));
+      else
+	result.append(c);
+    }
+    result.append("\"");
+
+    return result.toString();
+  }
+
+  /**
+   * Turns the value into a JSON value, i.e., a number if numeric,
+   * otherwise a string.
+   *
+   * @param value	the value to convert
+   * @return		the JSON value
+   */
+  protected static String toJsonValue(String value) {
+    if (NUMBER.matcher(value).matches())
+      return value;
+    else
+      return quoteJson(value);
+  }
+
+  /**
+   * Turns the map into a JSON object.
+   *
+   * @param map		the map to convert
+   * @return		the JSON object
+   */
+  protected static String toJson(Map<String,String> map) {
+    StringBuilder	result;
+
+    result = new StringBuilder("{");
+    for (String key: map.keySet()) {
+      if (result.length() > 1)
+	result.append(",");
+      result.append(quoteJson(key)).append(":").append(toJsonValue(map.get(key)));
+    }
+    result.append("}");
+
+    return result.toString();
+  }
+
+  /**
+   * Turns the per-class details into a JSON array.
+   *
+   * @param record	the evaluation to use
+   * @return		the JSON array
+   */
+  protected static String detailsToJson(Record record) {
+    StringBuilder	result;
+
+    result = new StringBuilder("[");
+    for (Map<String,String> row: record.details) {
+      if (result.length() > 1)
+	result.append(",");
+      result.append(toJson(row));
+    }
+    result.append("]");
+
+    return result.toString();
+  }
+
+  /**
+   * Turns the confusion matrix into a JSON object.
+   *
+   * @param record	the evaluation to use
+   * @return		the JSON object
+   */
+  protected static String matrixToJson(Record record) {
+    StringBuilder	result;
+    int			i;
+    int			n;
+
+    result = new StringBuilder("{\"labels\":[");
+    for (i = 0; i < record.labels.size(); i++)
+      result.append((i > 0) ? "," : "").append(quoteJson(record.labels.get(i)));
+    result.append("],\"matrix\":[");
+    for (i = 0; i < record.matrix.size(); i++) {
+      result.append((i > 0) ? "," : "").append("[");
+      for (n = 0; n < record.matrix.get(i).size(); n++)
+	result.append((n > 0) ? "," : "").append(toJsonValue(record.matrix.get(i).get(n)));
+      result.append("]");
+    }
+    result.append("]}");
+
+    return result.toString();
+  }
+
+  /**
+   * Turns the string into a CSV cell, quoting it if necessary.
+   *
+   * @param s		the string to convert
+   * @return		the cell
+   */
+  protected static String quoteCsv(String s) {
+    if ((s.indexOf(',') > -1) || (s.indexOf('"') > -1) || (s.indexOf('\n') > -1) || (s.indexOf('\r') > -1))
+      return "\"" + s.replace("\"", "\"\"") + "\"";
+    else
+      return s;
+  }
+
+  /**
+   * Returns the value of the metric for the CSV output. Timing metrics
+   * for testing the model are matched by prefix, as Weka appends the
+   * data used.
+   *
+   * @param metrics	the metrics to look up
+   * @param name	the metric
+   * @return		the value, empty string if not present
+   */
+  protected static String getCsvMetric(Map<String,String> metrics, String name) {
+    if (metrics.containsKey(name))
+      return metrics.get(name);
+    if (name.equals("Time taken to test model")) {
+      for (String key: metrics.keySet()) {
+	if (key.startsWith(name))
+	  return metrics.get(key);
+      }
+    }
+    return "";
+  }
+
+  /**
+   * Appends the current evaluation to the output, if any metrics were
+   * extracted.
+   */
+  protected void emit() {
+    Record		record;
+    Map<String,String>	context;
+    Map<String,String>	metrics;
+    StringBuilder	line;
+    StringBuilder	header;
+
+    record   = m_Record;
+    m_Record = null;
+    if ((record == null) || (record.metrics.isEmpty() && record.details.isEmpty() && record.matrix.isEmpty()))
+      return;
+
+    context = new LinkedHashMap<>();
+    context.put("timestamp", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()));
+    context.put("environment", "");
+    context.put("class", "");
+    context.put("options", "");
+    if (m_Owner instanceof AbstractLaunchCommand) {
+      if (((AbstractLaunchCommand) m_Owner).getEnv() != null)
+	context.put("environment", ((AbstractLaunchCommand) m_Owner).getEnv().name);
+      if (((AbstractLaunchCommand) m_Owner).getLaunchClass() != null)
+	context.put("class", ((AbstractLaunchCommand) m_Owner).getLaunchClass());
+      if (((AbstractLaunchCommand) m_Owner).getLaunchOptions() != null)
+	context.put("options", OptionUtils.joinOptions(((AbstractLaunchCommand) m_Owner).getLaunchOptions()));
+    }
+    context.put("evaluation", record.evaluation);
+    metrics = new LinkedHashMap<>(m_RunMetrics);
+    metrics.putAll(record.metrics);
+
+    // the shared writer writes the header once to the empty file
+    if (m_Writer == null) {
+      header = null;
+      if (m_Format.equals(FORMAT_CSV)) {
+	header = new StringBuilder();
+	for (String key: context.keySet())
+	  header.append(quoteCsv(key)).append(",");
+	for (String name: CSV_METRICS)
+	  header.append(quoteCsv(name)).append(",");
+	header.append("class_details,confusion_matrix");
+      }
+      m_Writer = TeeWriter.acquire(m_Output, true, 0, 0, false, (header == null) ? null : header.toString());
+    }
+
+    line = new StringBuilder();
+    if (m_Format.equals(FORMAT_JSONL)) {
+      line.append(toJson(context));
+      line.setLength(line.length() - 1);
+      line.append(",\"metrics\":").append(toJson(metrics));
+      line.append(",\"class_details\":").append(detailsToJson(record));
+      line.append(",\"confusion_matrix\":").append(matrixToJson(record));
+      line.append("}");
+    }
+    else {
+      for (String key: context.keySet())
+	line.append(quoteCsv(context.get(key))).append(",");
+      for (String name: CSV_METRICS)
+	line.append(quoteCsv(getCsvMetric(metrics, name))).append(",");
+      line.append(quoteCsv(detailsToJson(record))).append(",");
+      line.append(quoteCsv(matrixToJson(record)));
+    }
+    m_Writer.write(line.toString());
+  }
+
+  /**
+   * Intercepts the process output.
+   *
+   * @param line	the output to process
+   * @param stdout	whether stdout or stderr
+   * @return		the string to keep or null
+   */
+  @Override
+  protected String doIntercept(String line, boolean stdout) {
+    parse(line);
+    return line;
+  }
+
+  /**
+   * Appends the last evaluation and releases the writer.
+   */
+  @Override
+  public void close() {
+    emit();
+    m_RunMetrics.clear();
+    m_Pending.clear();
+    m_Section = Section.NONE;
+    if (m_Writer != null) {
+      m_Writer.release();
+      m_Writer = null;
+    }
+  }
+}
@@ -23,6 +23,9 @@ package com.github.fracpete.wekavirtualenv.command.filter;
 import com.github.fracpete.simpleargparse4j.ArgumentParser;
 import com.github.fracpete.simpleargparse4j.Namespace;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /**
  * Performs string replacement, simple or regular expression based.
  *
@@ -43,6 +46,12 @@ public class Replace
   /** whether to replace all occurrences (regexp only). */
   protected boolean m_All;
 
+  /** the compiled pattern (regexp only). */
+  protected Pattern m_Pattern;
+
+  /** the reused matcher (regexp only). */
+  protected Matcher m_Matcher;
+
   /**
    * The name of the filter (used on the filterline).
    *
@@ -107,8 +116,17 @@ public class Replace
       m_Find    = ns.getString("find");
       m_Replace = ns.getString("replace");
       m_RegExp  = ns.getBoolean("regexp");
-      if (m_RegExp)
+      if (m_RegExp) {
 	m_All = ns.getBoolean("all");
+	try {
+	  m_Pattern = Pattern.compile(m_Find);
+	  m_Matcher = m_Pattern.matcher("");
+	}
+	catch (Exception e) {
+	  addError("Invalid regular expression: " + m_Find, e);
+	  return false;
+	}
+      }
     }
 
     return result;
@@ -123,18 +141,53 @@ public class Replace
    */
   @Override
   protected String doIntercept(String line, boolean stdout) {
-    String	result;
+    LineBuffer	buffer;
+
+    buffer = new LineBuffer();
+    buffer.reset(line);
+    process(buffer, stdout);
+
+    return buffer.toString();
+  }
+
+  /**
+   * Processes the line in the buffer, without checking whether the filter
+   * applies to the stream. Only modifies the line if the string/pattern
+   * is present.
+   *
+   * @param line	the line to process, gets modified in place
+   * @param stdout	whether stdout or stderr
+   * @return		true if to keep the line
+   */
+  @Override
+  public boolean process(LineBuffer line, boolean stdout) {
+    StringBuilder	buffer;
+    int			pos;
 
     if (m_RegExp) {
-      if (m_All)
-        result = line.replaceAll(m_Find, m_Replace);
-      else
-        result = line.replaceFirst(m_Find, m_Replace);
+      m_Matcher.reset(line);
+      if (m_Matcher.find()) {
+	if (m_All)
+	  line.set(m_Matcher.replaceAll(m_Replace));
+	else
+	  line.set(m_Matcher.replaceFirst(m_Replace));
+      }
+      m_Matcher.reset("");
+    }
+    else if (m_Find.isEmpty()) {
+      line.set(line.toString().replace(m_Find, m_Replace));
     }
     else {
-      result = line.replace(m_Find, m_Replace);
+      pos = line.indexOf(m_Find, 0);
+      if (pos > -1) {
+	buffer = line.edit();
+	while (pos > -1) {
+	  buffer.replace(pos, pos + m_Find.length(), m_Replace);
+	  pos = buffer.indexOf(m_Find, pos + m_Replace.length());
+	}
+      }
     }
 
-    return result;
+    return true;
   }
 }
@@ -22,27 +22,38 @@ package com.github.fracpete.wekavirtualenv.command.filter;
 
 import com.github.fracpete.simpleargparse4j.ArgumentParser;
 import com.github.fracpete.simpleargparse4j.Namespace;
-import nz.ac.waikato.cms.core.FileUtils;
+import com.github.fracpete.simpleargparse4j.Option.Type;
 
 import java.io.File;
 
 /**
- * Tees off the output to a file.
+ * Tees off the output to a file. Filters writing to the same file share
+ * a single buffered writer (see {@link TeeWriter}), which writes in the
+ * background.
  *
  * @author FracPete (fracpete at waikato dot ac dot nz)
  */
 public class Tee
   extends AbstractFilter {
 
-  /** whether any output has been output yet. */
-  protected boolean m_OutputOccurred;
-
   /** the output file. */
   protected File m_Output;
 
   /** whether to append. */
   protected boolean m_Append;
 
+  /** the maximum size in bytes before rotating (less than 1 for no rotation). */
+  protected long m_MaxSize;
+
+  /** the number of rotated segments to keep (less than 1 for all). */
+  protected int m_MaxFiles;
+
+  /** whether to compress rotated segments. */
+  protected boolean m_Compress;
+
+  /** the writer in use, null if none acquired yet. */
+  protected TeeWriter m_Writer;
+
   /**
    * The name of the filter (used on the filterline).
    *
@@ -60,7 +71,8 @@ public class Tee
    */
   @Override
   public String getHelp() {
-    return "Tees off the output to a file.";
+    return "Tees off the output to a file.\n"
+      + "Optionally rotates the file once it reaches a maximum size.";
   }
 
   /**
@@ -80,6 +92,20 @@ public class Tee
       .dest("append")
       .help("whether to append to an existing output file.")
       .argument(false);
+    result.addOption("--max-size")
+      .dest("maxsize")
+      .type(Type.DOUBLE)
+      .help("the size in MB at which to rotate the output file, <= 0 for no rotation.")
+      .setDefault(0.0);
+    result.addOption("--max-files")
+      .dest("maxfiles")
+      .type(Type.INTEGER)
+      .help("the number of rotated files to keep, < 1 for all.")
+      .setDefault(0);
+    result.addOption("--compress")
+      .dest("compress")
+      .help("whether to compress rotated files with gzip.")
+      .argument(false);
 
     return result;
   }
@@ -102,7 +128,10 @@ public class Tee
         return false;
       }
 
-      m_Append = ns.getBoolean("append");
+      m_Append   = ns.getBoolean("append");
+      m_MaxSize  = (long) (ns.getDouble("maxsize") * 1024 * 1024);
+      m_MaxFiles = ns.getInt("maxfiles");
+      m_Compress = ns.getBoolean("compress");
     }
 
     return result;
@@ -117,12 +146,22 @@ public class Tee
    */
   @Override
   protected String doIntercept(String line, boolean stdout) {
-    if (!m_OutputOccurred) {
-      if (!m_Append &&  m_Output.exists())
-        m_Output.delete();
+    if (m_Writer == null) {
+      m_Writer = TeeWriter.acquire(m_Output, m_Append, m_MaxSize, m_MaxFiles, m_Compress);
+      m_Append = true;
     }
-    FileUtils.writeToFileMsg(m_Output.getAbsolutePath(), line, true, null);
-    m_OutputOccurred = true;
+    m_Writer.write(line);
     return line;
   }
+
+  /**
+   * Releases the writer, writing any remaining output.
+   */
+  @Override
+  public void close() {
+    if (m_Writer != null) {
+      m_Writer.release();
+      m_Writer = null;
+    }
+  }
 }
@@ -0,0 +1,447 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * TeeWriter.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.command.filter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Buffered writer for an output file, shared by all tee filters that write
+ * to the same file. Lines get queued and written by a background thread,
+ * which flushes the output periodically, when the last filter releases the
+ * writer and when the JVM exits. Optionally rotates the file once it
+ * reaches a maximum size, compressing the rotated segments with gzip.
+ * <br>
+ * Rotated segments get the file name with an increasing index appended,
+ * i.e., the highest index is the most recent segment.
+ * <br>
+ * An optional header (e.g., of a CSV file) gets written whenever an empty
+ * file gets opened, i.e., exactly once per file (or segment), regardless
+ * of how many filters share the writer.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class TeeWriter {
+
+  /** the interval in msec for flushing the output. */
+  public final static int FLUSH_INTERVAL = 1000;
+
+  /** the maximum number of queued lines before writing blocks. */
+  public final static int QUEUE_SIZE = 65536;
+
+  /** the size of the output buffer. */
+  public final static int BUFFER_SIZE = 65536;
+
+  /** the extension for compressed segments. */
+  public final static String EXT_GZIP = ".gz";
+
+  /** the writers currently in use (absolute path - writer). */
+  protected static Map<String,TeeWriter> m_Writers;
+
+  /** marks the end of the output. */
+  protected final static String EOF = new String("EOF");
+
+  /** the file to write to. */
+  protected File m_File;
+
+  /** whether to append to an existing file. */
+  protected boolean m_Append;
+
+  /** the maximum size in bytes before rotating (less than 1 for no rotation). */
+  protected long m_MaxSize;
+
+  /** the number of rotated segments to keep (less than 1 for all). */
+  protected int m_MaxFiles;
+
+  /** whether to compress rotated segments. */
+  protected boolean m_Compress;
+
+  /** the header to write to empty files, null if none. */
+  protected volatile String m_Header;
+
+  /** the number of filters using the writer. */
+  protected int m_References;
+
+  /** the queued lines. */
+  protected BlockingQueue<String> m_Queue;
+
+  /** the background thread. */
+  protected Thread m_Thread;
+
+  /** the current writer, null if not opened yet. */
+  protected Writer m_Writer;
+
+  /** the (approximate) size of the current file. */
+  protected long m_Size;
+
+  /** the index of the last rotated segment. */
+  protected int m_Segment;
+
+  /** whether writing failed. */
+  protected volatile boolean m_Failed;
+
+  static {
+    m_Writers = new HashMap<>();
+    Runtime.getRuntime().addShutdownHook(new Thread(TeeWriter::closeAll));
+  }
+
+  /**
+   * Initializes the writer.
+   *
+   * @param file	the file to write to
+   * @param append	whether to append to an existing file
+   * @param maxSize	the maximum size in bytes before rotating, less than 1 for no rotation
+   * @param maxFiles	the number of rotated segments to keep, less than 1 for all
+   * @param compress	whether to compress rotated segments
+   */
+  protected TeeWriter(File file, boolean append, long maxSize, int maxFiles, boolean compress) {
+    m_File     = file;
+    m_Append   = append;
+    m_MaxSize  = maxSize;
+    m_MaxFiles = maxFiles;
+    m_Compress = compress;
+    m_Queue    = new LinkedBlockingQueue<>(QUEUE_SIZE);
+    m_Thread   = new Thread(this::run, "tee-" + file.getName());
+    m_Thread.setDaemon(true);
+    m_Thread.start();
+  }
+
+  /**
+   * Returns the writer for the file, creating it if necessary. The settings
+   * of the first filter acquiring the writer for a file are used.
+   *
+   * @param file	the file to write to
+   * @param append	whether to append to an existing file
+   * @param maxSize	the maximum size in bytes before rotating, less than 1 for no rotation
+   * @param maxFiles	the number of rotated segments to keep, less than 1 for all
+   * @param compress	whether to compress rotated segments
+   * @return		the writer
+   */
+  public static TeeWriter acquire(File file, boolean append, long maxSize, int maxFiles, boolean compress) {
+    return acquire(file, append, maxSize, maxFiles, compress, null);
+  }
+
+  /**
+   * Returns the writer for the file, creating it if necessary. The settings
+   * of the first filter acquiring the writer for a file are used, as is the
+   * first header supplied.
+   *
+   * @param file	the file to write to
+   * @param append	whether to append to an existing file
+   * @param maxSize	the maximum size in bytes before rotating, less than 1 for no rotation
+   * @param maxFiles	the number of rotated segments to keep, less than 1 for all
+   * @param compress	whether to compress rotated segments
+   * @param header	the header to write to empty files, null for none
+   * @return		the writer
+   */
+  public static synchronized TeeWriter acquire(File file, boolean append, long maxSize, int maxFiles, boolean compress, String header) {
+    TeeWriter	result;
+    String	key;
+
+    key    = file.getAbsoluteFile().toPath().normalize().toString();
+    result = m_Writers.get(key);
+    if (result == null) {
+      result = new TeeWriter(file.getAbsoluteFile(), append, maxSize, maxFiles, compress);
+      m_Writers.put(key, result);
+    }
+    if ((result.m_Header == null) && (header != null))
+      result.m_Header = header;
+    result.m_References++;
+
+    return result;
+  }
+
+  /**
+   * Releases the writer. Once no filter uses it anymore, the remaining
+   * output gets written and the file closed.
+   */
+  public void release() {
+    boolean	close;
+
+    synchronized(TeeWriter.class) {
+      m_References--;
+      close = (m_References == 0);
+      if (close)
+        m_Writers.values().remove(this);
+    }
+    if (close)
+      close();
+  }
+
+  /**
+   * Closes all writers, e.g., when the JVM exits.
+   */
+  public static void closeAll() {
+    List<TeeWriter>	writers;
+
+    synchronized(TeeWriter.class) {
+      writers = new ArrayList<>(m_Writers.values());
+      m_Writers.clear();
+    }
+    for (TeeWriter writer: writers)
+      writer.close();
+  }
+
+  /**
+   * Queues the line for writing.
+   *
+   * @param line	the line to write
+   */
+  public void write(String line) {
+    if (m_Failed)
+      return;
+    try {
+      m_Queue.put(line);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Writes the remaining output and closes the file.
+   */
+  protected void close() {
+    try {
+      m_Queue.put(EOF);
+      m_Thread.join();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Writes the queued lines until the end of the output.
+   */
+  protected void run() {
+    List<String>	lines;
+    String		line;
+    long		lastFlush;
+    boolean		eof;
+
+    lines     = new ArrayList<>();
+    lastFlush = System.currentTimeMillis();
+    eof       = false;
+    try {
+      while (!eof) {
+	line = m_Queue.poll(FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+	if (line != null) {
+	  lines.add(line);
+	  m_Queue.drainTo(lines);
+	  for (String l: lines) {
+	    if (l == EOF) {
+	      eof = true;
+	      break;
+	    }
+	    if (!m_Failed)
+	      append(l);
+	  }
+	  lines.clear();
+	}
+	if ((m_Writer != null) && (eof || (line == null) || (System.currentTimeMillis() - lastFlush >= FLUSH_INTERVAL))) {
+	  m_Writer.flush();
+	  lastFlush = System.currentTimeMillis();
+	}
+      }
+    }
+    catch (Exception e) {
+      fail("Failed to write output to: " + m_File, e);
+    }
+    finally {
+      closeWriter();
+    }
+  }
+
+  /**
+   * Outputs the error and stops writing.
+   *
+   * @param msg		the error message
+   * @param e		the exception
+   */
+  protected void fail(String msg, Exception e) {
+    if (!m_Failed)
+      System.err.println(msg + "\n" + e);
+    m_Failed = true;
+    m_Queue.clear();
+  }
+
+  /**
+   * Closes the current writer, if any.
+   */
+  protected void closeWriter() {
+    if (m_Writer == null)
+      return;
+    try {
+      m_Writer.close();
+    }
+    catch (Exception e) {
+      fail("Failed to close: " + m_File, e);
+    }
+    m_Writer = null;
+  }
+
+  /**
+   * Opens the file. Deletes an existing file when not appending, which only
+   * happens for the first opening, i.e., not after rotating. Writes the
+   * header, if any, if the file is empty.
+   *
+   * @throws IOException	if opening fails
+   */
+  protected void open() throws IOException {
+    if (m_File.getParentFile() != null)
+      Files.createDirectories(m_File.getParentFile().toPath());
+    if (!m_Append)
+      Files.deleteIfExists(m_File.toPath());
+    m_Append  = true;
+    m_Size    = m_File.length();
+    m_Segment = lastSegment();
+    m_Writer  = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(m_File, true)), BUFFER_SIZE);
+    if ((m_Size == 0) && (m_Header != null)) {
+      m_Writer.write(m_Header);
+      m_Writer.write('\n');
+      m_Size += m_Header.length() + 1;
+    }
+  }
+
+  /**
+   * Writes the line to the file, rotating it if necessary.
+   *
+   * @param line	the line to write
+   */
+  protected void append(String line) {
+    try {
+      if (m_Writer == null)
+        open();
+      m_Writer.write(line);
+      m_Writer.write('\n');
+      m_Size += line.length() + 1;
+      if ((m_MaxSize > 0) && (m_Size >= m_MaxSize)) {
+        closeWriter();
+        rotate();
+        open();
+      }
+    }
+    catch (Exception e) {
+      fail("Failed to write output to: " + m_File, e);
+    }
+  }
+
+  /**
+   * Returns the index of the segment.
+   *
+   * @param name	the file name of the segment
+   * @return		the index, -1 if not a segment of the file
+   */
+  protected int segmentIndex(String name) {
+    String	prefix;
+
+    prefix = m_File.getName() + ".";
+    if (!name.startsWith(prefix))
+      return -1;
+    name = name.substring(prefix.length());
+    if (name.endsWith(EXT_GZIP))
+      name = name.substring(0, name.length() - EXT_GZIP.length());
+    try {
+      return Integer.parseInt(name);
+    }
+    catch (Exception e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Determines the index of the last rotated segment present.
+   *
+   * @return		the index, 0 if none present
+   */
+  protected int lastSegment() {
+    int		result;
+    String[]	names;
+
+    result = 0;
+    names  = m_File.getParentFile().list();
+    if (names != null) {
+      for (String name: names)
+	result = Math.max(result, segmentIndex(name));
+    }
+
+    return result;
+  }
+
+  /**
+   * Moves the current file to the next segment, compresses it if required
+   * and removes segments that are no longer to be kept.
+   *
+   * @throws IOException	if rotating fails
+   */
+  protected void rotate() throws IOException {
+    File	segment;
+    File	compressed;
+    String[]	names;
+    int		index;
+    byte[]	buffer;
+    int		read;
+
+    m_Segment++;
+    segment = new File(m_File.getPath() + "." + m_Segment);
+    Files.move(m_File.toPath(), segment.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+    if (m_Compress) {
+      compressed = new File(segment.getPath() + EXT_GZIP);
+      buffer     = new byte[BUFFER_SIZE];
+      try (InputStream in = new FileInputStream(segment);
+	   OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed), BUFFER_SIZE)) {
+	while ((read = in.read(buffer)) != -1)
+	  out.write(buffer, 0, read);
+      }
+      Files.delete(segment.toPath());
+    }
+
+    if (m_MaxFiles > 0) {
+      names = m_File.getParentFile().list();
+      if (names != null) {
+	for (String name: names) {
+	  index = segmentIndex(name);
+	  if ((index > 0) && (index <= m_Segment - m_MaxFiles))
+	    Files.deleteIfExists(new File(m_File.getParentFile(), name).toPath());
+	}
+      }
+    }
+  }
+}
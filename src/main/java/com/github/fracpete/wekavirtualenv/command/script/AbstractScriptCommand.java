@@ -24,9 +24,8 @@ import com.github.fracpete.simpleargparse4j.Namespace;
 import com.github.fracpete.wekavirtualenv.command.AbstractCommand;
 import com.github.fracpete.wekavirtualenv.command.Script;
 import com.github.fracpete.wekavirtualenv.command.script.instructions.EngineContext;
-import nz.ac.waikato.cms.locator.ClassLocator;
+import com.github.fracpete.wekavirtualenv.core.ClassIndex;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -40,6 +39,10 @@ public abstract class AbstractScriptCommand
   extends AbstractCommand
   implements ScriptCommand {
 
+  /** the index of the script commands (name - class). */
+  protected static ClassIndex<ScriptCommand> m_ScriptIndex = new ClassIndex<>(
+    ScriptCommand.class, ScriptCommand.class.getPackage().getName(), "scriptcommands", ScriptCommand::getName);
+
   /** the script this command belongs to. */
   protected EngineContext m_Context;
 
@@ -93,29 +96,22 @@ public abstract class AbstractScriptCommand
    */
   public static List<ScriptCommand> getScriptCommands() {
     List<ScriptCommand>		result;
-    List<Class>			classes;
-    ScriptCommand		cmd;
-
-    result = new ArrayList<>();
-    classes = ClassLocator.getSingleton().findClasses(
-      ScriptCommand.class,
-      new String[]{ScriptCommand.class.getPackage().getName()});
-
-    for (Class cls: classes) {
-      try {
-	cmd = (ScriptCommand) cls.newInstance();
-	result.add(cmd);
-      }
-      catch (Exception e) {
-	// ignored
-      }
-    }
 
+    result = m_ScriptIndex.newInstances();
     Collections.sort(result);
 
     return result;
   }
 
+  /**
+   * Returns the index of the script commands.
+   *
+   * @return		the index
+   */
+  public static ClassIndex<ScriptCommand> getScriptIndex() {
+    return m_ScriptIndex;
+  }
+
   /**
    * Returns the command associated with the command name.
    *
@@ -123,16 +119,6 @@ public abstract class AbstractScriptCommand
    * @return		the command, null if not available
    */
   public static ScriptCommand getScriptCommand(String name) {
-    ScriptCommand	result;
-
-    result = null;
-    for (ScriptCommand cmd: getScriptCommands()) {
-      if (cmd.getName().equals(name)) {
-        result = cmd;
-        break;
-      }
-    }
-
-    return result;
+    return m_ScriptIndex.newInstance(name);
   }
 }
@@ -27,6 +27,9 @@ import com.github.fracpete.wekavirtualenv.command.script.instructions.Block;
 import com.github.fracpete.wekavirtualenv.command.script.instructions.Engine;
 import com.github.fracpete.wekavirtualenv.core.Destroyable;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Good ole for loop.
  *
@@ -60,6 +63,9 @@ public class For
   /** for executing the current iteration. */
   protected Engine m_Current;
 
+  /** the execution of the iterations in parallel. */
+  protected ParallelIterations m_Parallel;
+
   /**
    * The name of the command (used on the commandline).
    *
@@ -113,6 +119,12 @@ public class For
       .dest("verbose")
       .help("in verbose mode, commands to be executed are output on stderr")
       .argument(false);
+    result.addOption("--parallel")
+      .dest("parallel")
+      .type(Type.INTEGER)
+      .help("the number of iterations to execute in parallel, each with its own copy of the variables; "
+	+ "the output gets buffered and output in order (1 = sequential, < 1 = number of cores)")
+      .setDefault(1);
 
     return result;
   }
@@ -137,6 +149,34 @@ public class For
     return !m_Stopped && (m_Amount + m_Step < m_Upper);
   }
 
+  /**
+   * Advances to the next value.
+   *
+   * @return		the value as string
+   */
+  protected String next() {
+    m_Amount += m_Step;
+    if ((int) m_Amount == m_Amount)
+      return "" + (int) m_Amount;
+    else
+      return "" + m_Amount;
+  }
+
+  /**
+   * Returns all the remaining values.
+   *
+   * @return		the values as strings
+   */
+  protected List<String> values() {
+    List<String>	result;
+
+    result = new ArrayList<>();
+    while (canIterate())
+      result.add(next());
+
+    return result;
+  }
+
   /**
    * Performs the next iteration.
    *
@@ -147,15 +187,12 @@ public class For
     boolean	result;
     String	current;
 
-    m_Amount += m_Step;
-    if ((int) m_Amount == m_Amount)
-      current = "" + (int) m_Amount;
-    else
-      current = "" + m_Amount;
+    current = next();
     getVariables().set(m_Variable, current);
     if (m_Verbose)
       println("[FOR] " + m_Amount, false);
     m_Current = new Engine(m_Context, m_Instructions, m_Verbose, m_OutputListeners);
+    m_Current.setOutputCapture(m_OutputCapture);
     result   = m_Current.execute();
     m_Current = null;
     return result;
@@ -190,6 +227,16 @@ public class For
 
     result = true;
 
+    if (ns.getInt("parallel") != 1) {
+      m_Parallel = new ParallelIterations(m_Context, m_Instructions, m_Verbose, m_OutputListeners, ns.getInt("parallel"));
+      try {
+	return m_Parallel.execute(m_Variable, values(), "[FOR] ", m_OutputCapture);
+      }
+      finally {
+	m_Parallel = null;
+      }
+    }
+
     while (canIterate()) {
       result = iterate();
       if (!result)
@@ -206,5 +253,7 @@ public class For
     m_Stopped = true;
     if (m_Current != null)
       m_Current.destroy();
+    if (m_Parallel != null)
+      m_Parallel.destroy();
   }
 }
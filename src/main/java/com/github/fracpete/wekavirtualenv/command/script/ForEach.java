@@ -22,6 +22,7 @@ package com.github.fracpete.wekavirtualenv.command.script;
 
 import com.github.fracpete.simpleargparse4j.ArgumentParser;
 import com.github.fracpete.simpleargparse4j.Namespace;
+import com.github.fracpete.simpleargparse4j.Option.Type;
 import com.github.fracpete.wekavirtualenv.command.script.instructions.Block;
 import com.github.fracpete.wekavirtualenv.command.script.instructions.Engine;
 import com.github.fracpete.wekavirtualenv.core.Destroyable;
@@ -57,6 +58,9 @@ public class ForEach
   /** the execution of the current iteration. */
   protected Engine m_Current;
 
+  /** the execution of the iterations in parallel. */
+  protected ParallelIterations m_Parallel;
+
   /**
    * The name of the command (used on the commandline).
    *
@@ -99,6 +103,12 @@ public class ForEach
       .dest("verbose")
       .help("in verbose mode, commands to be executed are output on stderr")
       .argument(false);
+    result.addOption("--parallel")
+      .dest("parallel")
+      .type(Type.INTEGER)
+      .help("the number of iterations to execute in parallel, each with its own copy of the variables; "
+	+ "the output gets buffered and output in order (1 = sequential, < 1 = number of cores)")
+      .setDefault(1);
 
     return result;
   }
@@ -138,6 +148,7 @@ public class ForEach
     if (m_Verbose)
       println("[FOREACH] " + next, false);
     m_Current = new Engine(m_Context, m_Instructions, m_Verbose, m_OutputListeners);
+    m_Current.setOutputCapture(m_OutputCapture);
     result    = m_Current.execute();
     m_Current = null;
     return result;
@@ -183,6 +194,16 @@ public class ForEach
 
     result = true;
 
+    if (ns.getInt("parallel") != 1) {
+      m_Parallel = new ParallelIterations(m_Context, m_Instructions, m_Verbose, m_OutputListeners, ns.getInt("parallel"));
+      try {
+	return m_Parallel.execute(m_Variable, m_Elements, "[FOREACH] ", m_OutputCapture);
+      }
+      finally {
+	m_Parallel = null;
+      }
+    }
+
     while (canIterate()) {
       result = iterate();
       if (!result)
@@ -199,5 +220,7 @@ public class ForEach
     m_Stopped = true;
     if (m_Current != null)
       m_Current.destroy();
+    if (m_Parallel != null)
+      m_Parallel.destroy();
   }
 }
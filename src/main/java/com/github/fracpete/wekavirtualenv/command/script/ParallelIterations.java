@@ -0,0 +1,250 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ParallelIterations.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.command.script;
+
+import com.github.fracpete.wekavirtualenv.command.OutputListener;
+import com.github.fracpete.wekavirtualenv.command.script.instructions.Block;
+import com.github.fracpete.wekavirtualenv.command.script.instructions.Engine;
+import com.github.fracpete.wekavirtualenv.command.script.instructions.EngineContext;
+import com.github.fracpete.wekavirtualenv.command.script.instructions.LocalEngineContext;
+import com.github.fracpete.wekavirtualenv.core.BufferedOutputCapture;
+import com.github.fracpete.wekavirtualenv.core.Destroyable;
+import com.github.fracpete.wekavirtualenv.core.OutputCapture;
+import nz.ac.waikato.cms.core.Utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Executes the iterations of a loop in parallel. Each iteration uses its
+ * own copy-on-write view of the variables. The output of each iteration
+ * gets buffered and output in the order of the iterations, with the output
+ * of the oldest running iteration getting forwarded straight away. The same
+ * applies to the output passed on to the output listeners of the loop.
+ * <br>
+ * Once an iteration fails, no further iterations get started.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class ParallelIterations
+  implements Destroyable {
+
+  /** the context of the loop. */
+  protected EngineContext m_Context;
+
+  /** the instructions to execute with each iteration. */
+  protected Block m_Instructions;
+
+  /** whether to use verbose mode. */
+  protected boolean m_Verbose;
+
+  /** the output listeners of the loop. */
+  protected Collection<OutputListener> m_OutputListeners;
+
+  /** the number of iterations to run in parallel. */
+  protected int m_Threads;
+
+  /** the engines of the running iterations. */
+  protected Set<Engine> m_Running;
+
+  /** the pending/running iterations. */
+  protected List<Future<Boolean>> m_Futures;
+
+  /** whether the execution got stopped. */
+  protected volatile boolean m_Stopped;
+
+  /**
+   * Initializes the execution.
+   *
+   * @param context		the context of the loop
+   * @param instructions	the instructions to execute with each iteration
+   * @param verbose		whether to use verbose mode
+   * @param listeners		the output listeners of the loop
+   * @param threads		the number of iterations to run in parallel,
+   *                            less than 1 for the number of available cores
+   */
+  public ParallelIterations(EngineContext context, Block instructions, boolean verbose, Collection<OutputListener> listeners, int threads) {
+    m_Context         = context;
+    m_Instructions    = instructions;
+    m_Verbose         = verbose;
+    m_OutputListeners = new ArrayList<>(listeners);
+    m_Threads         = (threads < 1) ? Runtime.getRuntime().availableProcessors() : threads;
+    m_Running         = new HashSet<>();
+    m_Futures         = new ArrayList<>();
+  }
+
+  /**
+   * Returns a capture that forwards the output to the output listeners.
+   *
+   * @return		the capture
+   */
+  protected OutputCapture listenerCapture() {
+    return new OutputCapture() {
+      @Override
+      public void println(String line, boolean stdout) {
+	for (OutputListener l: m_OutputListeners)
+	  l.outputOccurred(line, stdout);
+      }
+      @Override
+      public void println(String msg, Throwable t) {
+	println(msg + "\n" + Utils.throwableToString(t), false);
+      }
+    };
+  }
+
+  /**
+   * Executes a single iteration.
+   *
+   * @param variable	the variable to store the value under
+   * @param value	the value of the iteration
+   * @param label	the label to prefix the value with in verbose mode
+   * @param capture	the capture for the output of the iteration
+   * @param listener	the capture for the output of the iteration destined for the output listeners
+   * @return		true if successfully executed
+   */
+  protected boolean iterate(String variable, String value, String label, OutputCapture capture, final OutputCapture listener) {
+    LocalEngineContext		context;
+    Engine			engine;
+    List<OutputListener>	listeners;
+
+    if (m_Stopped)
+      return false;
+
+    context = new LocalEngineContext(m_Context);
+    context.getVariables().set(variable, value);
+    if (m_Verbose) {
+      capture.println(label + value, false);
+      listener.println(label + value, false);
+    }
+    listeners = new ArrayList<>();
+    if (!m_OutputListeners.isEmpty())
+      listeners.add(listener::println);
+    engine = new Engine(context, m_Instructions, m_Verbose, listeners);
+    engine.setOutputCapture(capture);
+    synchronized (m_Running) {
+      if (m_Stopped)
+	return false;
+      m_Running.add(engine);
+    }
+    try {
+      if (!engine.execute()) {
+	m_Stopped = true;
+	return false;
+      }
+      return true;
+    }
+    finally {
+      synchronized (m_Running) {
+	m_Running.remove(engine);
+      }
+    }
+  }
+
+  /**
+   * Executes the iterations.
+   *
+   * @param variable	the variable to store the current value under
+   * @param values	the values to iterate
+   * @param label	the label to prefix the value with in verbose mode
+   * @param output	for outputting the output of the iterations (the output
+   *                    listeners get notified separately, i.e., must not be
+   *                    notified by this capture)
+   * @return		true if all iterations were successfully executed
+   */
+  public boolean execute(final String variable, List<String> values, final String label, OutputCapture output) {
+    boolean				result;
+    ExecutorService			executor;
+    List<BufferedOutputCapture>		captures;
+    List<BufferedOutputCapture>		listenerCaptures;
+    OutputCapture			listenerOutput;
+    List<Future<Boolean>>		futures;
+    int					i;
+
+    m_Stopped = false;
+    executor  = Executors.newFixedThreadPool(m_Threads, (Runnable r) -> {
+      Thread thread = new Thread(r);
+      thread.setDaemon(true);
+      return thread;
+    });
+    captures         = new ArrayList<>();
+    listenerCaptures = new ArrayList<>();
+    listenerOutput   = listenerCapture();
+    futures          = new ArrayList<>();
+    synchronized (m_Futures) {
+      for (i = 0; i < values.size(); i++) {
+	final String value = values.get(i);
+	final BufferedOutputCapture capture = new BufferedOutputCapture();
+	final BufferedOutputCapture listenerCapture = new BufferedOutputCapture();
+	captures.add(capture);
+	listenerCaptures.add(listenerCapture);
+	futures.add(executor.submit(() -> iterate(variable, value, label, capture, listenerCapture)));
+      }
+      m_Futures.addAll(futures);
+    }
+    executor.shutdown();
+
+    result = true;
+    try {
+      for (i = 0; i < futures.size(); i++) {
+	captures.get(i).release(output);
+	listenerCaptures.get(i).release(listenerOutput);
+	try {
+	  result = futures.get(i).get() && result;
+	}
+	catch (Exception e) {
+	  if (!m_Stopped) {
+	    output.println("Failed to execute iteration: " + values.get(i), e);
+	    listenerOutput.println("Failed to execute iteration: " + values.get(i), e);
+	  }
+	  result = false;
+	}
+      }
+    }
+    finally {
+      synchronized (m_Futures) {
+	m_Futures.clear();
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Stops the execution, destroying any running iterations.
+   */
+  public void destroy() {
+    m_Stopped = true;
+    synchronized (m_Futures) {
+      for (Future<Boolean> future: m_Futures)
+	future.cancel(false);
+    }
+    synchronized (m_Running) {
+      for (Engine engine: m_Running)
+	engine.destroy();
+    }
+  }
+}
@@ -23,11 +23,15 @@ package com.github.fracpete.wekavirtualenv.command.script;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
- * Manages variables.
+ * Manages variables. Can be used as copy-on-write view of other variables,
+ * i.e., changes only affect the view and not the parent.
  *
  * @author FracPete (fracpete at waikato dot ac dot nz)
  */
@@ -45,14 +49,86 @@ public class Variables {
   /** the closing of an environment variable. */
   public final static String ENV_END = "}";
 
+  /** the maximum number of compiled templates to cache. */
+  public final static int MAX_TEMPLATES = 1000;
+
+  /**
+   * A compiled string that may contain variable references. Consists of
+   * literal text (String) and references (Template for the name of the
+   * variable, as the name can contain references itself).
+   */
+  protected static class Template {
+
+    /** the parts (String or Template). */
+    protected List<Object> m_Parts;
+
+    /**
+     * Initializes the template.
+     */
+    protected Template() {
+      m_Parts = new ArrayList<>();
+    }
+
+    /**
+     * Returns whether the template contains no references.
+     *
+     * @return		true if only literal text
+     */
+    public boolean isLiteral() {
+      return (m_Parts.size() == 0) || ((m_Parts.size() == 1) && (m_Parts.get(0) instanceof String));
+    }
+
+    /**
+     * Returns the literal text, if literal template.
+     *
+     * @return		the text, null if not a literal template
+     */
+    public String getLiteral() {
+      if (m_Parts.size() == 0)
+        return "";
+      if (isLiteral())
+        return (String) m_Parts.get(0);
+      return null;
+    }
+  }
+
+  /** the cached templates (source - template). */
+  protected static Map<String,Template> m_Templates = new LinkedHashMap<String,Template>(16, 0.75f, true) {
+    private static final long serialVersionUID = -3461186702385734217L;
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String,Template> eldest) {
+      return (size() > MAX_TEMPLATES);
+    }
+  };
+
+  /** the snapshot of the environment variables. */
+  protected static Map<String,String> m_Environment;
+
   /** the variables. */
   protected Map<String,Object> m_Variables;
 
+  /** the parent variables (if view), can be null. */
+  protected Variables m_Parent;
+
+  /** the variables of the parent that got removed in this view. */
+  protected Set<String> m_Removed;
+
   /**
    * Initializes the variables.
    */
   public Variables() {
+    this(null);
+  }
+
+  /**
+   * Initializes the variables as view of the parent variables.
+   *
+   * @param parent	the parent variables, null for none
+   */
+  public Variables(Variables parent) {
     m_Variables = new HashMap<>();
+    m_Parent    = parent;
+    m_Removed   = new HashSet<>();
   }
 
   /**
@@ -63,6 +139,7 @@ public class Variables {
    */
   public void set(String name, String value) {
     m_Variables.put(name, value);
+    m_Removed.remove(name);
   }
 
   /**
@@ -73,6 +150,7 @@ public class Variables {
    */
   public void set(String name, String[] value) {
     m_Variables.put(name, value);
+    m_Removed.remove(name);
   }
 
   /**
@@ -82,6 +160,8 @@ public class Variables {
    */
   public void remove(String name) {
     m_Variables.remove(name);
+    if ((m_Parent != null) && m_Parent.has(name))
+      m_Removed.add(name);
   }
 
   /**
@@ -91,7 +171,9 @@ public class Variables {
    * @return		true if present
    */
   public boolean has(String name) {
-    return m_Variables.containsKey(name);
+    if (m_Variables.containsKey(name))
+      return true;
+    return (m_Parent != null) && !m_Removed.contains(name) && m_Parent.has(name);
   }
 
   /**
@@ -101,7 +183,11 @@ public class Variables {
    * @return		the value, null if variable doesn't exist
    */
   public Object get(String name) {
-    return m_Variables.get(name);
+    if (m_Variables.containsKey(name))
+      return m_Variables.get(name);
+    if ((m_Parent != null) && !m_Removed.contains(name))
+      return m_Parent.get(name);
+    return null;
   }
 
   /**
@@ -111,42 +197,201 @@ public class Variables {
    */
   public List<String> names() {
     List<String>	result;
+    Set<String>		names;
 
-    result = new ArrayList<>(m_Variables.keySet());
+    names = new HashSet<>(m_Variables.keySet());
+    if (m_Parent != null) {
+      names.addAll(m_Parent.names());
+      names.removeAll(m_Removed);
+    }
+    result = new ArrayList<>(names);
     Collections.sort(result);
 
     return result;
   }
 
   /**
-   * Expands all variables in the command.
+   * Parses the string, starting at the specified position.
    *
-   * @param cmd		the command to process
-   * @return		the processed command
+   * @param s		the string to parse
+   * @param pos		the starting position
+   * @param template	the template to add the parts to
+   * @param nested	whether parsing the name of a reference
+   * @return		the position after the closing of the reference if nested
+   * 			(-1 if not closed), otherwise the length of the string
    */
-  public String expand(String cmd) {
-    String	result;
-    String	orig;
-    Object	val;
+  protected static int parse(String s, int pos, Template template, boolean nested) {
+    StringBuilder	literal;
+    Template		name;
+    int			end;
 
-    result = cmd;
-    orig   = cmd;
-
-    for (String name: m_Variables.keySet()) {
-      val = m_Variables.get(name);
-      if (val instanceof String)
-	result = result.replace(VAR_START + name + VAR_END, (String) val);
+    literal = new StringBuilder();
+    while (pos < s.length()) {
+      if (s.startsWith(VAR_START, pos)) {
+	name = new Template();
+	end  = parse(s, pos + VAR_START.length(), name, true);
+	if (end == -1) {
+	  // not closed, treat as text
+	  literal.append(VAR_START);
+	  pos += VAR_START.length();
+	  continue;
+	}
+	if (literal.length() > 0) {
+	  template.m_Parts.add(literal.toString());
+	  literal.setLength(0);
+	}
+	template.m_Parts.add(name);
+	pos = end;
+      }
+      else if (nested && s.startsWith(VAR_END, pos)) {
+	if (literal.length() > 0)
+	  template.m_Parts.add(literal.toString());
+	return pos + VAR_END.length();
+      }
+      else {
+	literal.append(s.charAt(pos));
+	pos++;
+      }
     }
 
-    // recursive expansion?
-    if (result.contains(VAR_START) && !result.equals(orig))
-      result = expand(result);
+    if (nested)
+      return -1;
+    if (literal.length() > 0)
+      template.m_Parts.add(literal.toString());
+    return pos;
+  }
+
+  /**
+   * Returns the (cached) compiled template for the string.
+   *
+   * @param s		the string to compile
+   * @return		the template
+   */
+  protected static Template compile(String s) {
+    Template	result;
 
-    for (String name: System.getenv().keySet()) {
-      val    = System.getenv(name);
-      result = result.replace(ENV_START + name + ENV_END, (String) val);
+    synchronized (m_Templates) {
+      result = m_Templates.get(s);
+    }
+    if (result == null) {
+      result = new Template();
+      parse(s, 0, result, false);
+      synchronized (m_Templates) {
+	m_Templates.put(s, result);
+      }
     }
 
     return result;
   }
+
+  /**
+   * Evaluates the template, expanding all references to string variables
+   * recursively. References to unknown or array variables are kept.
+   *
+   * @param template	the template to evaluate
+   * @param active	the variables currently being expanded (for detecting cycles)
+   * @return		the expanded string
+   */
+  protected String evaluate(Template template, List<String> active) {
+    StringBuilder	result;
+    String		name;
+    Object		value;
+    Template		valueTemplate;
+
+    if (template.isLiteral())
+      return template.getLiteral();
+
+    result = new StringBuilder();
+    for (Object part: template.m_Parts) {
+      if (part instanceof String) {
+	result.append((String) part);
+	continue;
+      }
+      name  = evaluate((Template) part, active);
+      value = get(name);
+      if (value instanceof String) {
+	if (active.contains(name))
+	  throw new IllegalArgumentException("Cyclic variable reference: " + String.join(" -> ", active) + " -> " + name);
+	valueTemplate = compile((String) value);
+	if (valueTemplate.isLiteral()) {
+	  result.append((String) value);
+	}
+	else {
+	  active.add(name);
+	  result.append(evaluate(valueTemplate, active));
+	  active.remove(active.size() - 1);
+	}
+      }
+      else {
+	result.append(VAR_START).append(name).append(VAR_END);
+      }
+    }
+
+    return result.toString();
+  }
+
+  /**
+   * Returns the value of the environment variable (from a snapshot of the
+   * environment).
+   *
+   * @param name	the name of the environment variable
+   * @return		the value, null if not present
+   */
+  public static String getEnv(String name) {
+    if (m_Environment == null)
+      m_Environment = System.getenv();
+    return m_Environment.get(name);
+  }
+
+  /**
+   * Expands all environment variables in the string.
+   * References to unknown environment variables are kept.
+   *
+   * @param s		the string to process
+   * @return		the processed string
+   */
+  protected static String expandEnv(String s) {
+    StringBuilder	result;
+    int			pos;
+    int			start;
+    int			end;
+    String		value;
+
+    start = s.indexOf(ENV_START);
+    if (start == -1)
+      return s;
+
+    result = new StringBuilder();
+    pos    = 0;
+    while (start > -1) {
+      end = s.indexOf(ENV_END, start + ENV_START.length());
+      if (end == -1)
+	break;
+      value = getEnv(s.substring(start + ENV_START.length(), end));
+      if (value != null) {
+	result.append(s, pos, start).append(value);
+	pos = end + ENV_END.length();
+	start = s.indexOf(ENV_START, pos);
+      }
+      else {
+	start = s.indexOf(ENV_START, start + 1);
+      }
+    }
+    result.append(s, pos, s.length());
+
+    return result.toString();
+  }
+
+  /**
+   * Expands all variables in the command. Variables (${...}) get expanded
+   * recursively, environment variables (@{...}) once afterwards.
+   * References to unknown or array variables are kept.
+   *
+   * @param cmd		the command to process
+   * @return		the processed command
+   * @throws IllegalArgumentException	if variables reference each other in a cycle
+   */
+  public String expand(String cmd) {
+    return expandEnv(evaluate(compile(cmd), new ArrayList<>()));
+  }
 }
@@ -0,0 +1,96 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/*
+ * Wait.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.command.script;
+
+import com.github.fracpete.simpleargparse4j.Namespace;
+import com.github.fracpete.wekavirtualenv.command.script.instructions.Engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Waits for background jobs to finish.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Wait
+  extends AbstractScriptCommand {
+
+  /**
+   * The name of the command (used on the commandline).
+   *
+   * @return		the name
+   */
+  @Override
+  public String getName() {
+    return "wait";
+  }
+
+  /**
+   * Returns a short help string.
+   *
+   * @return		the help string
+   */
+  @Override
+  public String getHelp() {
+    return "Waits for the background jobs with the specified IDs to finish (or all, if no IDs supplied).\n"
+      + "Commands ending with " + Engine.BACKGROUND + " get executed in the background, the ID of the\n"
+      + "most recent job is stored in the variable '" + Engine.LAST_JOB + "'.\n"
+      + "Fails if any of the jobs failed.";
+  }
+
+  /**
+   * Returns whether the command utilizes additional arguments that get passed on.
+   *
+   * @return		true if additional options
+   */
+  @Override
+  public boolean supportsAdditionalArguments() {
+    return true;
+  }
+
+  /**
+   * Evaluates the script command.
+   *
+   * @param ns		the namespace
+   * @param options	the options
+   * @return		true if successful
+   */
+  @Override
+  protected boolean evalCommand(Namespace ns, String[] options) {
+    List<Integer>	ids;
+
+    if (options.length == 0)
+      return getContext().getJobs().waitForAll(this);
+
+    ids = new ArrayList<>();
+    for (String option: options) {
+      try {
+	ids.add(Integer.parseInt(option));
+      }
+      catch (Exception e) {
+	addError("Invalid job ID: " + option);
+	return false;
+      }
+    }
+
+    return getContext().getJobs().waitFor(ids, this);
+  }
+}
@@ -107,6 +107,20 @@ public class Block
     return m_Level;
   }
 
+  /**
+   * Compiles all the instructions (incl nested blocks) ahead of execution.
+   *
+   * @see		Line#getCompiled()
+   */
+  public void compile() {
+    for (Instruction instruction: this) {
+      if (instruction instanceof Block)
+	((Block) instruction).compile();
+      else if (instruction instanceof Line)
+	((Line) instruction).getCompiled();
+    }
+  }
+
   /**
    * For converting the the instruction into a string.
    *
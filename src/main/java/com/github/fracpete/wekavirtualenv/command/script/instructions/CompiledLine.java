@@ -0,0 +1,276 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * CompiledLine.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.command.script.instructions;
+
+import com.github.fracpete.simpleargparse4j.Namespace;
+import com.github.fracpete.wekavirtualenv.command.AbstractCommand;
+import com.github.fracpete.wekavirtualenv.command.Command;
+import com.github.fracpete.wekavirtualenv.command.CommandUtils;
+import com.github.fracpete.wekavirtualenv.command.filter.Filter;
+import com.github.fracpete.wekavirtualenv.command.filter.FilterSetup;
+import com.github.fracpete.wekavirtualenv.command.script.AbstractScriptCommand;
+import com.github.fracpete.wekavirtualenv.command.script.Variables;
+import nz.ac.waikato.cms.jenericcmdline.core.OptionUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The executable plan of a {@link Line}: the instruction gets split into
+ * tokens only once, with only the tokens containing variables getting
+ * expanded for each execution. Command and filter classes get resolved
+ * only once (per name), and filters with the same options get initialized
+ * from the previously parsed options.
+ * <br>
+ * If an expanded token is empty or contains characters that would
+ * influence the splitting of the instruction (whitespace, quotes,
+ * backslashes, pipes, ampersands), the complete instruction gets expanded
+ * and split instead, i.e., the outcome is the same as without compilation.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class CompiledLine {
+
+  /** the maximum number of filter setups to cache. */
+  public final static int MAX_FILTERS = 16;
+
+  /**
+   * Container for a parsed filter setup.
+   */
+  protected static class FilterTemplate {
+
+    /** the class of the filter. */
+    public Class<?> filterClass;
+
+    /** the parsed options. */
+    public Namespace namespace;
+  }
+
+  /** the instruction (without background suffix). */
+  protected String m_Instruction;
+
+  /** the tokens, null if instruction couldn't be split. */
+  protected String[] m_Tokens;
+
+  /** whether the tokens contain variables. */
+  protected boolean[] m_Variable;
+
+  /** whether any token contains variables. */
+  protected boolean m_HasVariables;
+
+  /** whether to execute in the background. */
+  protected boolean m_Background;
+
+  /** the name of the last resolved command. */
+  protected String m_CommandName;
+
+  /** the class of the last resolved command. */
+  protected Class<?> m_CommandClass;
+
+  /** the cached filter setups (joined options - template). */
+  protected Map<String,FilterTemplate> m_Filters;
+
+  /**
+   * Compiles the instruction.
+   *
+   * @param instruction	the instruction to compile
+   */
+  public CompiledLine(String instruction) {
+    String[]	tokens;
+    int		i;
+
+    m_Instruction = instruction.trim();
+    m_Filters     = new HashMap<>();
+
+    try {
+      tokens = OptionUtils.splitOptions(m_Instruction);
+    }
+    catch (Exception e) {
+      // gets reported when executing
+      tokens = null;
+    }
+
+    if ((tokens != null) && (tokens.length > 1)
+      && tokens[tokens.length - 1].equals(Engine.BACKGROUND)
+      && m_Instruction.endsWith(" " + Engine.BACKGROUND)) {
+      m_Background  = true;
+      m_Instruction = m_Instruction.substring(0, m_Instruction.length() - Engine.BACKGROUND.length()).trim();
+      tokens[tokens.length - 1] = "";
+      tokens = CommandUtils.compress(tokens);
+    }
+
+    m_Tokens = tokens;
+    if (m_Tokens != null) {
+      m_Variable = new boolean[m_Tokens.length];
+      for (i = 0; i < m_Tokens.length; i++) {
+	m_Variable[i]  = m_Tokens[i].contains(Variables.VAR_START) || m_Tokens[i].contains(Variables.ENV_START);
+	m_HasVariables = m_HasVariables || m_Variable[i];
+      }
+    }
+  }
+
+  /**
+   * Returns the instruction (without the background suffix).
+   *
+   * @return		the instruction
+   */
+  public String getInstruction() {
+    return m_Instruction;
+  }
+
+  /**
+   * Returns whether the instruction gets executed in the background.
+   *
+   * @return		true if background
+   */
+  public boolean isBackground() {
+    return m_Background;
+  }
+
+  /**
+   * Checks whether the expanded token could be split differently (or
+   * dropped) when expanding the instruction as a whole, i.e., whether it is
+   * empty or contains whitespace, quotes, backslashes, pipes or ampersands.
+   * Tokens that already contained any of these characters before expansion
+   * (e.g., quoted ones) get expanded as a whole as well.
+   *
+   * @param expanded	the expanded token
+   * @return		true if the instruction has to be expanded/split as a whole
+   */
+  protected boolean requiresFullExpansion(String expanded) {
+    int		i;
+    char	c;
+
+    if (expanded.isEmpty())
+      return true;
+    for (i = 0; i < expanded.length(); i++) {
+      c = expanded.charAt(i);
+      if (Character.isWhitespace(c) || (c == '"') || (c == '\'') || (c == '\\') || (c == '|') || (c == '&'))
+	return true;
+    }
+    return false;
+  }
+
+  /**
+   * Expands the variables and returns the options.
+   *
+   * @param vars	the variables to use
+   * @return		the options
+   * @throws Exception	if splitting of the instruction fails
+   */
+  public String[] expand(Variables vars) throws Exception {
+    String[]	result;
+    int		i;
+
+    if (m_Tokens == null)
+      return OptionUtils.splitOptions(vars.expand(m_Instruction));
+    if (!m_HasVariables)
+      return m_Tokens.clone();
+
+    result = new String[m_Tokens.length];
+    for (i = 0; i < m_Tokens.length; i++) {
+      if (m_Variable[i]) {
+	result[i] = vars.expand(m_Tokens[i]);
+	if (requiresFullExpansion(result[i]))
+	  return OptionUtils.splitOptions(vars.expand(m_Instruction));
+      }
+      else {
+	result[i] = m_Tokens[i];
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns a new instance of the command.
+   *
+   * @param name	the name of the command
+   * @return		the command, null if unknown
+   */
+  public synchronized Command newCommand(String name) {
+    Command	result;
+
+    if (name.equals(m_CommandName)) {
+      try {
+	return (Command) m_CommandClass.newInstance();
+      }
+      catch (Exception e) {
+	// resolve again
+      }
+    }
+
+    result = AbstractCommand.getCommand(name);
+    if (result == null)
+      result = AbstractScriptCommand.getScriptCommand(name);
+    if (result != null) {
+      m_CommandName  = name;
+      m_CommandClass = result.getClass();
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns a filter initialized with the same options as before, if possible.
+   *
+   * @param options	the filter options (incl name of filter)
+   * @return		the filter, null if not cached or failed to initialize
+   */
+  public synchronized Filter newFilter(String[] options) {
+    FilterTemplate	template;
+    Filter		result;
+
+    template = m_Filters.get(OptionUtils.joinOptions(options));
+    if (template == null)
+      return null;
+
+    try {
+      result = (Filter) template.filterClass.newInstance();
+      if (result.initialize(template.namespace))
+	return result;
+    }
+    catch (Exception e) {
+      // ignored
+    }
+
+    return null;
+  }
+
+  /**
+   * Caches the configured filter setup.
+   *
+   * @param options	the filter options (incl name of filter)
+   * @param setup	the configured setup
+   */
+  public synchronized void addFilter(String[] options, FilterSetup setup) {
+    FilterTemplate	template;
+
+    if ((setup.filter == null) || (setup.namespace == null))
+      return;
+    if (m_Filters.size() >= MAX_FILTERS)
+      m_Filters.clear();
+    template             = new FilterTemplate();
+    template.filterClass = setup.filter.getClass();
+    template.namespace   = setup.namespace;
+    m_Filters.put(OptionUtils.joinOptions(options), template);
+  }
+}
@@ -33,9 +33,11 @@ import com.github.fracpete.wekavirtualenv.command.filter.AbstractFilter;
 import com.github.fracpete.wekavirtualenv.command.filter.FilterSetup;
 import com.github.fracpete.wekavirtualenv.command.script.AbstractScriptCommand;
 import com.github.fracpete.wekavirtualenv.command.script.InstructionBlockHandler;
+import com.github.fracpete.wekavirtualenv.core.DefaultOutputCapture;
 import com.github.fracpete.wekavirtualenv.core.Destroyable;
 import com.github.fracpete.wekavirtualenv.core.InvalidEnvironmentException;
 import com.github.fracpete.wekavirtualenv.core.MissingEnvironmentException;
+import com.github.fracpete.wekavirtualenv.core.OutputCapture;
 import nz.ac.waikato.cms.core.Utils;
 import nz.ac.waikato.cms.jenericcmdline.core.OptionUtils;
 
@@ -53,6 +55,12 @@ import java.util.Set;
 public class Engine
   implements OutputListenerSupporter {
 
+  /** the suffix for executing a command in the background. */
+  public final static String BACKGROUND = "&";
+
+  /** the variable that holds the ID of the most recent background job. */
+  public final static String LAST_JOB = "last_job";
+
   /** the context. */
   protected EngineContext m_Context;
 
@@ -66,10 +74,13 @@ public class Engine
   protected Set<OutputListener> m_OutputListeners;
 
   /** whether the execution got stopped. */
-  protected boolean m_Stopped;
+  protected volatile boolean m_Stopped;
 
   /** the current command being executed. */
-  protected Command m_Current;
+  protected volatile Command m_Current;
+
+  /** for outputting messages (passed on to the commands). */
+  protected OutputCapture m_OutputCapture;
 
   /**
    * Initializes the engine.
@@ -95,6 +106,26 @@ public class Engine
     m_Instructions    = instructions;
     m_Verbose         = verbose;
     m_OutputListeners = new HashSet<>(listeners);
+    m_OutputCapture   = new DefaultOutputCapture();
+  }
+
+  /**
+   * Sets the capture to use for outputting messages, which also gets
+   * used by the executed commands.
+   *
+   * @param value	the capture
+   */
+  public void setOutputCapture(OutputCapture value) {
+    m_OutputCapture = value;
+  }
+
+  /**
+   * Returns the capture used for outputting messages.
+   *
+   * @return		the capture
+   */
+  public OutputCapture getOutputCapture() {
+    return m_OutputCapture;
   }
 
   /**
@@ -131,10 +162,7 @@ public class Engine
    * @param stdout	whether to output on stdout or stderr
    */
   public void println(String line, boolean stdout) {
-    if (stdout)
-      System.out.println(line);
-    else
-      System.err.println(line);
+    m_OutputCapture.println(line, stdout);
     for (OutputListener l: m_OutputListeners)
       l.outputOccurred(line, stdout);
   }
@@ -157,22 +185,41 @@ public class Engine
    * @return		true if successfully added
    */
   protected boolean addFilter(CommandSetup setup, List<String> filterArgs) {
+    return addFilter(setup, filterArgs, null);
+  }
+
+  /**
+   * Adds the filter to the command.
+   *
+   * @param setup	the setup to add the filter to
+   * @param filterArgs	the filter arguments
+   * @param compiled	the compiled instruction for re-using filter setups, can be null
+   * @return		true if successfully added
+   */
+  protected boolean addFilter(CommandSetup setup, List<String> filterArgs, CompiledLine compiled) {
     FilterSetup filterSetup;
+    String[]	options;
 
+    options     = filterArgs.toArray(new String[filterArgs.size()]);
     filterSetup = new FilterSetup();
-    filterSetup.options = filterArgs.toArray(new String[filterArgs.size()]);
-    if (!AbstractFilter.configure(filterSetup)) {
-      println("Failed to configure filter: " + OptionUtils.joinOptions(filterArgs.toArray(new String[filterArgs.size()])), false);
-      return false;
-    }
-    else {
-      if (setup.command instanceof CommandWithFilterSupport) {
-	((CommandWithFilterSupport) setup.command).addFilter(filterSetup.filter);
-      }
-      else {
-	println("Command '" + setup.command.getName() + "' does not support filters!", false);
+    if (compiled != null)
+      filterSetup.filter = compiled.newFilter(options);
+    if (filterSetup.filter == null) {
+      filterSetup.options = options.clone();
+      if (!AbstractFilter.configure(filterSetup)) {
+	println("Failed to configure filter: " + OptionUtils.joinOptions(options), false);
 	return false;
       }
+      if (compiled != null)
+	compiled.addFilter(options, filterSetup);
+    }
+
+    if (setup.command instanceof CommandWithFilterSupport) {
+      ((CommandWithFilterSupport) setup.command).addFilter(filterSetup.filter);
+    }
+    else {
+      println("Command '" + setup.command.getName() + "' does not support filters!", false);
+      return false;
     }
 
     filterArgs.clear();
@@ -187,17 +234,37 @@ public class Engine
    * @return		the command, null if failed to configure
    */
   public boolean configureScriptSetup(CommandSetup setup) {
+    return configureScriptSetup(setup, null);
+  }
+
+  /**
+   * Configures the command setup for the script.
+   *
+   * @param setup	the setup to update
+   * @param compiled	the compiled instruction for re-using resolved commands/filters, can be null
+   * @return		the command, null if failed to configure
+   */
+  public boolean configureScriptSetup(CommandSetup setup, CompiledLine compiled) {
     List<String>	filterArgs;
     int			firstFilterPos;
     int			i;
+    Help		help;
+    ListEnvs		list;
 
-    setup.command = AbstractCommand.getCommand(setup.options[0]);
-    // check script commands
-    if (setup.command == null)
-      setup.command = AbstractScriptCommand.getScriptCommand(setup.options[0]);
+    if (compiled != null) {
+      setup.command = compiled.newCommand(setup.options[0]);
+    }
+    else {
+      setup.command = AbstractCommand.getCommand(setup.options[0]);
+      // check script commands
+      if (setup.command == null)
+	setup.command = AbstractScriptCommand.getScriptCommand(setup.options[0]);
+    }
     if (setup.command == null) {
       println("Unknown command: " + setup.options[0], false);
-      new Help().execute(new String[0]);
+      help = new Help();
+      help.setOutputCapture(m_OutputCapture);
+      help.execute(new String[0]);
       return false;
     }
 
@@ -226,7 +293,9 @@ public class Engine
       }
       catch (InvalidEnvironmentException ie) {
         println("Invalid environment supplied: " + (setup.options[0]), false);
-        new ListEnvs().execute(new String[0]);
+        list = new ListEnvs();
+        list.setOutputCapture(m_OutputCapture);
+        list.execute(new String[0]);
 	return false;
       }
     }
@@ -237,7 +306,7 @@ public class Engine
     for (i = 0; i < setup.options.length; i++) {
       if (setup.options[i].equals("|")) {
         if (filterArgs.size() > 0) {
-          if (!addFilter(setup, filterArgs))
+          if (!addFilter(setup, filterArgs, compiled))
             return false;
 	}
         if (firstFilterPos == -1)
@@ -250,7 +319,7 @@ public class Engine
     }
     if (firstFilterPos > -1) {
       if (filterArgs.size() > 0) {
-	if (!addFilter(setup, filterArgs))
+	if (!addFilter(setup, filterArgs, compiled))
 	  return false;
       }
       setup.options = CommandUtils.removeFrom(setup.options, firstFilterPos);
@@ -270,18 +339,35 @@ public class Engine
    * @return		true if successfully executed
    */
   protected boolean execute(String cmd, Block block) {
-    CommandSetup setup;
-
-    if (m_Verbose)
-      println("[RAW] " + cmd, false);
-    cmd = m_Context.getVariables().expand(cmd);
-    if (m_Verbose)
-      println("[EXP] " + cmd, false);
+    return execute(new Line(cmd), block);
+  }
 
+  /**
+   * Executes the command, using its compiled form.
+   *
+   * @param line	the command to execute
+   * @param block	the nested block for the command, if any
+   * @return		true if successfully executed
+   */
+  protected boolean execute(Line line, Block block) {
+    final CommandSetup 	setup;
+    final OutputCapture	capture;
+    CompiledLine	compiled;
+    String[]		options;
+    String		cmd;
+    int			id;
+
+    compiled = line.getCompiled();
+    options  = null;
     try {
+      if (m_Verbose) {
+	println("[RAW] " + line.getInstruction(), false);
+	println("[EXP] " + m_Context.getVariables().expand(line.getInstruction()), false);
+      }
+      options = compiled.expand(m_Context.getVariables());
       setup = new CommandSetup();
-      setup.options = OptionUtils.splitOptions(cmd);
-      if (!configureScriptSetup(setup) || (setup.command == null))
+      setup.options = options.clone();
+      if (!configureScriptSetup(setup, compiled) || (setup.command == null))
 	return false;
       if ((setup.command instanceof InstructionBlockHandler) && (block != null))
 	((InstructionBlockHandler) setup.command).setInstructions(block);
@@ -289,12 +375,28 @@ public class Engine
         for (OutputListener l: m_OutputListeners)
 	  setup.command.addOutputListener(l);
       }
+      setup.command.setOutputCapture(m_OutputCapture);
+
+      // execute in background
+      if (compiled.isBackground()) {
+	cmd     = OptionUtils.joinOptions(options);
+	capture = m_OutputCapture;
+	id      = m_Context.getJobs().submit(cmd, setup.command, () -> AbstractCommand.executeSetup(setup, capture));
+	m_Context.getVariables().set(LAST_JOB, "" + id);
+	if (m_Verbose)
+	  println("[JOB " + id + "] " + cmd, false);
+	return true;
+      }
 
       // execute
       m_Current = setup.command;
-      return AbstractCommand.executeSetup(setup);
+      return AbstractCommand.executeSetup(setup, m_OutputCapture);
     }
     catch (Exception e) {
+      if (options != null)
+	cmd = OptionUtils.joinOptions(options);
+      else
+	cmd = line.getInstruction();
       m_Context.addError("Failed to execute command: " + cmd, e);
       return false;
     }
@@ -328,7 +430,7 @@ public class Engine
           block = (Block) m_Instructions.get(i + 1);
       }
       if (instruction instanceof Line) {
-	result = execute(((Line) instruction).getInstruction(), block);
+	result = execute((Line) instruction, block);
 	if (block != null)
 	  i++;
       }
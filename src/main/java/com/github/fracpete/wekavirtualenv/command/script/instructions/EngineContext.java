@@ -31,4 +31,10 @@ import com.github.fracpete.wekavirtualenv.command.script.VariablesHandler;
 public interface EngineContext
   extends ErrorHandler, VariablesHandler {
 
+  /**
+   * Returns the table of background jobs.
+   *
+   * @return		the jobs
+   */
+  public Jobs getJobs();
 }
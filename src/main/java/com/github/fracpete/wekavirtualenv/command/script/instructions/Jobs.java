@@ -0,0 +1,205 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Jobs.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.command.script.instructions;
+
+import com.github.fracpete.wekavirtualenv.command.Command;
+import com.github.fracpete.wekavirtualenv.command.ErrorHandler;
+import com.github.fracpete.wekavirtualenv.core.Destroyable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Manages the commands that a script executes in the background. At most
+ * the specified number of jobs run at the same time, any further jobs get
+ * queued.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Jobs
+  implements Destroyable {
+
+  /**
+   * Container for a background job.
+   */
+  public static class Job {
+
+    /** the ID of the job. */
+    public int id;
+
+    /** the command line. */
+    public String commandLine;
+
+    /** the command being executed. */
+    public Command command;
+
+    /** the execution. */
+    public Future<Boolean> future;
+  }
+
+  /** the jobs that haven't been waited for yet (ID - job). */
+  protected Map<Integer,Job> m_Jobs;
+
+  /** the ID of the next job. */
+  protected int m_NextID;
+
+  /** the maximum number of jobs running at the same time. */
+  protected int m_MaxJobs;
+
+  /** for executing the jobs. */
+  protected ExecutorService m_Executor;
+
+  /** whether the jobs got destroyed. */
+  protected boolean m_Destroyed;
+
+  /**
+   * Initializes the job table.
+   *
+   * @param maxJobs	the maximum number of jobs running at the same time,
+   *                    less than 1 for the number of available cores
+   */
+  public Jobs(int maxJobs) {
+    m_Jobs    = new LinkedHashMap<>();
+    m_NextID  = 1;
+    m_MaxJobs = (maxJobs < 1) ? Runtime.getRuntime().availableProcessors() : maxJobs;
+  }
+
+  /**
+   * Returns the maximum number of jobs running at the same time.
+   *
+   * @return		the maximum
+   */
+  public int getMaxJobs() {
+    return m_MaxJobs;
+  }
+
+  /**
+   * Starts the job in the background.
+   *
+   * @param commandLine	the command line of the job
+   * @param command	the command that gets executed
+   * @param task	the actual execution of the command
+   * @return		the ID of the job
+   */
+  public synchronized int submit(String commandLine, Command command, Callable<Boolean> task) {
+    Job		job;
+
+    if (m_Destroyed)
+      throw new IllegalStateException("Jobs have been destroyed!");
+
+    if (m_Executor == null) {
+      m_Executor = Executors.newFixedThreadPool(m_MaxJobs, (Runnable r) -> {
+	Thread thread = new Thread(r);
+	thread.setDaemon(true);
+	return thread;
+      });
+    }
+
+    job             = new Job();
+    job.id          = m_NextID++;
+    job.commandLine = commandLine;
+    job.command     = command;
+    job.future      = m_Executor.submit(task);
+    m_Jobs.put(job.id, job);
+
+    return job.id;
+  }
+
+  /**
+   * Returns the IDs of the jobs that haven't been waited for yet.
+   *
+   * @return		the IDs
+   */
+  public synchronized List<Integer> ids() {
+    return new ArrayList<>(m_Jobs.keySet());
+  }
+
+  /**
+   * Waits for the specified jobs to finish and removes them from the table.
+   *
+   * @param ids		the IDs of the jobs to wait for
+   * @param errors	for recording failed jobs
+   * @return		true if all jobs finished successfully
+   */
+  public boolean waitFor(List<Integer> ids, ErrorHandler errors) {
+    boolean	result;
+    Job		job;
+    boolean	success;
+
+    result = true;
+    for (Integer id: ids) {
+      synchronized (this) {
+	job = m_Jobs.get(id);
+      }
+      if (job == null) {
+	errors.addError("Unknown background job: " + id);
+	result = false;
+	continue;
+      }
+      try {
+	success = job.future.get();
+      }
+      catch (Exception e) {
+	success = false;
+      }
+      synchronized (this) {
+	m_Jobs.remove(id);
+      }
+      if (!success) {
+	errors.addError("Background job " + id + " failed: " + job.commandLine);
+	result = false;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Waits for all jobs to finish and removes them from the table.
+   *
+   * @param errors	for recording failed jobs
+   * @return		true if all jobs finished successfully
+   */
+  public boolean waitForAll(ErrorHandler errors) {
+    return waitFor(ids(), errors);
+  }
+
+  /**
+   * Stops all jobs.
+   */
+  public synchronized void destroy() {
+    m_Destroyed = true;
+    for (Job job: m_Jobs.values()) {
+      job.future.cancel(false);
+      if (job.command instanceof Destroyable)
+	((Destroyable) job.command).destroy();
+    }
+    m_Jobs.clear();
+    if (m_Executor != null)
+      m_Executor.shutdownNow();
+  }
+}
@@ -31,6 +31,9 @@ public class Line
   /** the instruction. */
   protected String m_Instruction;
 
+  /** the compiled instruction. */
+  protected volatile CompiledLine m_Compiled;
+
   /**
    * Initializes with the instruction.
    *
@@ -50,6 +53,17 @@ public class Line
     return m_Instruction;
   }
 
+  /**
+   * Returns the compiled instruction, compiles it if necessary.
+   *
+   * @return		the compiled instruction
+   */
+  public CompiledLine getCompiled() {
+    if (m_Compiled == null)
+      m_Compiled = new CompiledLine(m_Instruction);
+    return m_Compiled;
+  }
+
   /**
    * For converting the the instruction into a string.
    *
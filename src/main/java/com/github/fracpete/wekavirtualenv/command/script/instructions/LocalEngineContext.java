@@ -0,0 +1,128 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * LocalEngineContext.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.command.script.instructions;
+
+import com.github.fracpete.wekavirtualenv.command.script.Variables;
+
+/**
+ * Context with its own scope of variables (a copy-on-write view of the
+ * variables of the parent context). Errors and background jobs get passed
+ * on to the parent.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class LocalEngineContext
+  implements EngineContext {
+
+  /** the parent context. */
+  protected EngineContext m_Parent;
+
+  /** the local variables. */
+  protected Variables m_Variables;
+
+  /**
+   * Initializes the context.
+   *
+   * @param parent	the parent context
+   */
+  public LocalEngineContext(EngineContext parent) {
+    m_Parent    = parent;
+    m_Variables = new Variables(parent.getVariables());
+  }
+
+  /**
+   * Returns the parent context.
+   *
+   * @return		the parent
+   */
+  public EngineContext getParent() {
+    return m_Parent;
+  }
+
+  /**
+   * Stores the error message with the parent.
+   *
+   * @param msg		the message
+   * @param t 		the associated exception
+   */
+  @Override
+  public void addError(String msg, Throwable t) {
+    synchronized (m_Parent) {
+      m_Parent.addError(msg, t);
+    }
+  }
+
+  /**
+   * Stores the error message with the parent.
+   *
+   * @param msg		the message
+   */
+  @Override
+  public void addError(String msg) {
+    synchronized (m_Parent) {
+      m_Parent.addError(msg);
+    }
+  }
+
+  /**
+   * Returns whether the parent recorded any errors.
+   *
+   * @return		true if errors present
+   */
+  @Override
+  public boolean hasErrors() {
+    synchronized (m_Parent) {
+      return m_Parent.hasErrors();
+    }
+  }
+
+  /**
+   * Returns the errors of the parent.
+   *
+   * @return		the errors, null if none present
+   */
+  @Override
+  public String getErrors() {
+    synchronized (m_Parent) {
+      return m_Parent.getErrors();
+    }
+  }
+
+  /**
+   * Returns the local variables.
+   *
+   * @return		the variables
+   */
+  @Override
+  public Variables getVariables() {
+    return m_Variables;
+  }
+
+  /**
+   * Returns the background jobs of the parent.
+   *
+   * @return		the jobs
+   */
+  @Override
+  public Jobs getJobs() {
+    return m_Parent.getJobs();
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * AhoCorasick.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton for checking whether a string contains any of
+ * several literal strings in a single pass. The automaton is compiled into
+ * a table of transitions over the characters that occur in the literals,
+ * all other characters lead back to the initial state.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class AhoCorasick {
+
+  /** the symbol for each character (0 for characters not in any literal). */
+  protected int[] m_Symbols;
+
+  /** the number of symbols (including 0). */
+  protected int m_NumSymbols;
+
+  /** the transitions (state * numSymbols + symbol - next state). */
+  protected int[] m_Transitions;
+
+  /** whether a literal ends in the state. */
+  protected boolean[] m_Match;
+
+  /** whether an empty literal is present, i.e., everything matches. */
+  protected boolean m_MatchAll;
+
+  /**
+   * Compiles the automaton for the literals.
+   *
+   * @param literals	the literals to look for
+   */
+  public AhoCorasick(List<String> literals) {
+    List<int[]>		children;
+    List<Boolean>	match;
+    List<Integer>	fail;
+    List<Integer>	queue;
+    int			maxChar;
+    int			state;
+    int			next;
+    int			sym;
+    int			i;
+    int			n;
+
+    // symbols
+    maxChar = 0;
+    for (String literal: literals) {
+      for (i = 0; i < literal.length(); i++)
+	maxChar = Math.max(maxChar, literal.charAt(i));
+    }
+    m_Symbols    = new int[maxChar + 1];
+    m_NumSymbols = 1;
+    for (String literal: literals) {
+      if (literal.isEmpty())
+	m_MatchAll = true;
+      for (i = 0; i < literal.length(); i++) {
+	if (m_Symbols[literal.charAt(i)] == 0)
+	  m_Symbols[literal.charAt(i)] = m_NumSymbols++;
+      }
+    }
+
+    // trie
+    children = new ArrayList<>();
+    match    = new ArrayList<>();
+    children.add(new int[m_NumSymbols]);
+    match.add(false);
+    for (String literal: literals) {
+      state = 0;
+      for (i = 0; i < literal.length(); i++) {
+	sym = m_Symbols[literal.charAt(i)];
+	if (children.get(state)[sym] == 0) {
+	  children.get(state)[sym] = children.size();
+	  children.add(new int[m_NumSymbols]);
+	  match.add(false);
+	}
+	state = children.get(state)[sym];
+      }
+      match.set(state, true);
+    }
+
+    // transitions, breadth-first using the failure links
+    m_Transitions = new int[children.size() * m_NumSymbols];
+    m_Match       = new boolean[children.size()];
+    fail          = new ArrayList<>();
+    queue         = new ArrayList<>();
+    for (i = 0; i < children.size(); i++)
+      fail.add(0);
+    for (sym = 1; sym < m_NumSymbols; sym++) {
+      next = children.get(0)[sym];
+      m_Transitions[sym] = next;
+      if (next != 0)
+	queue.add(next);
+    }
+    m_Match[0] = match.get(0);
+    for (n = 0; n < queue.size(); n++) {
+      state          = queue.get(n);
+      m_Match[state] = match.get(state) || m_Match[fail.get(state)];
+      for (sym = 1; sym < m_NumSymbols; sym++) {
+	next = children.get(state)[sym];
+	if (next != 0) {
+	  fail.set(next, m_Transitions[fail.get(state) * m_NumSymbols + sym]);
+	  m_Transitions[state * m_NumSymbols + sym] = next;
+	  queue.add(next);
+	}
+	else {
+	  m_Transitions[state * m_NumSymbols + sym] = m_Transitions[fail.get(state) * m_NumSymbols + sym];
+	}
+      }
+    }
+  }
+
+  /**
+   * Checks whether the string contains any of the literals.
+   *
+   * @param s		the string to check
+   * @return		true if at least one literal contained
+   */
+  public boolean containsAny(CharSequence s) {
+    int		state;
+    int		len;
+    int		i;
+    char	c;
+
+    if (m_MatchAll)
+      return true;
+
+    state = 0;
+    len   = s.length();
+    for (i = 0; i < len; i++) {
+      c     = s.charAt(i);
+      state = m_Transitions[state * m_NumSymbols + ((c < m_Symbols.length) ? m_Symbols[c] : 0)];
+      if (m_Match[state])
+	return true;
+    }
+
+    return false;
+  }
+}
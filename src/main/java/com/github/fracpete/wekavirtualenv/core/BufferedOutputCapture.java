@@ -0,0 +1,98 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * BufferedOutputCapture.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.core;
+
+import nz.ac.waikato.cms.core.Utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buffers the output until it gets released to another capture. From
+ * then on, output gets forwarded directly.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class BufferedOutputCapture
+  implements OutputCapture {
+
+  /** the buffered lines. */
+  protected List<String> m_Lines;
+
+  /** whether the buffered lines are stdout or stderr. */
+  protected List<Boolean> m_Stdout;
+
+  /** the capture to forward to, null while buffering. */
+  protected OutputCapture m_Target;
+
+  /**
+   * Initializes the capture.
+   */
+  public BufferedOutputCapture() {
+    m_Lines  = new ArrayList<>();
+    m_Stdout = new ArrayList<>();
+    m_Target = null;
+  }
+
+  /**
+   * Outputs the specified string to either stdout or stderr.
+   *
+   * @param line	the line to output
+   * @param stdout	whether to output on stdout or stderr
+   */
+  @Override
+  public synchronized void println(String line, boolean stdout) {
+    if (m_Target != null) {
+      m_Target.println(line, stdout);
+    }
+    else {
+      m_Lines.add(line);
+      m_Stdout.add(stdout);
+    }
+  }
+
+  /**
+   * Outputs the specified message on stderr.
+   *
+   * @param msg		the message to output
+   * @param t 		the exception
+   */
+  @Override
+  public void println(String msg, Throwable t) {
+    println(msg + "\n" + Utils.throwableToString(t), false);
+  }
+
+  /**
+   * Outputs the buffered lines on the target and forwards all further
+   * output directly.
+   *
+   * @param target	the capture to forward to
+   */
+  public synchronized void release(OutputCapture target) {
+    int		i;
+
+    for (i = 0; i < m_Lines.size(); i++)
+      target.println(m_Lines.get(i), m_Stdout.get(i));
+    m_Lines.clear();
+    m_Stdout.clear();
+    m_Target = target;
+  }
+}
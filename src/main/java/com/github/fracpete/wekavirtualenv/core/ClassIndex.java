@@ -0,0 +1,303 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ClassIndex.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.core;
+
+import nz.ac.waikato.cms.locator.ClassLocator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Index of the classes implementing a certain superclass/interface, with
+ * the classes being accessible via a key (e.g., the name of a command).
+ * <br>
+ * The index gets generated at build time (see {@link #write(File)}) and
+ * stored as properties file (key=classname) below {@link #DIRECTORY}, with
+ * all such files on the classpath getting merged. Only if no index is
+ * available, the classpath gets scanned with the {@link ClassLocator}.
+ * Classes only get loaded once they are requested.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ * @param <T> the type of the indexed classes
+ */
+public class ClassIndex<T> {
+
+  /** the directory on the classpath with the index files. */
+  public final static String DIRECTORY = "META-INF/wekavirtualenv/";
+
+  /** the extension of the index files. */
+  public final static String EXTENSION = ".props";
+
+  /** the superclass/interface. */
+  protected Class<T> m_Superclass;
+
+  /** the package to scan in case the index is not available. */
+  protected String m_Package;
+
+  /** the name of the index (= name of the index file). */
+  protected String m_Name;
+
+  /** for determining the key of an instance. */
+  protected Function<T,String> m_Key;
+
+  /** the classnames (key - classname). */
+  protected Map<String,String> m_Classnames;
+
+  /** the resolved classes (key - class). */
+  protected Map<String,Class<?>> m_Classes;
+
+  /**
+   * Initializes the index.
+   *
+   * @param superclass	the superclass/interface
+   * @param pkg		the package to scan if no index is available
+   * @param name	the name of the index
+   * @param key		for determining the key of an instance
+   */
+  public ClassIndex(Class<T> superclass, String pkg, String name, Function<T,String> key) {
+    m_Superclass = superclass;
+    m_Package    = pkg;
+    m_Name       = name;
+    m_Key        = key;
+    m_Classes    = new HashMap<>();
+  }
+
+  /**
+   * Returns the name of the index.
+   *
+   * @return		the name
+   */
+  public String getName() {
+    return m_Name;
+  }
+
+  /**
+   * Returns the path of the index file on the classpath.
+   *
+   * @return		the path
+   */
+  public String getResource() {
+    return DIRECTORY + m_Name + EXTENSION;
+  }
+
+  /**
+   * Loads the index files from the classpath.
+   *
+   * @return		the classnames, null if no index available
+   */
+  protected Map<String,String> load() {
+    Map<String,String>	result;
+    Enumeration<URL>	urls;
+    URL			url;
+    Properties		props;
+
+    result = null;
+    try {
+      urls = ClassIndex.class.getClassLoader().getResources(getResource());
+      while (urls.hasMoreElements()) {
+	url   = urls.nextElement();
+	props = new Properties();
+	try (InputStream in = url.openStream()) {
+	  props.load(in);
+	}
+	if (result == null)
+	  result = new HashMap<>();
+	for (String key: props.stringPropertyNames()) {
+	  if (!result.containsKey(key))
+	    result.put(key, props.getProperty(key));
+	}
+      }
+    }
+    catch (Exception e) {
+      System.err.println("Failed to load class index '" + m_Name + "', falling back to scanning classpath!");
+      e.printStackTrace();
+      result = null;
+    }
+
+    return result;
+  }
+
+  /**
+   * Scans the classpath for classes, instantiating them to determine their key.
+   *
+   * @return		the classnames (key - classname)
+   */
+  public Map<String,String> scan() {
+    Map<String,String>	result;
+    List<Class<?>>	classes;
+    T			obj;
+    String		key;
+
+    result  = new TreeMap<>();
+    classes = new ArrayList<>();
+    // the locator is shared by all indices, which can get initialized concurrently
+    synchronized (ClassLocator.getSingleton()) {
+      for (Class<?> cls: ClassLocator.getSingleton().findClasses(m_Superclass, new String[]{m_Package}))
+	classes.add(cls);
+    }
+
+    for (Class<?> cls: classes) {
+      try {
+	obj = m_Superclass.cast(cls.newInstance());
+	key = m_Key.apply(obj);
+	if (!result.containsKey(key))
+	  result.put(key, cls.getName());
+      }
+      catch (Exception e) {
+	// ignored
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the classnames, initializes the index if necessary.
+   *
+   * @return		the classnames (key - classname)
+   */
+  protected synchronized Map<String,String> getClassnames() {
+    if (m_Classnames == null) {
+      m_Classnames = load();
+      if (m_Classnames == null)
+	m_Classnames = scan();
+    }
+    return m_Classnames;
+  }
+
+  /**
+   * Returns all the keys.
+   *
+   * @return		the keys
+   */
+  public List<String> keys() {
+    return new ArrayList<>(getClassnames().keySet());
+  }
+
+  /**
+   * Returns the class associated with the key.
+   *
+   * @param key		the key to look up
+   * @return		the class, null if not available
+   */
+  public Class<?> findClass(String key) {
+    Class<?>	result;
+    String	classname;
+
+    classname = getClassnames().get(key);
+    if (classname == null)
+      return null;
+
+    synchronized (m_Classes) {
+      result = m_Classes.get(key);
+      if (result == null) {
+	try {
+	  result = Class.forName(classname);
+	  m_Classes.put(key, result);
+	}
+	catch (Exception e) {
+	  // ignored
+	}
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns a new instance of the class associated with the key.
+   *
+   * @param key		the key to look up
+   * @return		the instance, null if not available or failed to instantiate
+   */
+  public T newInstance(String key) {
+    Class<?>	cls;
+
+    cls = findClass(key);
+    if (cls == null)
+      return null;
+
+    try {
+      return m_Superclass.cast(cls.newInstance());
+    }
+    catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns new instances of all the indexed classes.
+   *
+   * @return		the instances
+   */
+  public List<T> newInstances() {
+    List<T>	result;
+    T		obj;
+
+    result = new ArrayList<>();
+    for (String key: keys()) {
+      obj = newInstance(key);
+      if (obj != null)
+	result.add(obj);
+    }
+
+    return result;
+  }
+
+  /**
+   * Scans the classpath and writes the index file.
+   *
+   * @param dir		the top-level directory to write the index to
+   *                    (e.g., the output directory of the build)
+   * @return		null if successful, otherwise error message
+   */
+  public String write(File dir) {
+    Map<String,String>	classnames;
+    Properties		props;
+    File		file;
+
+    classnames = scan();
+    props      = new Properties();
+    props.putAll(classnames);
+    file       = new File(dir, getResource());
+    if (!file.getParentFile().exists() && !file.getParentFile().mkdirs())
+      return "Failed to create directory for index: " + file.getParentFile();
+
+    try (OutputStream out = new FileOutputStream(file)) {
+      props.store(out, "Generated index for " + m_Superclass.getName() + ", do not edit");
+      return null;
+    }
+    catch (Exception e) {
+      return "Failed to write index to: " + file + "\n" + e;
+    }
+  }
+}
@@ -21,6 +21,7 @@
 package com.github.fracpete.wekavirtualenv.core;
 
 import java.io.Serializable;
+import java.util.List;
 
 /**
  * Default implementation of {@link OutputCapture}, simply outputs
@@ -45,6 +46,26 @@ public class DefaultOutputCapture
       System.err.println(line);
   }
 
+  /**
+   * Outputs the lines with a single write to either stdout or stderr.
+   *
+   * @param lines	the lines to output
+   * @param stdout	whether to output on stdout or stderr
+   */
+  public void println(List<String> lines, boolean stdout) {
+    StringBuilder	batch;
+    String		sep;
+
+    sep   = System.lineSeparator();
+    batch = new StringBuilder();
+    for (String line: lines)
+      batch.append(line).append(sep);
+    if (stdout)
+      System.out.print(batch);
+    else
+      System.err.print(batch);
+  }
+
   /**
    * Outputs the specified message on stderr.
    *
@@ -0,0 +1,322 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Manifest.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Manifest of the files in a directory: size, timestamp and the hashes of
+ * the fixed-size blocks of each file. Files whose size and timestamp
+ * haven't changed don't get hashed again when updating the manifest.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Manifest {
+
+  /** the version of the file format. */
+  public final static int FORMAT = 1;
+
+  /** the size of the blocks. */
+  public final static int BLOCK_SIZE = 128 * 1024;
+
+  /** the algorithm for hashing the blocks. */
+  public final static String ALGORITHM = "MD5";
+
+  /**
+   * Information about a single file.
+   */
+  public static class FileInfo {
+
+    /** the size of the file. */
+    public long size;
+
+    /** the timestamp of the file. */
+    public long lastModified;
+
+    /** the hashes of the blocks. */
+    public byte[][] blocks;
+
+    /**
+     * Returns the number of blocks.
+     *
+     * @return		the number of blocks
+     */
+    public int numBlocks() {
+      return blocks.length;
+    }
+
+    /**
+     * Returns the length of the specified block.
+     *
+     * @param index	the index of the block
+     * @return		the length
+     */
+    public int blockLength(int index) {
+      return (int) Math.min(BLOCK_SIZE, size - (long) index * BLOCK_SIZE);
+    }
+
+    /**
+     * Checks whether the specified block is the same in the other file.
+     *
+     * @param other	the other file, can be null
+     * @param index	the index of the block
+     * @return		true if the same
+     */
+    public boolean sameBlock(FileInfo other, int index) {
+      return (other != null)
+	&& (index < other.numBlocks())
+	&& (blockLength(index) == other.blockLength(index))
+	&& Arrays.equals(blocks[index], other.blocks[index]);
+    }
+
+    /**
+     * Checks whether the content is the same in the other file.
+     *
+     * @param other	the other file, can be null
+     * @return		true if the same
+     */
+    public boolean sameContent(FileInfo other) {
+      int	i;
+
+      if ((other == null) || (size != other.size))
+	return false;
+      for (i = 0; i < numBlocks(); i++) {
+	if (!sameBlock(other, i))
+	  return false;
+      }
+      return true;
+    }
+  }
+
+  /** the files (relative path with forward slashes - info). */
+  protected Map<String,FileInfo> m_Files;
+
+  /**
+   * Initializes an empty manifest.
+   */
+  public Manifest() {
+    m_Files = new TreeMap<>();
+  }
+
+  /**
+   * Returns the files in the manifest.
+   *
+   * @return		the files (relative path - info)
+   */
+  public Map<String,FileInfo> getFiles() {
+    return m_Files;
+  }
+
+  /**
+   * Computes the block hashes of the file.
+   *
+   * @param file	the file to hash
+   * @return		the information
+   * @throws Exception	if reading or hashing fails
+   */
+  public static FileInfo hash(File file) throws Exception {
+    FileInfo		result;
+    MessageDigest	digest;
+    ByteBuffer		buffer;
+    int			i;
+
+    result              = new FileInfo();
+    result.lastModified = file.lastModified();
+    digest              = MessageDigest.getInstance(ALGORITHM);
+    buffer              = ByteBuffer.allocate(BLOCK_SIZE);
+    try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      result.size   = in.size();
+      result.blocks = new byte[(int) ((result.size + BLOCK_SIZE - 1) / BLOCK_SIZE)][];
+      for (i = 0; i < result.blocks.length; i++) {
+	buffer.clear();
+	buffer.limit(result.blockLength(i));
+	while (buffer.hasRemaining()) {
+	  if (in.read(buffer, (long) i * BLOCK_SIZE + buffer.position()) == -1)
+	    throw new IOException("File changed while hashing: " + file);
+	}
+	digest.update(buffer.array(), 0, buffer.limit());
+	result.blocks[i] = digest.digest();
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Brings the manifest up-to-date with the directory, only hashing files
+   * that are new or whose size or timestamp have changed.
+   *
+   * @param dir		the directory to compare against
+   * @param include	the filter for the relative paths to include
+   * @return		the number of files that got hashed
+   * @throws Exception	if listing or hashing fails
+   */
+  public int update(File dir, Predicate<String> include) throws Exception {
+    int			result;
+    final Path		root;
+    List<Path>		files;
+    Set<String>		present;
+    String		name;
+    FileInfo		info;
+    File		file;
+
+    result  = 0;
+    root    = dir.toPath();
+    present = new HashSet<>();
+    if (dir.exists()) {
+      try (Stream<Path> stream = Files.walk(root)) {
+	files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+      }
+      for (Path path: files) {
+	name = root.relativize(path).toString().replace(File.separatorChar, '/');
+	if (!include.test(name))
+	  continue;
+	present.add(name);
+	file = path.toFile();
+	info = m_Files.get(name);
+	if ((info != null) && (info.size == file.length()) && (info.lastModified == file.lastModified()))
+	  continue;
+	m_Files.put(name, hash(file));
+	result++;
+      }
+    }
+    m_Files.keySet().retainAll(present);
+
+    return result;
+  }
+
+  /**
+   * Writes the manifest to the file. Writes to a uniquely named temporary
+   * file first, which then replaces the file, i.e., concurrent syncs to the
+   * same directory don't interfere.
+   *
+   * @param file	the file to write to
+   * @return		null if successful, otherwise error message
+   */
+  public String write(File file) {
+    File	tmp;
+    FileInfo	info;
+
+    try {
+      tmp = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+    }
+    catch (Exception e) {
+      return "Failed to create temporary file for manifest: " + file + "\n" + e;
+    }
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+      out.writeInt(FORMAT);
+      out.writeInt(BLOCK_SIZE);
+      out.writeInt(m_Files.size());
+      for (String name: m_Files.keySet()) {
+	info = m_Files.get(name);
+	out.writeUTF(name);
+	out.writeLong(info.size);
+	out.writeLong(info.lastModified);
+	out.writeInt(info.blocks.length);
+	for (byte[] block: info.blocks) {
+	  out.writeByte(block.length);
+	  out.write(block);
+	}
+      }
+    }
+    catch (Exception e) {
+      tmp.delete();
+      return "Failed to write manifest to: " + tmp + "\n" + e;
+    }
+
+    try {
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      return null;
+    }
+    catch (Exception e) {
+      tmp.delete();
+      return "Failed to move manifest to: " + file + "\n" + e;
+    }
+  }
+
+  /**
+   * Reads the manifest from the file.
+   *
+   * @param file	the file to read from
+   * @return		the manifest, empty if not present or failed to read
+   */
+  public static Manifest read(File file) {
+    Manifest	result;
+    int		count;
+    int		i;
+    int		n;
+    String	name;
+    FileInfo	info;
+
+    result = new Manifest();
+    if (!file.exists())
+      return result;
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+      if ((in.readInt() != FORMAT) || (in.readInt() != BLOCK_SIZE))
+	return result;
+      count = in.readInt();
+      for (i = 0; i < count; i++) {
+	name              = in.readUTF();
+	info              = new FileInfo();
+	info.size         = in.readLong();
+	info.lastModified = in.readLong();
+	info.blocks       = new byte[in.readInt()][];
+	for (n = 0; n < info.blocks.length; n++) {
+	  info.blocks[n] = new byte[in.readUnsignedByte()];
+	  in.readFully(info.blocks[n]);
+	}
+	result.m_Files.put(name, info);
+      }
+    }
+    catch (Exception e) {
+      result.m_Files.clear();
+    }
+
+    return result;
+  }
+}
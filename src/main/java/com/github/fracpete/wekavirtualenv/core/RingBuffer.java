@@ -0,0 +1,139 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * RingBuffer.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, lock-free ring buffer for exactly one producer thread and one
+ * consumer thread.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ * @param <T> the type of the items
+ */
+public class RingBuffer<T> {
+
+  /** the items. */
+  protected final Object[] m_Items;
+
+  /** for turning positions into indices. */
+  protected final int m_Mask;
+
+  /** the position of the next item to read (only modified by consumer). */
+  protected final AtomicLong m_Head;
+
+  /** the position of the next item to write (only modified by producer). */
+  protected final AtomicLong m_Tail;
+
+  /** whether the producer has finished. */
+  protected volatile boolean m_Finished;
+
+  /**
+   * Initializes the buffer.
+   *
+   * @param capacity	the capacity, gets rounded up to the next power of 2
+   */
+  public RingBuffer(int capacity) {
+    int		size;
+
+    size = 1;
+    while (size < capacity)
+      size <<= 1;
+
+    m_Items = new Object[size];
+    m_Mask  = size - 1;
+    m_Head  = new AtomicLong();
+    m_Tail  = new AtomicLong();
+  }
+
+  /**
+   * Returns the capacity of the buffer.
+   *
+   * @return		the capacity
+   */
+  public int capacity() {
+    return m_Items.length;
+  }
+
+  /**
+   * Adds the item (producer only).
+   *
+   * @param item	the item to add
+   * @return		false if the buffer is full
+   */
+  public boolean offer(T item) {
+    long	tail;
+
+    tail = m_Tail.get();
+    if (tail - m_Head.get() == m_Items.length)
+      return false;
+    m_Items[(int) (tail & m_Mask)] = item;
+    m_Tail.lazySet(tail + 1);
+    return true;
+  }
+
+  /**
+   * Removes the next item (consumer only).
+   *
+   * @return		the item, null if the buffer is empty
+   */
+  @SuppressWarnings("unchecked") // only items of type T get stored via offer
+  public T poll() {
+    long	head;
+    int		index;
+    T		result;
+
+    head = m_Head.get();
+    if (head == m_Tail.get())
+      return null;
+    index          = (int) (head & m_Mask);
+    result         = (T) m_Items[index];
+    m_Items[index] = null;
+    m_Head.lazySet(head + 1);
+    return result;
+  }
+
+  /**
+   * Returns whether the buffer is currently empty.
+   *
+   * @return		true if empty
+   */
+  public boolean isEmpty() {
+    return m_Head.get() == m_Tail.get();
+  }
+
+  /**
+   * Signals that the producer won't add any more items.
+   */
+  public void finish() {
+    m_Finished = true;
+  }
+
+  /**
+   * Returns whether the producer has finished and all items have been
+   * consumed.
+   *
+   * @return		true if finished and empty
+   */
+  public boolean isDone() {
+    return m_Finished && isEmpty();
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Trash.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.core;
+
+import com.github.fracpete.wekavirtualenv.WekaVirtualEnv;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Trash area in the project's home directory. Directories get moved into
+ * the trash atomically, so that their original location is available
+ * immediately, and get removed afterwards with a parallel walker, e.g.,
+ * in a background process.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Trash {
+
+  /** the name of the trash directory in the home directory. */
+  public final static String TRASH = "trash";
+
+  /** the log file of the background process. */
+  public final static String LOG = "gc.log";
+
+  /**
+   * Deletes a directory tree, processing the sub-directories in parallel.
+   */
+  public static class DeleteAction
+    extends RecursiveAction {
+
+    private static final long serialVersionUID = -2848357460196745542L;
+
+    /** the directory to delete. */
+    protected Path m_Dir;
+
+    /**
+     * Initializes the action.
+     *
+     * @param dir	the directory to delete
+     */
+    public DeleteAction(Path dir) {
+      m_Dir = dir;
+    }
+
+    /**
+     * Deletes the directory.
+     */
+    @Override
+    protected void compute() {
+      List<DeleteAction>	subdirs;
+
+      subdirs = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(m_Dir)) {
+	for (Path path: stream) {
+	  if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))
+	    subdirs.add(new DeleteAction(path));
+	  else
+	    delete(path);
+	}
+      }
+      catch (NoSuchFileException e) {
+	return;
+      }
+      catch (IOException e) {
+	throw new IllegalStateException("Failed to list directory: " + m_Dir, e);
+      }
+      invokeAll(subdirs);
+      delete(m_Dir);
+    }
+
+    /**
+     * Deletes the file or empty directory, ignoring already removed ones.
+     *
+     * @param path	the path to delete
+     */
+    protected void delete(Path path) {
+      try {
+	Files.deleteIfExists(path);
+      }
+      catch (IOException e) {
+	throw new IllegalStateException("Failed to delete: " + path, e);
+      }
+    }
+  }
+
+  /**
+   * Returns the trash directory.
+   *
+   * @return		the directory
+   */
+  public static File getTrashDir() {
+    return new File(Project.getHomeDir() + File.separator + TRASH);
+  }
+
+  /**
+   * Moves the directory into the trash.
+   *
+   * @param dir		the directory to move
+   * @return		null if successful, otherwise error message
+   */
+  public static String move(File dir) {
+    File	target;
+
+    if (!getTrashDir().exists() && !getTrashDir().mkdirs())
+      return "Failed to create trash directory: " + getTrashDir();
+
+    target = new File(getTrashDir(), System.currentTimeMillis() + "-" + System.nanoTime() + "-" + dir.getName());
+    try {
+      Files.move(dir.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      return null;
+    }
+    catch (Exception e) {
+      return "Failed to move directory into trash:\n"
+	+ "- dir: " + dir + "\n"
+	+ "- trash: " + getTrashDir() + "\n"
+	+ "- exception:\n"
+	+ e;
+    }
+  }
+
+  /**
+   * Deletes the directory tree in parallel.
+   *
+   * @param dir		the directory to delete
+   * @return		null if successful, otherwise error message
+   */
+  public static String delete(File dir) {
+    ForkJoinPool	pool;
+
+    pool = new ForkJoinPool();
+    try {
+      pool.invoke(new DeleteAction(dir.toPath()));
+      return null;
+    }
+    catch (Exception e) {
+      return e.getMessage() + "\n" + ((e.getCause() != null) ? e.getCause() : e);
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Returns the number of entries in the trash.
+   *
+   * @return		the number of entries
+   */
+  public static int size() {
+    File[]	entries;
+
+    entries = getTrashDir().listFiles();
+    return (entries == null) ? 0 : entries.length;
+  }
+
+  /**
+   * Removes all entries from the trash.
+   *
+   * @return		null if successful, otherwise error message
+   */
+  public static String empty() {
+    StringBuilder	result;
+    File[]		entries;
+    String		msg;
+
+    entries = getTrashDir().listFiles();
+    if (entries == null)
+      return null;
+
+    result = new StringBuilder();
+    for (File entry: entries) {
+      msg = delete(entry);
+      if (msg != null)
+	result.append(msg).append("\n");
+    }
+
+    return (result.length() == 0) ? null : result.toString();
+  }
+
+  /**
+   * Empties the trash in a separate process (command 'gc'), which keeps
+   * running after the current one exits. The process uses the same home
+   * directory, its output goes to {@link #LOG} in the home directory.
+   *
+   * @return		null if successful, otherwise error message
+   */
+  public static String emptyInBackground() {
+    ProcessBuilder	builder;
+
+    builder = new ProcessBuilder(
+      System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+      "-Duser.home=" + System.getProperty("user.home"),
+      "-classpath", System.getProperty("java.class.path"),
+      WekaVirtualEnv.class.getName(),
+      "gc");
+    builder.redirectErrorStream(true);
+    builder.redirectOutput(Redirect.to(new File(Project.getHomeDir() + File.separator + LOG)));
+    try {
+      builder.start().getOutputStream().close();
+      return null;
+    }
+    catch (Exception e) {
+      return "Failed to empty trash in background, use command 'gc' instead:\n" + e;
+    }
+  }
+}
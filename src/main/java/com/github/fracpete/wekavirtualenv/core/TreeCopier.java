@@ -0,0 +1,333 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * TreeCopier.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies a directory tree. Files considered immutable (by default jars,
+ * like the ones of installed packages) get hardlinked if possible, all
+ * other files get copied in parallel using {@link FileChannel#transferTo}.
+ * If the file system doesn't support hardlinks (or source and target are
+ * on different devices), all files get copied.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class TreeCopier {
+
+  /** the extensions of the files that are considered immutable. */
+  public final static String[] IMMUTABLE = {".jar"};
+
+  /** whether to hardlink immutable files. */
+  protected boolean m_Link;
+
+  /** whether to hardlink all files rather than just immutable ones. */
+  protected boolean m_LinkAll;
+
+  /** whether hardlinks are possible for the current copy. */
+  protected volatile boolean m_CanLink;
+
+  /** the number of threads to use for copying. */
+  protected int m_NumThreads;
+
+  /** the number of files processed. */
+  protected AtomicLong m_Files;
+
+  /** the number of files linked. */
+  protected AtomicLong m_LinkedFiles;
+
+  /** the number of bytes copied. */
+  protected AtomicLong m_CopiedBytes;
+
+  /** the number of bytes linked rather than copied. */
+  protected AtomicLong m_LinkedBytes;
+
+  /** the time in msec the last copy took. */
+  protected long m_Duration;
+
+  /**
+   * Initializes the copier.
+   */
+  public TreeCopier() {
+    m_Link        = true;
+    m_NumThreads  = Runtime.getRuntime().availableProcessors();
+    m_Files       = new AtomicLong();
+    m_LinkedFiles = new AtomicLong();
+    m_CopiedBytes = new AtomicLong();
+    m_LinkedBytes = new AtomicLong();
+  }
+
+  /**
+   * Sets whether to hardlink immutable files.
+   *
+   * @param value	true if to link
+   */
+  public void setLink(boolean value) {
+    m_Link = value;
+  }
+
+  /**
+   * Returns whether to hardlink immutable files.
+   *
+   * @return		true if to link
+   */
+  public boolean getLink() {
+    return m_Link;
+  }
+
+  /**
+   * Sets whether to hardlink all files rather than just immutable ones.
+   *
+   * @param value	true if to link all
+   */
+  public void setLinkAll(boolean value) {
+    m_LinkAll = value;
+  }
+
+  /**
+   * Returns whether to hardlink all files rather than just immutable ones.
+   *
+   * @return		true if to link all
+   */
+  public boolean getLinkAll() {
+    return m_LinkAll;
+  }
+
+  /**
+   * Sets the number of threads to use for copying.
+   *
+   * @param value	the number of threads, &lt; 1 for number of cores
+   */
+  public void setNumThreads(int value) {
+    if (value < 1)
+      value = Runtime.getRuntime().availableProcessors();
+    m_NumThreads = value;
+  }
+
+  /**
+   * Returns the number of threads to use for copying.
+   *
+   * @return		the number of threads
+   */
+  public int getNumThreads() {
+    return m_NumThreads;
+  }
+
+  /**
+   * Returns the number of files processed by the last copy.
+   *
+   * @return		the number of files
+   */
+  public long getFiles() {
+    return m_Files.get();
+  }
+
+  /**
+   * Returns the number of files linked by the last copy.
+   *
+   * @return		the number of files
+   */
+  public long getLinkedFiles() {
+    return m_LinkedFiles.get();
+  }
+
+  /**
+   * Returns the number of bytes copied by the last copy.
+   *
+   * @return		the number of bytes
+   */
+  public long getCopiedBytes() {
+    return m_CopiedBytes.get();
+  }
+
+  /**
+   * Returns the number of bytes that got linked instead of copied by the
+   * last copy, i.e., the bytes saved.
+   *
+   * @return		the number of bytes
+   */
+  public long getLinkedBytes() {
+    return m_LinkedBytes.get();
+  }
+
+  /**
+   * Returns the time the last copy took.
+   *
+   * @return		the time in msec
+   */
+  public long getDuration() {
+    return m_Duration;
+  }
+
+  /**
+   * Checks whether the file is considered immutable.
+   *
+   * @param name	the name of the file to check
+   * @return		true if immutable
+   */
+  public static boolean isImmutable(String name) {
+    name = name.toLowerCase();
+    for (String ext: IMMUTABLE) {
+      if (name.endsWith(ext))
+	return true;
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether the file is considered immutable.
+   *
+   * @param file	the file to check
+   * @return		true if immutable
+   */
+  protected boolean isImmutable(Path file) {
+    return isImmutable(file.getFileName().toString());
+  }
+
+  /**
+   * Copies the file using {@link FileChannel#transferTo}.
+   *
+   * @param source	the file to copy
+   * @param target	the file to create
+   * @throws IOException	if copying fails
+   */
+  protected void copyFile(Path source, Path target) throws IOException {
+    long	size;
+    long	pos;
+
+    try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+	 FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      size = in.size();
+      pos  = 0;
+      while (pos < size)
+	pos += in.transferTo(pos, size - pos, out);
+    }
+    Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+    m_CopiedBytes.addAndGet(size);
+  }
+
+  /**
+   * Links or copies the file.
+   *
+   * @param source	the file to link/copy
+   * @param target	the file to create
+   * @param attrs	the attributes of the source file
+   * @throws IOException	if copying fails
+   */
+  protected void process(Path source, Path target, BasicFileAttributes attrs) throws IOException {
+    m_Files.incrementAndGet();
+
+    if (attrs.isSymbolicLink()) {
+      Files.copy(source, target, LinkOption.NOFOLLOW_LINKS, StandardCopyOption.COPY_ATTRIBUTES);
+      return;
+    }
+
+    if (m_CanLink && (m_LinkAll || isImmutable(source))) {
+      try {
+	Files.createLink(target, source);
+	m_LinkedFiles.incrementAndGet();
+	m_LinkedBytes.addAndGet(attrs.size());
+	return;
+      }
+      catch (UnsupportedOperationException | IOException e) {
+	// e.g., different file systems, no point in trying again
+	m_CanLink = false;
+      }
+    }
+
+    copyFile(source, target);
+  }
+
+  /**
+   * Copies the content of the source directory into the target directory,
+   * which gets created if necessary.
+   *
+   * @param source	the directory to copy
+   * @param target	the directory to copy to
+   * @return		null if successful, otherwise error message
+   */
+  public String copy(File source, File target) {
+    final Path			from;
+    final Path			to;
+    final ExecutorService	executor;
+    final List<Future<?>>	jobs;
+    long			start;
+
+    m_Files.set(0);
+    m_LinkedFiles.set(0);
+    m_CopiedBytes.set(0);
+    m_LinkedBytes.set(0);
+    m_CanLink = m_Link;
+    start     = System.currentTimeMillis();
+    from     = source.toPath();
+    to       = target.toPath();
+    executor = Executors.newFixedThreadPool(m_NumThreads);
+    jobs     = new ArrayList<>();
+
+    try {
+      Files.walkFileTree(from, new SimpleFileVisitor<Path>() {
+	@Override
+	public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+	  Files.createDirectories(to.resolve(from.relativize(dir)));
+	  return FileVisitResult.CONTINUE;
+	}
+	@Override
+	public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+	  jobs.add(executor.submit(() -> {
+	    process(file, to.resolve(from.relativize(file)), attrs);
+	    return null;
+	  }));
+	  return FileVisitResult.CONTINUE;
+	}
+      });
+      for (Future<?> job: jobs)
+	job.get();
+      return null;
+    }
+    catch (Exception e) {
+      return "Failed to copy directory:\n"
+	+ "- from: " + source + "\n"
+	+ "- to: " + target + "\n"
+	+ "- exception:\n"
+	+ ((e.getCause() != null) ? e.getCause() : e);
+    }
+    finally {
+      executor.shutdownNow();
+      m_Duration = System.currentTimeMillis() - start;
+    }
+  }
+}
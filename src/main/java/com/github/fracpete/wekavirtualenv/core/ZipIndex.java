@@ -0,0 +1,455 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ZipIndex.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Inflater;
+
+/**
+ * Index of the entries of a zip/jar file, built in a single pass over the
+ * memory-mapped central directory. The entry names are kept in a compact
+ * open-addressing hash table (positions into the mapped directory), which
+ * allows for answering many existence queries without opening the file
+ * again. The content of STORED entries can be accessed without copying,
+ * DEFLATED entries get inflated from the mapped file.
+ * <br>
+ * ZIP64 archives are not supported (an IOException gets thrown).
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class ZipIndex
+  implements Closeable {
+
+  /** the signature of the end of central directory record. */
+  public final static int EOCD_SIGNATURE = 0x06054b50;
+
+  /** the signature of a central directory header. */
+  public final static int CEN_SIGNATURE = 0x02014b50;
+
+  /** the signature of a local file header. */
+  public final static int LOC_SIGNATURE = 0x04034b50;
+
+  /** the size of the end of central directory record (without comment). */
+  public final static int EOCD_SIZE = 22;
+
+  /** the size of the central directory header (without variable fields). */
+  public final static int CEN_SIZE = 46;
+
+  /** the size of the local file header (without variable fields). */
+  public final static int LOC_SIZE = 30;
+
+  /** compression method: stored. */
+  public final static int STORED = 0;
+
+  /** compression method: deflated. */
+  public final static int DEFLATED = 8;
+
+  /** the zip file. */
+  protected File m_File;
+
+  /** the channel for the file. */
+  protected FileChannel m_Channel;
+
+  /** the mapped central directory. */
+  protected MappedByteBuffer m_Directory;
+
+  /** the number of entries. */
+  protected int m_Count;
+
+  /** the positions of the central directory headers. */
+  protected int[] m_Headers;
+
+  /** the hashes of the entry names. */
+  protected int[] m_Hashes;
+
+  /** the hash table (entry index + 1, 0 if empty). */
+  protected int[] m_Table;
+
+  /**
+   * Opens the zip file and indexes the central directory.
+   *
+   * @param file	the zip file to index
+   * @throws IOException	if not a (supported) zip file
+   */
+  public ZipIndex(File file) throws IOException {
+    m_File    = file;
+    m_Channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      index();
+    }
+    catch (IOException e) {
+      m_Channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Locates the end of central directory record.
+   *
+   * @return		the position in the file
+   * @throws IOException	if not found
+   */
+  protected long findEndOfDirectory() throws IOException {
+    long		size;
+    int			len;
+    ByteBuffer		tail;
+    int			i;
+
+    size = m_Channel.size();
+    if (size < EOCD_SIZE)
+      throw new IOException("Not a zip file: " + m_File);
+    // the record is followed by a comment of at most 64KB
+    len  = (int) Math.min(size, EOCD_SIZE + 0xFFFF);
+    tail = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+    while (tail.hasRemaining()) {
+      if (m_Channel.read(tail, size - len + tail.position()) == -1)
+	break;
+    }
+    for (i = len - EOCD_SIZE; i >= 0; i--) {
+      if (tail.getInt(i) == EOCD_SIGNATURE)
+	return size - len + i;
+    }
+
+    throw new IOException("End of central directory not found: " + m_File);
+  }
+
+  /**
+   * Computes the hash of the name stored in the directory.
+   *
+   * @param pos		the position of the name
+   * @param len		the length of the name
+   * @return		the hash
+   */
+  protected int hash(int pos, int len) {
+    int		result;
+    int		i;
+
+    result = 0;
+    for (i = 0; i < len; i++)
+      result = 31 * result + m_Directory.get(pos + i);
+
+    return result;
+  }
+
+  /**
+   * Computes the hash of the name.
+   *
+   * @param name	the encoded name
+   * @return		the hash
+   */
+  protected static int hash(byte[] name) {
+    int		result;
+
+    result = 0;
+    for (byte b: name)
+      result = 31 * result + b;
+
+    return result;
+  }
+
+  /**
+   * Maps the central directory and builds the hash table.
+   *
+   * @throws IOException	if reading fails or unsupported format
+   */
+  protected void index() throws IOException {
+    long		eocd;
+    ByteBuffer		record;
+    int			count;
+    long		size;
+    long		offset;
+    int			pos;
+    int			i;
+    int			slot;
+    int			len;
+
+    eocd   = findEndOfDirectory();
+    record = ByteBuffer.allocate(EOCD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    m_Channel.read(record, eocd);
+    count  = record.getShort(10) & 0xFFFF;
+    size   = record.getInt(12) & 0xFFFFFFFFL;
+    offset = record.getInt(16) & 0xFFFFFFFFL;
+    if ((count == 0xFFFF) || (size == 0xFFFFFFFFL) || (offset == 0xFFFFFFFFL))
+      throw new IOException("ZIP64 archives not supported: " + m_File);
+    if (offset + size > eocd)
+      throw new IOException("Invalid central directory: " + m_File);
+
+    m_Directory = m_Channel.map(MapMode.READ_ONLY, offset, size);
+    m_Directory.order(ByteOrder.LITTLE_ENDIAN);
+    m_Count     = count;
+    m_Headers   = new int[count];
+    m_Hashes    = new int[count];
+    len         = 1;
+    while (len < count * 2)
+      len <<= 1;
+    m_Table     = new int[len];
+
+    pos = 0;
+    for (i = 0; i < count; i++) {
+      if ((pos + CEN_SIZE > size) || (m_Directory.getInt(pos) != CEN_SIGNATURE))
+	throw new IOException("Invalid central directory header #" + i + ": " + m_File);
+      m_Headers[i] = pos;
+      m_Hashes[i]  = hash(pos + CEN_SIZE, nameLength(i));
+      slot         = m_Hashes[i] & (m_Table.length - 1);
+      while (m_Table[slot] != 0)
+	slot = (slot + 1) & (m_Table.length - 1);
+      m_Table[slot] = i + 1;
+      pos += CEN_SIZE + nameLength(i)
+	+ (m_Directory.getShort(pos + 30) & 0xFFFF)
+	+ (m_Directory.getShort(pos + 32) & 0xFFFF);
+    }
+  }
+
+  /**
+   * Returns the length of the name of the entry.
+   *
+   * @param index	the index of the entry
+   * @return		the length
+   */
+  protected int nameLength(int index) {
+    return m_Directory.getShort(m_Headers[index] + 28) & 0xFFFF;
+  }
+
+  /**
+   * Returns the index of the entry.
+   *
+   * @param name	the name of the entry
+   * @return		the index, -1 if not present
+   */
+  protected int find(String name) {
+    byte[]	bytes;
+    int		hash;
+    int		slot;
+    int		index;
+    int		pos;
+    int		i;
+    boolean	match;
+
+    bytes = name.getBytes(StandardCharsets.UTF_8);
+    hash  = hash(bytes);
+    slot  = hash & (m_Table.length - 1);
+    while (m_Table[slot] != 0) {
+      index = m_Table[slot] - 1;
+      if ((m_Hashes[index] == hash) && (nameLength(index) == bytes.length)) {
+	pos   = m_Headers[index] + CEN_SIZE;
+	match = true;
+	for (i = 0; i < bytes.length; i++) {
+	  if (m_Directory.get(pos + i) != bytes[i]) {
+	    match = false;
+	    break;
+	  }
+	}
+	if (match)
+	  return index;
+      }
+      slot = (slot + 1) & (m_Table.length - 1);
+    }
+
+    return -1;
+  }
+
+  /**
+   * Returns the number of entries.
+   *
+   * @return		the number of entries
+   */
+  public int size() {
+    return m_Count;
+  }
+
+  /**
+   * Returns the names of all entries.
+   *
+   * @return		the names
+   */
+  public List<String> names() {
+    List<String>	result;
+    byte[]		name;
+    int			i;
+    int			n;
+    int			pos;
+
+    result = new ArrayList<>(m_Count);
+    for (i = 0; i < m_Count; i++) {
+      name = new byte[nameLength(i)];
+      pos  = m_Headers[i] + CEN_SIZE;
+      for (n = 0; n < name.length; n++)
+	name[n] = m_Directory.get(pos + n);
+      result.add(new String(name, StandardCharsets.UTF_8));
+    }
+
+    return result;
+  }
+
+  /**
+   * Checks whether the resource is present.
+   *
+   * @param resource	the resource to look for
+   * @return		true if present
+   */
+  public boolean hasResource(String resource) {
+    return (find(resource) > -1);
+  }
+
+  /**
+   * Checks whether the class is present.
+   *
+   * @param classname	the class to look for
+   * @return		true if present
+   */
+  public boolean hasClass(String classname) {
+    return hasResource(classname.replace(".", "/") + ".class");
+  }
+
+  /**
+   * Checks whether the classes are present.
+   *
+   * @param classnames	the classes to look for
+   * @return		whether the classes are present
+   */
+  public boolean[] hasClasses(String[] classnames) {
+    boolean[]	result;
+    int		i;
+
+    result = new boolean[classnames.length];
+    for (i = 0; i < classnames.length; i++)
+      result[i] = hasClass(classnames[i]);
+
+    return result;
+  }
+
+  /**
+   * Returns the content of the entry. STORED entries get returned as
+   * read-only view on the mapped file, DEFLATED ones get inflated.
+   *
+   * @param resource	the entry to read
+   * @return		the content, null if not present
+   * @throws IOException	if reading fails or unsupported compression method
+   */
+  public ByteBuffer read(String resource) throws IOException {
+    int			index;
+    int			header;
+    int			method;
+    long		compressed;
+    long		uncompressed;
+    long		local;
+    ByteBuffer		loc;
+    long		data;
+    MappedByteBuffer	mapped;
+    Inflater		inflater;
+    byte[]		input;
+    byte[]		result;
+    int			offset;
+    int			read;
+
+    index = find(resource);
+    if (index == -1)
+      return null;
+
+    header       = m_Headers[index];
+    method       = m_Directory.getShort(header + 10) & 0xFFFF;
+    compressed   = m_Directory.getInt(header + 20) & 0xFFFFFFFFL;
+    uncompressed = m_Directory.getInt(header + 24) & 0xFFFFFFFFL;
+    local        = m_Directory.getInt(header + 42) & 0xFFFFFFFFL;
+    if (uncompressed > Integer.MAX_VALUE)
+      throw new IOException("Entry too large: " + resource);
+
+    loc = ByteBuffer.allocate(LOC_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    m_Channel.read(loc, local);
+    if (loc.getInt(0) != LOC_SIGNATURE)
+      throw new IOException("Invalid local header: " + resource);
+    data = local + LOC_SIZE + (loc.getShort(26) & 0xFFFF) + (loc.getShort(28) & 0xFFFF);
+
+    switch (method) {
+      case STORED:
+	return m_Channel.map(MapMode.READ_ONLY, data, uncompressed).asReadOnlyBuffer();
+
+      case DEFLATED:
+	mapped   = m_Channel.map(MapMode.READ_ONLY, data, compressed);
+	input    = new byte[mapped.remaining()];
+	mapped.get(input);
+	result   = new byte[(int) uncompressed];
+	inflater = new Inflater(true);
+	try {
+	  inflater.setInput(input);
+	  offset = 0;
+	  while ((offset < result.length) && !inflater.finished()) {
+	    read = inflater.inflate(result, offset, result.length - offset);
+	    if ((read == 0) && (inflater.needsInput() || inflater.needsDictionary()))
+	      throw new IOException("Truncated entry");
+	    offset += read;
+	  }
+	}
+	catch (Exception e) {
+	  throw new IOException("Failed to inflate: " + resource, e);
+	}
+	finally {
+	  inflater.end();
+	}
+	return ByteBuffer.wrap(result);
+
+      default:
+	throw new IOException("Unsupported compression method " + method + ": " + resource);
+    }
+  }
+
+  /**
+   * Returns the content of the entry as byte array.
+   *
+   * @param resource	the entry to read
+   * @return		the content, null if not present
+   * @throws IOException	if reading fails or unsupported compression method
+   */
+  public byte[] readBytes(String resource) throws IOException {
+    ByteBuffer	buffer;
+    byte[]	result;
+
+    buffer = read(resource);
+    if (buffer == null)
+      return null;
+    if (buffer.hasArray() && (buffer.arrayOffset() == 0) && (buffer.remaining() == buffer.array().length))
+      return buffer.array();
+    result = new byte[buffer.remaining()];
+    buffer.get(result);
+    return result;
+  }
+
+  /**
+   * Closes the file.
+   *
+   * @throws IOException	if closing fails
+   */
+  @Override
+  public void close() throws IOException {
+    m_Channel.close();
+  }
+}
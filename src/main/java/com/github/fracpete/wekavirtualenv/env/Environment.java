@@ -20,14 +20,15 @@
 
 package com.github.fracpete.wekavirtualenv.env;
 
-import gnu.trove.list.TByteList;
-import gnu.trove.list.array.TByteArrayList;
+import com.github.fracpete.wekavirtualenv.core.ZipIndex;
 import nz.ac.waikato.cms.core.FileUtils;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
 import java.util.jar.JarEntry;
@@ -97,9 +98,42 @@ public class Environment
    * Returns the Weka version of the jar, if possible.
    *
    * @return		the version
+   * @see		EnvironmentRegistry#getVersion(Environment)
    */
   public String version() {
-    return getVersion(weka);
+    return EnvironmentRegistry.getSingleton().getVersion(this);
+  }
+
+  /**
+   * Checks whether the given class is available in the Weka jar.
+   * Uses the cached metadata of the jar.
+   *
+   * @param classname	the class to look for
+   * @param verbose	whether to output error messages
+   * @return		true if present
+   * @see		JarMetadata
+   */
+  public boolean hasClass(String classname, boolean verbose) {
+    JarMetadata		metadata;
+
+    metadata = JarMetadata.get(this, verbose);
+    return (metadata != null) && metadata.hasClass(classname);
+  }
+
+  /**
+   * Checks whether the given resource is available in the Weka jar.
+   * Uses the cached metadata of the jar.
+   *
+   * @param resource	the resource to look for
+   * @param verbose	whether to output error messages
+   * @return		true if present
+   * @see		JarMetadata
+   */
+  public boolean hasResource(String resource, boolean verbose) {
+    JarMetadata		metadata;
+
+    metadata = JarMetadata.get(this, verbose);
+    return (metadata != null) && metadata.hasResource(resource);
   }
 
   /**
@@ -261,7 +295,7 @@ public class Environment
     String		result;
     byte[]		bytes;
 
-    bytes = readResource(jar, "weka/core/version.txt", verbose);
+    bytes = readResource(jar, JarMetadata.VERSION_RESOURCE, verbose);
     if (bytes == null)
       result = null;
     else
@@ -272,27 +306,29 @@ public class Environment
 
   /**
    * Reads the binary content of the resource from the jar file.
+   * Uses the {@link ZipIndex}, falling back on {@link JarFile}.
    *
    * @param jar		the jar to use
    * @param resource 	the resource to load
    * @return		the content, null if failed to load
    */
   public static byte[] readResource(String jar, String resource, boolean verbose) {
-    TByteList 		result;
+    byte[]		result;
     JarFile		jfile;
-    JarEntry 		entry;
-    InputStream		in;
-    int 		b;
 
-    result = new TByteArrayList();
-    in     = null;
-    jfile  = null;
+    try (ZipIndex index = new ZipIndex(new File(jar))) {
+      result = index.readBytes(resource);
+      if (result != null)
+	return result;
+    }
+    catch (Exception e) {
+      // e.g., ZIP64 archive
+    }
+
+    jfile = null;
     try {
-      jfile   = new JarFile(jar);
-      entry   = jfile.getJarEntry(resource);
-      in      = jfile.getInputStream(entry);
-      while ((b = in.read()) != -1)
-	result.add((byte) b);
+      jfile  = new JarFile(jar);
+      result = readResource(jfile, resource);
     }
     catch (Exception e) {
       if (verbose) {
@@ -302,7 +338,6 @@ public class Environment
       result = null;
     }
     finally {
-      FileUtils.closeQuietly(in);
       if (jfile != null) {
         try {
 	  jfile.close();
@@ -313,7 +348,34 @@ public class Environment
       }
     }
 
-    return result.toArray();
+    return result;
+  }
+
+  /**
+   * Reads the binary content of the resource from the open jar file.
+   *
+   * @param jfile	the jar to use
+   * @param resource 	the resource to load
+   * @return		the content
+   * @throws IOException	if resource not present or failed to read
+   */
+  public static byte[] readResource(JarFile jfile, String resource) throws IOException {
+    ByteArrayOutputStream	result;
+    JarEntry 			entry;
+    byte[]			buffer;
+    int 			read;
+
+    entry = jfile.getJarEntry(resource);
+    if (entry == null)
+      throw new IOException("Resource not found: " + resource);
+    result = new ByteArrayOutputStream((entry.getSize() > 0) ? (int) entry.getSize() : 1024);
+    buffer = new byte[8192];
+    try (InputStream in = jfile.getInputStream(entry)) {
+      while ((read = in.read(buffer)) != -1)
+	result.write(buffer, 0, read);
+    }
+
+    return result.toByteArray();
   }
 
   /**
@@ -0,0 +1,627 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * EnvironmentArchive.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.env;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Exports an environment (setup, 'wekafiles' and optionally the Weka jar)
+ * into a single zip archive and imports it again, e.g., on another machine.
+ * <br>
+ * Export: small files get compressed by a thread pool, the compressed
+ * entries get written in order. Files that are already compressed (jars,
+ * zips, ...) get stored; their checksums get computed by the thread pool,
+ * their content gets streamed straight into the archive. Other large
+ * files get compressed while streaming them into the archive.
+ * <br>
+ * Import: the entries get extracted in parallel, verifying their
+ * checksums. Paths referring to the original environment directory and
+ * Weka jar get rewritten.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class EnvironmentArchive {
+
+  /** the entry with the information about the export. */
+  public final static String INFO = "export.props";
+
+  /** the prefix for the 'wekafiles' entries. */
+  public final static String WEKAFILES = "wekafiles/";
+
+  /** the prefix for the Weka jar entry. */
+  public final static String JAR = "weka/";
+
+  /** the key for the original environment directory. */
+  public final static String KEY_ENVDIR = "envdir";
+
+  /** the key for the original Weka jar. */
+  public final static String KEY_WEKA = "weka";
+
+  /** the key for the entry of the Weka jar (if included). */
+  public final static String KEY_JAR = "jar";
+
+  /** files up to this size get compressed in memory by the thread pool. */
+  public final static int MAX_PARALLEL_SIZE = 4 * 1024 * 1024;
+
+  /** the extensions of files that are already compressed. */
+  public final static String[] COMPRESSED = {".jar", ".zip", ".gz", ".bz2", ".xz", ".7z", ".png", ".jpg", ".gif"};
+
+  /**
+   * The result of preparing an entry.
+   */
+  protected static class Prepared {
+
+    /** the entry. */
+    public ZipArchiveEntry entry;
+
+    /** the file to stream, null if data available. */
+    public File file;
+
+    /** the (compressed) data, null if to stream file. */
+    public byte[] data;
+  }
+
+  /** the number of threads to use. */
+  protected int m_NumThreads;
+
+  /** whether to include the Weka jar when exporting. */
+  protected boolean m_IncludeJar;
+
+  /** whether imported environments use the package store. */
+  protected boolean m_SharePackages;
+
+  /** the compression level. */
+  protected int m_Level;
+
+  /** the number of entries processed. */
+  protected AtomicLong m_Entries;
+
+  /** the number of (uncompressed) bytes processed. */
+  protected AtomicLong m_Bytes;
+
+  /** the time in msec the last export/import took. */
+  protected long m_Duration;
+
+  /**
+   * Initializes the archiver.
+   */
+  public EnvironmentArchive() {
+    m_NumThreads    = Runtime.getRuntime().availableProcessors();
+    m_IncludeJar    = false;
+    m_SharePackages = false;
+    m_Level         = Deflater.DEFAULT_COMPRESSION;
+    m_Entries       = new AtomicLong();
+    m_Bytes         = new AtomicLong();
+  }
+
+  /**
+   * Sets the number of threads to use.
+   *
+   * @param value	the number of threads, &lt; 1 for number of cores
+   */
+  public void setNumThreads(int value) {
+    if (value < 1)
+      value = Runtime.getRuntime().availableProcessors();
+    m_NumThreads = value;
+  }
+
+  /**
+   * Returns the number of threads to use.
+   *
+   * @return		the number of threads
+   */
+  public int getNumThreads() {
+    return m_NumThreads;
+  }
+
+  /**
+   * Sets whether the packages of imported environments use the package store.
+   *
+   * @param value	true if to use the store
+   */
+  public void setSharePackages(boolean value) {
+    m_SharePackages = value;
+  }
+
+  /**
+   * Returns whether the packages of imported environments use the package store.
+   *
+   * @return		true if to use the store
+   */
+  public boolean getSharePackages() {
+    return m_SharePackages;
+  }
+
+  /**
+   * Sets whether to include the Weka jar when exporting.
+   *
+   * @param value	true if to include
+   */
+  public void setIncludeJar(boolean value) {
+    m_IncludeJar = value;
+  }
+
+  /**
+   * Returns whether to include the Weka jar when exporting.
+   *
+   * @return		true if to include
+   */
+  public boolean getIncludeJar() {
+    return m_IncludeJar;
+  }
+
+  /**
+   * Sets the compression level (0-9, -1 for default).
+   *
+   * @param value	the level
+   */
+  public void setLevel(int value) {
+    m_Level = value;
+  }
+
+  /**
+   * Returns the compression level (0-9, -1 for default).
+   *
+   * @return		the level
+   */
+  public int getLevel() {
+    return m_Level;
+  }
+
+  /**
+   * Returns the number of entries processed by the last export/import.
+   *
+   * @return		the number of entries
+   */
+  public long getEntries() {
+    return m_Entries.get();
+  }
+
+  /**
+   * Returns the number of (uncompressed) bytes processed by the last
+   * export/import.
+   *
+   * @return		the number of bytes
+   */
+  public long getBytes() {
+    return m_Bytes.get();
+  }
+
+  /**
+   * Returns the time the last export/import took.
+   *
+   * @return		the time in msec
+   */
+  public long getDuration() {
+    return m_Duration;
+  }
+
+  /**
+   * Checks whether the file is already compressed.
+   *
+   * @param file	the file to check
+   * @return		true if compressed
+   */
+  protected boolean isCompressed(File file) {
+    String	name;
+
+    name = file.getName().toLowerCase();
+    for (String ext: COMPRESSED) {
+      if (name.endsWith(ext))
+	return true;
+    }
+    return false;
+  }
+
+  /**
+   * Prepares the entry for the file: compresses small files, computes the
+   * checksum of already compressed ones.
+   *
+   * @param name	the name of the entry
+   * @param file	the file to add
+   * @return		the prepared entry
+   * @throws IOException	if reading fails
+   */
+  protected Prepared prepare(String name, File file) throws IOException {
+    Prepared			result;
+    CRC32			crc;
+    byte[]			buffer;
+    byte[]			data;
+    int				read;
+    Deflater			deflater;
+    ByteArrayOutputStream	out;
+
+    result            = new Prepared();
+    result.entry      = new ZipArchiveEntry(name);
+    result.entry.setTime(file.lastModified());
+    result.entry.setSize(file.length());
+    crc               = new CRC32();
+
+    if (isCompressed(file)) {
+      buffer = new byte[64 * 1024];
+      try (InputStream in = Files.newInputStream(file.toPath())) {
+	while ((read = in.read(buffer)) != -1)
+	  crc.update(buffer, 0, read);
+      }
+      result.entry.setMethod(ZipEntry.STORED);
+      result.entry.setCrc(crc.getValue());
+      result.entry.setCompressedSize(file.length());
+      result.file = file;
+    }
+    else if (file.length() <= MAX_PARALLEL_SIZE) {
+      data = Files.readAllBytes(file.toPath());
+      crc.update(data);
+      deflater = new Deflater(m_Level, true);
+      out      = new ByteArrayOutputStream(data.length / 2 + 64);
+      buffer   = new byte[64 * 1024];
+      try {
+	deflater.setInput(data);
+	deflater.finish();
+	while (!deflater.finished()) {
+	  read = deflater.deflate(buffer);
+	  out.write(buffer, 0, read);
+	}
+      }
+      finally {
+	deflater.end();
+      }
+      result.entry.setMethod(ZipEntry.DEFLATED);
+      result.entry.setCrc(crc.getValue());
+      result.entry.setCompressedSize(out.size());
+      result.data = out.toByteArray();
+    }
+    else {
+      result.entry.setMethod(ZipEntry.DEFLATED);
+      result.file = file;
+    }
+
+    return result;
+  }
+
+  /**
+   * Writes the prepared entry to the archive.
+   *
+   * @param out		the archive to write to
+   * @param prepared	the entry to write
+   * @throws IOException	if writing fails
+   */
+  protected void write(ZipArchiveOutputStream out, Prepared prepared) throws IOException {
+    byte[]	buffer;
+    int		read;
+
+    if (prepared.data != null) {
+      out.addRawArchiveEntry(prepared.entry, new ByteArrayInputStream(prepared.data));
+    }
+    else if (prepared.entry.getMethod() == ZipEntry.STORED) {
+      try (InputStream in = Files.newInputStream(prepared.file.toPath())) {
+	out.addRawArchiveEntry(prepared.entry, in);
+      }
+    }
+    else {
+      out.putArchiveEntry(prepared.entry);
+      buffer = new byte[64 * 1024];
+      try (InputStream in = Files.newInputStream(prepared.file.toPath())) {
+	while ((read = in.read(buffer)) != -1)
+	  out.write(buffer, 0, read);
+      }
+      out.closeArchiveEntry();
+    }
+    m_Entries.incrementAndGet();
+    m_Bytes.addAndGet(prepared.entry.getSize());
+  }
+
+  /**
+   * Exports the environment into the archive.
+   *
+   * @param env		the environment to export
+   * @param archive	the zip file to create
+   * @return		null if successful, otherwise error message
+   */
+  public String exportArchive(Environment env, File archive) {
+    final File				envDir;
+    final File				wekaFiles;
+    final File				jar;
+    final List<String>			names;
+    final List<File>			files;
+    final ExecutorService		executor;
+    final Deque<Future<Prepared>>	pending;
+    Properties				info;
+    ByteArrayOutputStream		bytes;
+    List<Path>				paths;
+    int					next;
+    long				start;
+
+    m_Entries.set(0);
+    m_Bytes.set(0);
+    start     = System.currentTimeMillis();
+    envDir    = new File(Environments.getEnvDir(env.name));
+    wekaFiles = new File(Environments.getWekaFilesDir(env.name));
+    jar       = new File(env.weka);
+    names     = new ArrayList<>();
+    files     = new ArrayList<>();
+
+    if (m_IncludeJar && !jar.exists())
+      return "Weka jar does not exist: " + jar;
+
+    // collect files
+    names.add(Environments.SETUP);
+    files.add(new File(envDir, Environments.SETUP));
+    if (wekaFiles.exists()) {
+      try (Stream<Path> stream = Files.walk(wekaFiles.toPath())) {
+	paths = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+      }
+      catch (Exception e) {
+	return "Failed to list 'wekafiles' of environment '" + env.name + "':\n" + e;
+      }
+      Collections.sort(paths);
+      for (Path path: paths) {
+	names.add(WEKAFILES + wekaFiles.toPath().relativize(path).toString().replace(File.separatorChar, '/'));
+	files.add(path.toFile());
+      }
+    }
+    if (m_IncludeJar) {
+      names.add(JAR + jar.getName());
+      files.add(jar);
+    }
+
+    executor = Executors.newFixedThreadPool(m_NumThreads);
+    pending  = new ArrayDeque<>();
+    try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(archive)) {
+      // information about export
+      info = new Properties();
+      info.setProperty(KEY_ENVDIR, envDir.getAbsolutePath());
+      info.setProperty(KEY_WEKA, env.weka);
+      if (m_IncludeJar)
+	info.setProperty(KEY_JAR, JAR + jar.getName());
+      bytes = new ByteArrayOutputStream();
+      info.store(bytes, null);
+      out.putArchiveEntry(new ZipArchiveEntry(INFO));
+      out.write(bytes.toByteArray());
+      out.closeArchiveEntry();
+
+      // prepare entries ahead in parallel, write them in order
+      next = 0;
+      while ((next < names.size()) || !pending.isEmpty()) {
+	while ((next < names.size()) && (pending.size() < m_NumThreads * 4)) {
+	  final String name = names.get(next);
+	  final File file = files.get(next);
+	  pending.add(executor.submit((Callable<Prepared>) () -> prepare(name, file)));
+	  next++;
+	}
+	write(out, pending.removeFirst().get());
+      }
+      return null;
+    }
+    catch (Exception e) {
+      archive.delete();
+      return "Failed to export environment '" + env.name + "' to: " + archive + "\n"
+	+ ((e.getCause() != null) ? e.getCause() : e);
+    }
+    finally {
+      executor.shutdownNow();
+      m_Duration = System.currentTimeMillis() - start;
+    }
+  }
+
+  /**
+   * Extracts the entry, verifying its checksum.
+   *
+   * @param zip		the archive
+   * @param entry	the entry to extract
+   * @param target	the file to extract to
+   * @throws IOException	if extraction fails or checksum incorrect
+   */
+  protected void extract(ZipFile zip, ZipArchiveEntry entry, File target) throws IOException {
+    CRC32	crc;
+    byte[]	buffer;
+    int		read;
+
+    Files.createDirectories(target.getParentFile().toPath());
+    crc    = new CRC32();
+    buffer = new byte[64 * 1024];
+    try (InputStream in = zip.getInputStream(entry);
+	 OutputStream out = Files.newOutputStream(target.toPath())) {
+      while ((read = in.read(buffer)) != -1) {
+	crc.update(buffer, 0, read);
+	out.write(buffer, 0, read);
+	m_Bytes.addAndGet(read);
+      }
+    }
+    if ((entry.getCrc() != -1) && (entry.getCrc() != crc.getValue()))
+      throw new IOException("Checksum mismatch for entry: " + entry.getName());
+    if (entry.getTime() != -1)
+      Files.setLastModifiedTime(target.toPath(), FileTime.fromMillis(entry.getTime()));
+    m_Entries.incrementAndGet();
+  }
+
+  /**
+   * Returns the file to extract the entry to, making sure that it doesn't
+   * point outside the directory.
+   *
+   * @param dir		the directory to extract to
+   * @param name	the (relative) name
+   * @return		the file
+   * @throws IOException	if name points outside the directory
+   */
+  protected File resolve(File dir, String name) throws IOException {
+    Path	root;
+    Path	result;
+
+    root   = dir.toPath().toAbsolutePath().normalize();
+    result = root.resolve(name).normalize();
+    if (!result.startsWith(root) || result.equals(root))
+      throw new IOException("Invalid entry: " + name);
+
+    return result.toFile();
+  }
+
+  /**
+   * Imports the environment from the archive. The Weka jar gets extracted
+   * into the environment directory if included in the archive.
+   *
+   * @param archive	the zip file to import
+   * @param name	the name for the environment, null to use the original one
+   * @param weka	the Weka jar to use, null to use the included or original one
+   * @return		null if successful, otherwise error message
+   */
+  public String importArchive(File archive, String name, String weka) {
+    Environment			env;
+    Properties			info;
+    Properties			props;
+    Enumeration<ZipArchiveEntry>	enm;
+    ZipArchiveEntry		entry;
+    List<Future<Object>>	jobs;
+    ExecutorService		executor;
+    File			envDir;
+    File			wekaFiles;
+    File			jarFile;
+    String			oldEnvDir;
+    String			msg;
+    boolean			created;
+    long			start;
+
+    m_Entries.set(0);
+    m_Bytes.set(0);
+    start    = System.currentTimeMillis();
+    executor = null;
+    env      = null;
+    created  = false;
+
+    try (ZipFile zip = new ZipFile(archive)) {
+      // setup
+      if ((zip.getEntry(INFO) == null) || (zip.getEntry(Environments.SETUP) == null))
+	return "Not an environment archive: " + archive;
+      info = new Properties();
+      try (InputStream in = zip.getInputStream(zip.getEntry(INFO))) {
+	info.load(in);
+      }
+      env = new Environment();
+      props = new Properties();
+      try (InputStream in = zip.getInputStream(zip.getEntry(Environments.SETUP))) {
+	props.load(in);
+	env.name    = props.getProperty(Environment.KEY_NAME);
+	env.java    = props.getProperty(Environment.KEY_JAVA, "");
+	env.memory  = props.getProperty(Environment.KEY_MEMORY, "");
+	env.weka    = props.getProperty(Environment.KEY_WEKA);
+	env.envvars = props.getProperty(Environment.KEY_ENVVARS, "");
+      }
+      if (name != null)
+	env.name = name;
+      envDir    = new File(Environments.getEnvDir(env.name));
+      wekaFiles = new File(Environments.getWekaFilesDir(env.name));
+      jarFile   = null;
+
+      // rewrite paths
+      oldEnvDir = info.getProperty(KEY_ENVDIR, "");
+      if (!oldEnvDir.isEmpty() && (env.envvars != null))
+	env.envvars = env.envvars.replace(oldEnvDir, envDir.getAbsolutePath());
+      if (weka != null) {
+	env.weka = weka;
+      }
+      else if (info.getProperty(KEY_JAR) != null) {
+	jarFile  = resolve(envDir, info.getProperty(KEY_JAR).substring(JAR.length()));
+	env.weka = jarFile.getAbsolutePath();
+      }
+      if ((jarFile == null) && !new File(env.weka).exists())
+	return "Weka jar does not exist: " + env.weka + "\n"
+	  + "Use an archive that includes the jar or specify the jar to use.";
+      if (!env.java.isEmpty() && !new File(env.java).exists())
+	env.java = "";
+
+      msg = Environments.create(env);
+      if (msg != null)
+	return msg;
+      created = true;
+
+      // extract
+      executor = Executors.newFixedThreadPool(m_NumThreads);
+      jobs     = new ArrayList<>();
+      enm      = zip.getEntries();
+      while (enm.hasMoreElements()) {
+	entry = enm.nextElement();
+	if (entry.isDirectory())
+	  continue;
+	final ZipArchiveEntry fEntry = entry;
+	final File target;
+	if (entry.getName().startsWith(WEKAFILES))
+	  target = resolve(wekaFiles, entry.getName().substring(WEKAFILES.length()));
+	else if (entry.getName().equals(info.getProperty(KEY_JAR)) && (jarFile != null))
+	  target = jarFile;
+	else
+	  continue;
+	jobs.add(executor.submit(() -> {
+	  extract(zip, fEntry, target);
+	  return null;
+	}));
+      }
+      for (Future<Object> job: jobs)
+	job.get();
+
+      if (m_SharePackages) {
+	msg = PackageStore.share(env.name);
+	if (msg != null)
+	  System.err.println(msg);
+      }
+
+      return null;
+    }
+    catch (Exception e) {
+      if (created)
+	Environments.delete(env.name);
+      return "Failed to import environment from: " + archive + "\n"
+	+ ((e.getCause() != null) ? e.getCause() : e);
+    }
+    finally {
+      if (executor != null)
+	executor.shutdownNow();
+      m_Duration = System.currentTimeMillis() - start;
+    }
+  }
+}
@@ -0,0 +1,620 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * EnvironmentRegistry.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.env;
+
+import com.github.fracpete.wekavirtualenv.core.Project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps all environments in memory, indexed by their directory. The
+ * environments get loaded once and then kept current through a
+ * {@link WatchService} on the environments directory and the directories
+ * of the environments. If no watch service is available, the timestamps
+ * of the directory and of the setup files get checked instead.
+ * <br>
+ * In order to avoid reading all the setup files with each start, the
+ * environments (and their Weka versions) get stored in a single index
+ * file in the project's home directory, which gets checked against the
+ * timestamps of the directories and setup files. Since short-lived
+ * processes like the command-line don't benefit from a watch service,
+ * it only gets started once the registry has been in use for
+ * {@link #WATCH_DELAY} msec.
+ * <br>
+ * All environments handed out are copies.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class EnvironmentRegistry {
+
+  /**
+   * Container for a loaded environment.
+   */
+  protected static class Entry {
+
+    /** the environment. */
+    public Environment env;
+
+    /** the timestamp of the setup file. */
+    public long lastModified;
+
+    /** the Weka version, null if not available. */
+    public String version;
+
+    /** the size of the Weka jar the version was determined from. */
+    public long jarSize;
+
+    /** the timestamp of the Weka jar the version was determined from, 0 if none. */
+    public long jarLastModified;
+  }
+
+  /** the file name of the index. */
+  public final static String INDEX = "envs.index";
+
+  /** the version of the file format. */
+  public final static int FORMAT = 1;
+
+  /** the time in msec after loading before starting the watch service. */
+  public final static long WATCH_DELAY = 1000;
+
+  /** the singleton. */
+  protected static EnvironmentRegistry m_Singleton;
+
+  /** the environments directory. */
+  protected File m_Dir;
+
+  /** the loaded environments (directory name - entry). */
+  protected Map<String,Entry> m_Entries;
+
+  /** the sorted environments, null if needs updating. */
+  protected List<Environment> m_Sorted;
+
+  /** whether the environments have been loaded. */
+  protected boolean m_Loaded;
+
+  /** the timestamp of the environments directory when last scanned. */
+  protected long m_LastModified;
+
+  /** the time the environments got loaded. */
+  protected long m_LoadTime;
+
+  /** whether the index needs writing. */
+  protected boolean m_Modified;
+
+  /** whether the watch service is not available. */
+  protected boolean m_WatchDisabled;
+
+  /** the watch service, null if not available. */
+  protected WatchService m_Watcher;
+
+  /** the registered directories (key - directory name, "" for environments directory). */
+  protected Map<WatchKey,String> m_Keys;
+
+  /**
+   * Initializes the registry.
+   */
+  protected EnvironmentRegistry() {
+    m_Dir     = new File(Project.getEnvsDir());
+    m_Entries = new HashMap<>();
+    m_Keys    = new HashMap<>();
+    Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+  }
+
+  /**
+   * Returns the index file.
+   *
+   * @return		the file
+   */
+  public static File getIndexFile() {
+    return new File(Project.getHomeDir() + File.separator + INDEX);
+  }
+
+  /**
+   * Returns the setup file of the environment directory.
+   *
+   * @param dir		the directory name of the environment
+   * @return		the setup file
+   */
+  protected File getSetupFile(String dir) {
+    return new File(m_Dir.getAbsolutePath() + File.separator + dir + File.separator + Environments.SETUP);
+  }
+
+  /**
+   * Starts the watch service, if possible, and scans the environments
+   * directory to register the directories of the environments as well.
+   */
+  protected void startWatching() {
+    if ((m_Watcher != null) || m_WatchDisabled)
+      return;
+    if (!m_Dir.isDirectory())
+      return;
+    try {
+      m_Watcher = FileSystems.getDefault().newWatchService();
+      m_Keys.put(m_Dir.toPath().register(
+	m_Watcher,
+	StandardWatchEventKinds.ENTRY_CREATE,
+	StandardWatchEventKinds.ENTRY_DELETE,
+	StandardWatchEventKinds.ENTRY_MODIFY), "");
+    }
+    catch (Exception e) {
+      m_WatchDisabled = true;
+      stopWatching();
+      return;
+    }
+    scan();
+  }
+
+  /**
+   * Watches the directory of the environment for changes.
+   *
+   * @param dir		the directory name of the environment
+   */
+  protected void watch(String dir) {
+    if (m_Watcher == null)
+      return;
+    try {
+      m_Keys.put(new File(m_Dir, dir).toPath().register(
+	m_Watcher,
+	StandardWatchEventKinds.ENTRY_CREATE,
+	StandardWatchEventKinds.ENTRY_DELETE,
+	StandardWatchEventKinds.ENTRY_MODIFY), dir);
+    }
+    catch (Exception e) {
+      // e.g., limit of watches reached, falling back on timestamps
+      m_WatchDisabled = true;
+      stopWatching();
+    }
+  }
+
+  /**
+   * Stops the watch service, falling back on checking timestamps.
+   */
+  protected void stopWatching() {
+    if (m_Watcher != null) {
+      try {
+	m_Watcher.close();
+      }
+      catch (Exception e) {
+	// ignored
+      }
+    }
+    m_Watcher = null;
+    m_Keys.clear();
+  }
+
+  /**
+   * (Re-)loads the environment from the directory.
+   *
+   * @param dir		the directory name of the environment
+   */
+  protected void load(String dir) {
+    File	file;
+    Entry	entry;
+    Environment	env;
+
+    m_Sorted   = null;
+    m_Modified = true;
+    file       = getSetupFile(dir);
+    env        = file.exists() ? Environment.read(file) : null;
+    if (env == null) {
+      m_Entries.remove(dir);
+      return;
+    }
+    entry              = new Entry();
+    entry.env          = env;
+    entry.lastModified = file.lastModified();
+    m_Entries.put(dir, entry);
+  }
+
+  /**
+   * Reloads the environment if its setup file has changed.
+   *
+   * @param dir		the directory name of the environment
+   * @param entry	the current entry
+   */
+  protected void check(String dir, Entry entry) {
+    if (getSetupFile(dir).lastModified() != entry.lastModified)
+      load(dir);
+  }
+
+  /**
+   * Reloads all environments whose setup files have changed.
+   */
+  protected void checkAll() {
+    for (String dir: new ArrayList<>(m_Entries.keySet()))
+      check(dir, m_Entries.get(dir));
+  }
+
+  /**
+   * Scans the environments directory, loading new environments and
+   * removing deleted ones. Already loaded environments get only reloaded
+   * if their setup file has changed.
+   */
+  protected void scan() {
+    File[]		dirs;
+    List<String>	names;
+
+    m_Sorted       = null;
+    m_LastModified = m_Dir.lastModified();
+    dirs  = m_Dir.listFiles();
+    names = new ArrayList<>();
+    if (dirs != null) {
+      for (File dir: dirs) {
+	if (dir.isDirectory())
+	  names.add(dir.getName());
+      }
+    }
+    if (m_Entries.keySet().retainAll(names))
+      m_Modified = true;
+    for (String name: names) {
+      watch(name);
+      if (m_Entries.containsKey(name))
+	check(name, m_Entries.get(name));
+      else
+	load(name);
+    }
+    m_Loaded = true;
+  }
+
+  /**
+   * Reads the environments from the index.
+   *
+   * @return		true if successfully read
+   */
+  protected boolean readIndex() {
+    File	file;
+    int		count;
+    int		i;
+    String	dir;
+    Entry	entry;
+
+    file = getIndexFile();
+    if (!file.exists())
+      return false;
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != FORMAT)
+	return false;
+      if (!in.readUTF().equals(m_Dir.getAbsolutePath()))
+	return false;
+      m_LastModified = in.readLong();
+      count          = in.readInt();
+      m_Entries.clear();
+      for (i = 0; i < count; i++) {
+	dir                   = in.readUTF();
+	entry                 = new Entry();
+	entry.env             = new Environment();
+	entry.env.name        = in.readUTF();
+	entry.env.java        = in.readUTF();
+	entry.env.memory      = in.readUTF();
+	entry.env.weka        = in.readUTF();
+	entry.env.envvars     = in.readUTF();
+	entry.lastModified    = in.readLong();
+	entry.version         = in.readBoolean() ? in.readUTF() : null;
+	entry.jarSize         = in.readLong();
+	entry.jarLastModified = in.readLong();
+	m_Entries.put(dir, entry);
+      }
+      return true;
+    }
+    catch (Exception e) {
+      m_Entries.clear();
+      return false;
+    }
+  }
+
+  /**
+   * Writes the environments to the index. Writes to a temporary file
+   * first, which then replaces the index.
+   *
+   * @return		null if successful, otherwise error message
+   */
+  protected String writeIndex() {
+    File	file;
+    File	tmp;
+    Entry	entry;
+
+    file = getIndexFile();
+    if (!file.getParentFile().exists())
+      return null;
+
+    try {
+      tmp = File.createTempFile(INDEX + ".", ".tmp", file.getParentFile());
+    }
+    catch (Exception e) {
+      return "Failed to create temporary file for index: " + file + "\n" + e;
+    }
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      out.writeInt(FORMAT);
+      out.writeUTF(m_Dir.getAbsolutePath());
+      out.writeLong(m_LastModified);
+      out.writeInt(m_Entries.size());
+      for (String dir: m_Entries.keySet()) {
+	entry = m_Entries.get(dir);
+	out.writeUTF(dir);
+	out.writeUTF(entry.env.name);
+	out.writeUTF((entry.env.java == null) ? "" : entry.env.java);
+	out.writeUTF((entry.env.memory == null) ? "" : entry.env.memory);
+	out.writeUTF(entry.env.weka);
+	out.writeUTF((entry.env.envvars == null) ? "" : entry.env.envvars);
+	out.writeLong(entry.lastModified);
+	out.writeBoolean(entry.version != null);
+	if (entry.version != null)
+	  out.writeUTF(entry.version);
+	out.writeLong(entry.jarSize);
+	out.writeLong(entry.jarLastModified);
+      }
+    }
+    catch (Exception e) {
+      tmp.delete();
+      return "Failed to write index to: " + tmp + "\n" + e;
+    }
+
+    try {
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      m_Modified = false;
+      return null;
+    }
+    catch (Exception e) {
+      tmp.delete();
+      return "Failed to move index to: " + file + "\n" + e;
+    }
+  }
+
+  /**
+   * Processes the pending events of the watch service.
+   */
+  protected void processEvents() {
+    WatchKey	key;
+    String	dir;
+    String	child;
+
+    while ((key = m_Watcher.poll()) != null) {
+      dir = m_Keys.get(key);
+      for (WatchEvent<?> event: key.pollEvents()) {
+	if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+	  scan();
+	  continue;
+	}
+	if (dir == null)
+	  continue;
+	if (dir.isEmpty()) {
+	  child = ((Path) event.context()).toString();
+	  if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+	    m_Entries.remove(child);
+	    m_Sorted = null;
+	  }
+	  else {
+	    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+	      watch(child);
+	    load(child);
+	  }
+	}
+	else {
+	  load(dir);
+	}
+	// watch service got stopped while loading
+	if (m_Watcher == null)
+	  return;
+      }
+      if (!key.reset()) {
+	m_Keys.remove(key);
+	if ("".equals(dir)) {
+	  // environments directory got removed
+	  stopWatching();
+	  scan();
+	  return;
+	}
+      }
+    }
+  }
+
+  /**
+   * Brings the registry up-to-date.
+   *
+   * @param all		whether to check the timestamps of all environments
+   *                    in case no watch service is available
+   */
+  protected void refresh(boolean all) {
+    if (!m_Loaded) {
+      m_LoadTime = System.currentTimeMillis();
+      if (readIndex() && (m_LastModified == m_Dir.lastModified())) {
+	m_Loaded = true;
+	if (all)
+	  checkAll();
+      }
+      else {
+	scan();
+      }
+      return;
+    }
+
+    if ((m_Watcher == null) && !m_WatchDisabled && (System.currentTimeMillis() - m_LoadTime >= WATCH_DELAY))
+      startWatching();
+
+    if (m_Watcher != null) {
+      processEvents();
+    }
+    else {
+      if (m_Dir.lastModified() != m_LastModified)
+	scan();
+      else if (all)
+	checkAll();
+    }
+  }
+
+  /**
+   * Returns all the environments, sorted by name.
+   *
+   * @return		the environments
+   */
+  public synchronized List<Environment> list() {
+    List<Environment>	result;
+
+    refresh(true);
+    if (m_Sorted == null) {
+      m_Sorted = new ArrayList<>();
+      for (Entry entry: m_Entries.values())
+	m_Sorted.add(entry.env);
+      Collections.sort(m_Sorted);
+    }
+
+    result = new ArrayList<>(m_Sorted.size());
+    for (Environment env: m_Sorted)
+      result.add(env.clone());
+
+    return result;
+  }
+
+  /**
+   * Returns the environment with the given name.
+   *
+   * @param name	the name of the environment
+   * @return		the environment, null if not available
+   */
+  public synchronized Environment get(String name) {
+    String	dir;
+    Entry	entry;
+
+    refresh(false);
+    dir   = Environments.nameToDir(name);
+    entry = m_Entries.get(dir);
+    if ((entry != null) && (m_Watcher == null)) {
+      check(dir, entry);
+      entry = m_Entries.get(dir);
+    }
+    if (entry == null)
+      return null;
+
+    return entry.env.clone();
+  }
+
+  /**
+   * Returns the number of environments.
+   *
+   * @return		the number of environments
+   */
+  public synchronized int size() {
+    refresh(false);
+    return m_Entries.size();
+  }
+
+  /**
+   * Reloads the specified environment, e.g., after it got created,
+   * updated or deleted by the current process.
+   *
+   * @param name	the name of the environment
+   */
+  public synchronized void invalidate(String name) {
+    String	msg;
+
+    refresh(false);
+    load(Environments.nameToDir(name));
+    msg = writeIndex();
+    if (msg != null)
+      System.err.println(msg);
+  }
+
+  /**
+   * Returns the Weka version of the environment. Uses the version stored
+   * with the registered environment as long as its Weka jar hasn't changed,
+   * otherwise determines it from the {@link JarMetadata}.
+   *
+   * @param env		the environment to get the version for
+   * @return		the version, null if not available
+   */
+  public synchronized String getVersion(Environment env) {
+    Entry		entry;
+    File		jar;
+    JarMetadata		metadata;
+
+    jar   = new File(env.weka);
+    entry = m_Entries.get(Environments.nameToDir(env.name));
+    if ((entry != null) && !entry.env.weka.equals(env.weka))
+      entry = null;
+    if ((entry != null) && (entry.jarLastModified != 0)
+      && (entry.jarLastModified == jar.lastModified()) && (entry.jarSize == jar.length()))
+      return entry.version;
+
+    metadata = JarMetadata.get(env, false);
+    if (metadata == null)
+      return null;
+    if (entry != null) {
+      entry.version         = metadata.getVersion();
+      entry.jarSize         = jar.length();
+      entry.jarLastModified = jar.lastModified();
+      m_Modified            = true;
+    }
+
+    return metadata.getVersion();
+  }
+
+  /**
+   * Writes the index if any changes haven't been written yet.
+   */
+  public synchronized void flush() {
+    if (m_Loaded && m_Modified)
+      writeIndex();
+  }
+
+  /**
+   * Forgets all environments, forcing a reload with the next access.
+   */
+  public synchronized void clear() {
+    stopWatching();
+    m_Entries.clear();
+    m_Sorted        = null;
+    m_Loaded        = false;
+    m_Modified      = false;
+    m_WatchDisabled = false;
+  }
+
+  /**
+   * Returns the singleton.
+   *
+   * @return		the registry
+   */
+  public static synchronized EnvironmentRegistry getSingleton() {
+    if (m_Singleton == null)
+      m_Singleton = new EnvironmentRegistry();
+    return m_Singleton;
+  }
+}
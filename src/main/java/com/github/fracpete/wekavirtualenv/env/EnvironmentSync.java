@@ -0,0 +1,359 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * EnvironmentSync.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.env;
+
+import com.github.fracpete.wekavirtualenv.core.Manifest;
+import com.github.fracpete.wekavirtualenv.core.Manifest.FileInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Replicates an environment (setup and 'wekafiles') into a directory, e.g.,
+ * the environment directory on a mounted file system of another host.
+ * Source and target keep a {@link Manifest} with size, timestamp and block
+ * hashes of the files in 'wekafiles'. Only files whose content differs get
+ * updated and of these only the blocks that differ get read from the source;
+ * the unchanged blocks get taken from the old file in the target. Updated
+ * files get assembled in a temporary file that then replaces the old one.
+ * <br>
+ * The setup gets written to the target with references to the environment
+ * directory rewritten to the directory of the environment on the other host
+ * (by default the target directory). The Weka jar (and java binary) must
+ * exist at the same location on the other host, unless a different jar
+ * is specified.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class EnvironmentSync {
+
+  /** the file name of the manifest (source and target). */
+  public final static String MANIFEST = "sync.manifest";
+
+  /** the suffix for files being assembled. */
+  public final static String SUFFIX = ".sync";
+
+  /** the files to replicate block-wise (the setup gets written separately). */
+  public final static Predicate<String> INCLUDE =
+    name -> name.startsWith("wekafiles/") && !name.endsWith(SUFFIX);
+
+  /** the directory of the environment on the other host, null for the target directory. */
+  protected String m_RemoteDir;
+
+  /** the Weka jar to use on the other host, null for the same one. */
+  protected String m_Weka;
+
+  /** the number of files checked. */
+  protected long m_Files;
+
+  /** the number of files updated. */
+  protected long m_UpdatedFiles;
+
+  /** the number of files deleted. */
+  protected long m_DeletedFiles;
+
+  /** the total number of bytes of the source. */
+  protected long m_TotalBytes;
+
+  /** the number of bytes transferred from the source. */
+  protected long m_TransferredBytes;
+
+  /** the time in msec the last sync took. */
+  protected long m_Duration;
+
+  /**
+   * Sets the directory of the environment on the other host, which
+   * references to the environment directory in the setup get rewritten to.
+   *
+   * @param value	the directory, null to use the target directory
+   */
+  public void setRemoteDir(String value) {
+    m_RemoteDir = value;
+  }
+
+  /**
+   * Returns the directory of the environment on the other host.
+   *
+   * @return		the directory, null if using the target directory
+   */
+  public String getRemoteDir() {
+    return m_RemoteDir;
+  }
+
+  /**
+   * Sets the Weka jar to use on the other host.
+   *
+   * @param value	the jar, null to use the same one
+   */
+  public void setWeka(String value) {
+    m_Weka = value;
+  }
+
+  /**
+   * Returns the Weka jar to use on the other host.
+   *
+   * @return		the jar, null if using the same one
+   */
+  public String getWeka() {
+    return m_Weka;
+  }
+
+  /**
+   * Returns the number of files checked by the last sync.
+   *
+   * @return		the number of files
+   */
+  public long getFiles() {
+    return m_Files;
+  }
+
+  /**
+   * Returns the number of files updated by the last sync.
+   *
+   * @return		the number of files
+   */
+  public long getUpdatedFiles() {
+    return m_UpdatedFiles;
+  }
+
+  /**
+   * Returns the number of files deleted by the last sync.
+   *
+   * @return		the number of files
+   */
+  public long getDeletedFiles() {
+    return m_DeletedFiles;
+  }
+
+  /**
+   * Returns the total number of bytes of the source.
+   *
+   * @return		the number of bytes
+   */
+  public long getTotalBytes() {
+    return m_TotalBytes;
+  }
+
+  /**
+   * Returns the number of bytes transferred from the source by the last sync.
+   *
+   * @return		the number of bytes
+   */
+  public long getTransferredBytes() {
+    return m_TransferredBytes;
+  }
+
+  /**
+   * Returns the time the last sync took.
+   *
+   * @return		the time in msec
+   */
+  public long getDuration() {
+    return m_Duration;
+  }
+
+  /**
+   * Copies the block from the channel into the output.
+   *
+   * @param in		the channel to read from
+   * @param out		the channel to write to
+   * @param buffer	the buffer to use
+   * @param pos		the position of the block
+   * @param len		the length of the block
+   * @throws IOException	if reading/writing fails
+   */
+  protected void copyBlock(FileChannel in, FileChannel out, ByteBuffer buffer, long pos, int len) throws IOException {
+    buffer.clear();
+    buffer.limit(len);
+    while (buffer.hasRemaining()) {
+      if (in.read(buffer, pos + buffer.position()) == -1)
+	throw new IOException("Unexpected end of file");
+    }
+    buffer.flip();
+    while (buffer.hasRemaining())
+      out.write(buffer);
+  }
+
+  /**
+   * Updates the target file, reading only the blocks that differ from the
+   * source file.
+   *
+   * @param source	the source file
+   * @param sourceInfo	the information about the source file
+   * @param target	the target file
+   * @param targetInfo	the information about the target file, null if not present
+   * @throws IOException	if updating fails
+   */
+  protected void update(File source, FileInfo sourceInfo, File target, FileInfo targetInfo) throws IOException {
+    File		tmp;
+    ByteBuffer		buffer;
+    long		pos;
+    int			len;
+    int			i;
+    FileChannel		old;
+
+    Files.createDirectories(target.getParentFile().toPath());
+    tmp    = File.createTempFile(target.getName() + ".", SUFFIX, target.getParentFile());
+    buffer = ByteBuffer.allocate(Manifest.BLOCK_SIZE);
+    old    = null;
+    try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+	 FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      if (targetInfo != null)
+	old = FileChannel.open(target.toPath(), StandardOpenOption.READ);
+      for (i = 0; i < sourceInfo.numBlocks(); i++) {
+	pos = (long) i * Manifest.BLOCK_SIZE;
+	len = sourceInfo.blockLength(i);
+	if (sourceInfo.sameBlock(targetInfo, i)) {
+	  copyBlock(old, out, buffer, pos, len);
+	}
+	else {
+	  copyBlock(in, out, buffer, pos, len);
+	  m_TransferredBytes += len;
+	}
+      }
+    }
+    catch (IOException e) {
+      tmp.delete();
+      throw e;
+    }
+    finally {
+      if (old != null)
+	old.close();
+    }
+    Files.setLastModifiedTime(tmp.toPath(), FileTime.fromMillis(sourceInfo.lastModified));
+    Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Writes the setup of the environment to the target directory, rewriting
+   * references to the environment directory and the Weka jar.
+   *
+   * @param env		the environment
+   * @param source	the environment directory
+   * @param target	the directory to replicate to
+   * @throws IOException	if writing fails
+   */
+  protected void writeSetup(Environment env, File source, File target) throws IOException {
+    Environment		remote;
+    File		tmp;
+    String		msg;
+
+    remote = env.clone();
+    if (remote.envvars != null)
+      remote.envvars = remote.envvars.replace(
+	source.getAbsolutePath(), (m_RemoteDir != null) ? m_RemoteDir : target.getAbsolutePath());
+    if (m_Weka != null)
+      remote.weka = m_Weka;
+
+    tmp = File.createTempFile(Environments.SETUP + ".", SUFFIX, target);
+    msg = Environment.write(remote, tmp);
+    if (msg != null) {
+      tmp.delete();
+      throw new IOException(msg);
+    }
+    Files.move(tmp.toPath(), new File(target, Environments.SETUP).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Replicates the environment into the target directory.
+   *
+   * @param env		the environment to replicate
+   * @param target	the directory to replicate to
+   * @return		null if successful, otherwise error message
+   */
+  public String sync(Environment env, File target) {
+    File		source;
+    Manifest		sourceManifest;
+    Manifest		targetManifest;
+    FileInfo		sourceInfo;
+    FileInfo		targetInfo;
+    List<String>	obsolete;
+    String		msg;
+    long		start;
+
+    m_Files            = 0;
+    m_UpdatedFiles     = 0;
+    m_DeletedFiles     = 0;
+    m_TotalBytes       = 0;
+    m_TransferredBytes = 0;
+    start              = System.currentTimeMillis();
+    source             = new File(Environments.getEnvDir(env.name));
+
+    try {
+      if (!target.exists() && !target.mkdirs())
+	return "Failed to create target directory: " + target;
+
+      // bring manifests up-to-date
+      sourceManifest = Manifest.read(new File(source, MANIFEST));
+      sourceManifest.update(source, INCLUDE);
+      msg = sourceManifest.write(new File(source, MANIFEST));
+      if (msg != null)
+	System.err.println(msg);
+      targetManifest = Manifest.read(new File(target, MANIFEST));
+      targetManifest.update(target, INCLUDE);
+
+      // update files
+      for (String name: sourceManifest.getFiles().keySet()) {
+	m_Files++;
+	sourceInfo    = sourceManifest.getFiles().get(name);
+	targetInfo    = targetManifest.getFiles().get(name);
+	m_TotalBytes += sourceInfo.size;
+	if (!sourceInfo.sameContent(targetInfo)) {
+	  update(new File(source, name), sourceInfo, new File(target, name), targetInfo);
+	  m_UpdatedFiles++;
+	}
+	else if (sourceInfo.lastModified != targetInfo.lastModified) {
+	  Files.setLastModifiedTime(new File(target, name).toPath(), FileTime.fromMillis(sourceInfo.lastModified));
+	}
+	targetManifest.getFiles().put(name, sourceInfo);
+      }
+
+      // remove files no longer present
+      obsolete = new ArrayList<>(targetManifest.getFiles().keySet());
+      obsolete.removeAll(sourceManifest.getFiles().keySet());
+      for (String name: obsolete) {
+	Files.deleteIfExists(new File(target, name).toPath());
+	targetManifest.getFiles().remove(name);
+	m_DeletedFiles++;
+      }
+
+      // setup
+      writeSetup(env, source, target);
+
+      return targetManifest.write(new File(target, MANIFEST));
+    }
+    catch (Exception e) {
+      return "Failed to sync environment '" + env.name + "' to: " + target + "\n" + e;
+    }
+    finally {
+      m_Duration = System.currentTimeMillis() - start;
+    }
+  }
+}
@@ -21,11 +21,10 @@
 package com.github.fracpete.wekavirtualenv.env;
 
 import com.github.fracpete.wekavirtualenv.core.Project;
+import com.github.fracpete.wekavirtualenv.core.Trash;
 import nz.ac.waikato.cms.core.FileUtils;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -94,10 +93,7 @@ public class Environments {
    * @return		the environment, null if failed to read
    */
   public static Environment readEnv(String name) {
-    File	env;
-
-    env = new File(Project.getEnvsDir() + File.separator + nameToDir(name));
-    return readEnv(env);
+    return EnvironmentRegistry.getSingleton().get(name);
   }
 
   /**
@@ -108,6 +104,7 @@ public class Environments {
    */
   public static String create(Environment env) {
     File	dir;
+    String	result;
 
     dir = new File(Project.getEnvsDir() + File.separator + nameToDir(env.name));
     if (dir.exists())
@@ -116,7 +113,10 @@ public class Environments {
     if (!dir.mkdirs())
       return "Failed to set up environment dir: " + dir;
 
-    return Environment.write(env, new File(dir.getAbsolutePath() + File.separator + SETUP));
+    result = Environment.write(env, new File(dir.getAbsolutePath() + File.separator + SETUP));
+    EnvironmentRegistry.getSingleton().invalidate(env.name);
+
+    return result;
   }
 
   /**
@@ -127,12 +127,16 @@ public class Environments {
    */
   public static String update(Environment env) {
     File	dir;
+    String	result;
 
     dir = new File(Project.getEnvsDir() + File.separator + nameToDir(env.name));
     if (!dir.exists())
       return "Environment does not exist!\n" + "environment dir: " + dir;
 
-    return Environment.write(env, new File(dir.getAbsolutePath() + File.separator + SETUP));
+    result = Environment.write(env, new File(dir.getAbsolutePath() + File.separator + SETUP));
+    EnvironmentRegistry.getSingleton().invalidate(env.name);
+
+    return result;
   }
 
   /**
@@ -142,16 +146,38 @@ public class Environments {
    * @return		null if successful, otherwise error message
    */
   public static String delete(String name) {
+    return delete(name, false);
+  }
+
+  /**
+   * Deletes the environment.
+   *
+   * @param name	the environment name
+   * @param trash	whether to only move the environment directory into
+   *                    the trash, which still needs emptying
+   * @return		null if successful, otherwise error message
+   * @see		Trash
+   */
+  public static String delete(String name, boolean trash) {
     File	dir;
+    String	result;
 
     dir = new File(Project.getEnvsDir() + File.separator + nameToDir(name));
     if (!dir.exists())
       return "Environment does not exist!\n" + "environment dir: " + dir;
 
-    if (FileUtils.delete(dir))
-      return null;
-    else
-      return "Failed to delete environment directory: " + dir;
+    result = PackageStore.release(name);
+    if (result != null)
+      System.err.println(result);
+
+    result = null;
+    if (trash)
+      result = Trash.move(dir);
+    else if (!FileUtils.delete(dir))
+      result = "Failed to delete environment directory: " + dir;
+    EnvironmentRegistry.getSingleton().invalidate(name);
+
+    return result;
   }
 
   /**
@@ -160,23 +186,7 @@ public class Environments {
    * @return		the available environments
    */
   public static List<Environment> list() {
-    List<Environment>	result;
-    File		envs;
-    Environment		env;
-
-    result = new ArrayList<>();
-    envs   = new File(Project.getEnvsDir());
-    if (envs.exists()) {
-      for (File file : envs.listFiles()) {
-	env = readEnv(file);
-	if (env != null)
-	  result.add(env);
-      }
-    }
-
-    Collections.sort(result);
-
-    return result;
+    return EnvironmentRegistry.getSingleton().list();
   }
 
   /**
@@ -0,0 +1,342 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * JarMetadata.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.env;
+
+import com.github.fracpete.wekavirtualenv.core.ZipIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cached metadata of the Weka jar of an environment: the Weka version and
+ * the names of all entries in the jar. The metadata gets stored in the
+ * environment directory and is only valid as long as path, size and
+ * timestamp of the jar haven't changed.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class JarMetadata {
+
+  /** the file name of the cache. */
+  public final static String CACHE = "jar.cache";
+
+  /** the version of the file format. */
+  public final static int FORMAT = 1;
+
+  /** the resource containing the Weka version. */
+  public final static String VERSION_RESOURCE = "weka/core/version.txt";
+
+  /** the metadata in memory (environment dir - metadata). */
+  protected static Map<String,JarMetadata> m_Cache = new HashMap<>();
+
+  /** the jar. */
+  protected String m_Jar;
+
+  /** the size of the jar. */
+  protected long m_Size;
+
+  /** the timestamp of the jar. */
+  protected long m_LastModified;
+
+  /** the version, null if not available. */
+  protected String m_Version;
+
+  /** the names of the entries. */
+  protected Set<String> m_Entries;
+
+  /**
+   * Initializes the metadata.
+   *
+   * @param jar		the jar
+   * @param size	the size of the jar
+   * @param lastModified	the timestamp of the jar
+   * @param version	the Weka version, null if not available
+   * @param entries	the names of the entries
+   */
+  protected JarMetadata(String jar, long size, long lastModified, String version, Set<String> entries) {
+    m_Jar          = jar;
+    m_Size         = size;
+    m_LastModified = lastModified;
+    m_Version      = version;
+    m_Entries      = entries;
+  }
+
+  /**
+   * Returns the jar.
+   *
+   * @return		the jar
+   */
+  public String getJar() {
+    return m_Jar;
+  }
+
+  /**
+   * Returns the Weka version.
+   *
+   * @return		the version, null if not available
+   */
+  public String getVersion() {
+    return m_Version;
+  }
+
+  /**
+   * Returns the number of entries in the jar.
+   *
+   * @return		the number of entries
+   */
+  public int size() {
+    return m_Entries.size();
+  }
+
+  /**
+   * Checks whether the resource is present in the jar.
+   *
+   * @param resource	the resource to look for
+   * @return		true if present
+   */
+  public boolean hasResource(String resource) {
+    return m_Entries.contains(resource);
+  }
+
+  /**
+   * Checks whether the class is present in the jar.
+   *
+   * @param classname	the class to look for
+   * @return		true if present
+   */
+  public boolean hasClass(String classname) {
+    return hasResource(classname.replace(".", "/") + ".class");
+  }
+
+  /**
+   * Checks whether the metadata is still valid for the jar.
+   *
+   * @param jar		the jar to check against
+   * @return		true if still valid
+   */
+  public boolean isValid(File jar) {
+    return m_Jar.equals(jar.getAbsolutePath())
+      && (m_Size == jar.length())
+      && (m_LastModified == jar.lastModified());
+  }
+
+  /**
+   * Returns the cache file of the environment.
+   *
+   * @param env		the environment
+   * @return		the file
+   */
+  public static File getCacheFile(Environment env) {
+    return new File(Environments.getEnvDir(env.name) + File.separator + CACHE);
+  }
+
+  /**
+   * Writes the metadata to the file. Writes to a uniquely named temporary
+   * file first, which then replaces the file, i.e., processes writing the
+   * same file concurrently don't interfere.
+   *
+   * @param file	the file to write to
+   * @return		null if successful, otherwise error message
+   */
+  public String write(File file) {
+    File	tmp;
+
+    try {
+      tmp = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+    }
+    catch (Exception e) {
+      return "Failed to create temporary file for jar metadata: " + file + "\n" + e;
+    }
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+      out.writeInt(FORMAT);
+      out.writeUTF(m_Jar);
+      out.writeLong(m_Size);
+      out.writeLong(m_LastModified);
+      out.writeBoolean(m_Version != null);
+      if (m_Version != null)
+	out.writeUTF(m_Version);
+      out.writeInt(m_Entries.size());
+      for (String entry: m_Entries)
+	out.writeUTF(entry);
+    }
+    catch (Exception e) {
+      tmp.delete();
+      return "Failed to write jar metadata to: " + tmp + "\n" + e;
+    }
+
+    try {
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      return null;
+    }
+    catch (Exception e) {
+      tmp.delete();
+      return "Failed to move jar metadata to: " + file + "\n" + e;
+    }
+  }
+
+  /**
+   * Reads the metadata from the file.
+   *
+   * @param file	the file to read from
+   * @return		the metadata, null if failed to read
+   */
+  public static JarMetadata read(File file) {
+    String		jar;
+    long		size;
+    long		lastModified;
+    String		version;
+    int			count;
+    Set<String>		entries;
+    int			i;
+
+    if (!file.exists())
+      return null;
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+      if (in.readInt() != FORMAT)
+	return null;
+      jar          = in.readUTF();
+      size         = in.readLong();
+      lastModified = in.readLong();
+      version      = in.readBoolean() ? in.readUTF() : null;
+      count        = in.readInt();
+      entries      = new HashSet<>(count * 4 / 3 + 1);
+      for (i = 0; i < count; i++)
+	entries.add(in.readUTF());
+      return new JarMetadata(jar, size, lastModified, version, entries);
+    }
+    catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Extracts the metadata from the jar, using the {@link ZipIndex} and
+   * falling back on {@link JarFile} for archives it can't handle.
+   *
+   * @param jar		the jar to analyze
+   * @param verbose	whether to output error messages
+   * @return		the metadata, null if failed to read jar
+   */
+  public static JarMetadata extract(File jar, boolean verbose) {
+    long			size;
+    long			lastModified;
+    Set<String>			entries;
+    Enumeration<JarEntry>	enm;
+    byte[]			version;
+
+    size         = jar.length();
+    lastModified = jar.lastModified();
+
+    try (ZipIndex index = new ZipIndex(jar)) {
+      entries = new HashSet<>(index.names());
+      version = index.readBytes(VERSION_RESOURCE);
+      return new JarMetadata(
+	jar.getAbsolutePath(), size, lastModified,
+	(version == null) ? null : new String(version), entries);
+    }
+    catch (Exception e) {
+      // e.g., ZIP64 archive
+    }
+
+    try (JarFile jfile = new JarFile(jar)) {
+      entries = new HashSet<>(jfile.size() * 4 / 3 + 1);
+      enm     = jfile.entries();
+      while (enm.hasMoreElements())
+	entries.add(enm.nextElement().getName());
+      version = null;
+      if (entries.contains(VERSION_RESOURCE))
+	version = Environment.readResource(jfile, VERSION_RESOURCE);
+      return new JarMetadata(
+	jar.getAbsolutePath(), size, lastModified,
+	(version == null) ? null : new String(version), entries);
+    }
+    catch (Exception e) {
+      if (verbose) {
+	System.err.println("Failed to read jar: " + jar);
+	e.printStackTrace();
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Returns the metadata for the jar of the environment. Uses the cached
+   * metadata if still valid, otherwise extracts it from the jar and updates
+   * the cache.
+   *
+   * @param env		the environment to get the metadata for
+   * @param verbose	whether to output error messages
+   * @return		the metadata, null if failed to read jar
+   */
+  public static JarMetadata get(Environment env, boolean verbose) {
+    JarMetadata		result;
+    File		jar;
+    File		dir;
+    File		file;
+    String		msg;
+
+    jar  = new File(env.weka);
+    dir  = new File(Environments.getEnvDir(env.name));
+    file = getCacheFile(env);
+
+    synchronized (m_Cache) {
+      result = m_Cache.get(dir.getAbsolutePath());
+    }
+    if ((result != null) && result.isValid(jar))
+      return result;
+
+    result = read(file);
+    if ((result == null) || !result.isValid(jar)) {
+      result = extract(jar, verbose);
+      if (result == null)
+	return null;
+      if (dir.exists()) {
+	msg = result.write(file);
+	if ((msg != null) && verbose)
+	  System.err.println(msg);
+      }
+    }
+
+    synchronized (m_Cache) {
+      m_Cache.put(dir.getAbsolutePath(), result);
+    }
+
+    return result;
+  }
+}
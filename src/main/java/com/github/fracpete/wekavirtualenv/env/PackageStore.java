@@ -0,0 +1,511 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PackageStore.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.env;
+
+import com.github.fracpete.wekavirtualenv.core.Project;
+import com.github.fracpete.wekavirtualenv.core.TreeCopier;
+import nz.ac.waikato.cms.core.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Shared store for the packages of environments that opted in (e.g., via
+ * the --share-packages option when creating, cloning or importing). Each
+ * package directory gets stored once, identified by the SHA-256 hash of its
+ * content. The jars (see {@link TreeCopier#IMMUTABLE}) in the environments'
+ * package directories are hardlinks to the ones in the store, all other
+ * files (e.g., props files) are copies and can be modified.
+ * <br>
+ * Each environment records the hashes of its packages in its directory
+ * ({@link #RECORD}), the store keeps track of the environments using
+ * a package version ({@link #REFS}). Once no environment references a
+ * package version anymore, it gets removed from the store. The presence of
+ * the record marks the environment as using the store.
+ * <br>
+ * NB: jars in package directories must not get modified in place, as the
+ * changes would affect all environments using that package version.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class PackageStore {
+
+  /** the name of the store directory in the home directory. */
+  public final static String STORE = "store";
+
+  /** the file in the environment directory that records the packages. */
+  public final static String RECORD = "packages.store";
+
+  /** the extension of the files with the referencing environments. */
+  public final static String REFS = ".refs";
+
+  /** the lock file. */
+  public final static String LOCK = ".lock";
+
+  /** the separator in the record file. */
+  public final static String SEPARATOR = "\t";
+
+  /**
+   * Returns the directory of the store.
+   *
+   * @return		the directory
+   */
+  public static File getStoreDir() {
+    return new File(Project.getHomeDir() + File.separator + STORE);
+  }
+
+  /**
+   * Returns the packages directory of the environment.
+   *
+   * @param env		the name of the environment
+   * @return		the directory
+   */
+  public static File getPackagesDir(String env) {
+    return new File(Environments.getWekaFilesDir(env) + File.separator + "packages");
+  }
+
+  /**
+   * Returns the directory of the package version in the store.
+   *
+   * @param hash	the hash of the package
+   * @return		the directory
+   */
+  protected static File getEntryDir(String hash) {
+    return new File(getStoreDir(), hash);
+  }
+
+  /**
+   * Returns the file listing the environments referencing the package version.
+   *
+   * @param hash	the hash of the package
+   * @return		the file
+   */
+  protected static File getRefsFile(String hash) {
+    return new File(getStoreDir(), hash + REFS);
+  }
+
+  /**
+   * Returns the file recording the packages of the environment.
+   *
+   * @param env		the name of the environment
+   * @return		the file
+   */
+  protected static File getRecordFile(String env) {
+    return new File(Environments.getEnvDir(env) + File.separator + RECORD);
+  }
+
+  /**
+   * Returns whether the environment uses the store.
+   *
+   * @param env		the name of the environment
+   * @return		true if using the store
+   */
+  public static boolean isShared(String env) {
+    return getRecordFile(env).exists();
+  }
+
+  /**
+   * Reads the packages recorded for the environment.
+   *
+   * @param env		the name of the environment, null for none
+   * @return		the packages (name - hash and sample file)
+   * @throws IOException	if reading fails
+   */
+  protected static Map<String,String[]> readRecord(String env) throws IOException {
+    Map<String,String[]>	result;
+    File			file;
+    String[]			parts;
+
+    result = new LinkedHashMap<>();
+    if (env == null)
+      return result;
+    file = getRecordFile(env);
+    if (!file.exists())
+      return result;
+    for (String line: Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+      parts = line.split(SEPARATOR);
+      if (parts.length == 3)
+	result.put(parts[0], new String[]{parts[1], parts[2]});
+    }
+
+    return result;
+  }
+
+  /**
+   * Writes the packages recorded for the environment.
+   *
+   * @param env		the name of the environment
+   * @param record	the packages (name - hash and sample file)
+   * @throws IOException	if writing fails
+   */
+  protected static void writeRecord(String env, Map<String,String[]> record) throws IOException {
+    List<String>	lines;
+
+    lines = new ArrayList<>();
+    for (String name: record.keySet())
+      lines.add(name + SEPARATOR + record.get(name)[0] + SEPARATOR + record.get(name)[1]);
+    Files.write(getRecordFile(env).toPath(), lines, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the environments referencing the package version.
+   *
+   * @param hash	the hash of the package
+   * @return		the environments
+   * @throws IOException	if reading fails
+   */
+  protected static Set<String> readRefs(String hash) throws IOException {
+    File	file;
+
+    file = getRefsFile(hash);
+    if (!file.exists())
+      return new LinkedHashSet<>();
+    return new LinkedHashSet<>(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Adds the environment to the ones referencing the package version.
+   *
+   * @param hash	the hash of the package
+   * @param env		the name of the environment
+   * @throws IOException	if updating fails
+   */
+  protected static void addRef(String hash, String env) throws IOException {
+    Set<String>		refs;
+
+    refs = readRefs(hash);
+    if (refs.add(env))
+      Files.write(getRefsFile(hash).toPath(), refs, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Removes the environment from the ones referencing the package version.
+   * Removes the package version from the store if no longer referenced.
+   *
+   * @param hash	the hash of the package
+   * @param env		the name of the environment
+   * @throws IOException	if updating fails
+   */
+  protected static void removeRef(String hash, String env) throws IOException {
+    Set<String>		refs;
+
+    refs = readRefs(hash);
+    if (!refs.remove(env) && !refs.isEmpty())
+      return;
+    if (refs.isEmpty()) {
+      if (!FileUtils.delete(getEntryDir(hash)))
+	throw new IOException("Failed to remove from store: " + getEntryDir(hash));
+      Files.deleteIfExists(getRefsFile(hash).toPath());
+    }
+    else {
+      Files.write(getRefsFile(hash).toPath(), refs, StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Adds the number to the digest (8 bytes, big-endian).
+   *
+   * @param digest	the digest to update
+   * @param value	the number to add
+   */
+  protected static void update(MessageDigest digest, long value) {
+    digest.update(ByteBuffer.allocate(Long.BYTES).putLong(value).array());
+  }
+
+  /**
+   * Computes the hash of the package directory (relative paths, sizes and
+   * content of all files). Paths and sizes get added with fixed length or
+   * length prefix, i.e., each file's entry is unambiguous.
+   *
+   * @param dir		the package directory
+   * @param sample	for storing the largest jar (relative path)
+   * @return		the hash (hex string)
+   * @throws Exception	if hashing fails
+   */
+  protected static String hash(File dir, StringBuilder sample) throws Exception {
+    MessageDigest	digest;
+    final Path		root;
+    List<Path>		files;
+    byte[]		buffer;
+    int			read;
+    long		size;
+    long		largest;
+    String		name;
+    byte[]		nameBytes;
+    StringBuilder	result;
+
+    digest = MessageDigest.getInstance("SHA-256");
+    root   = dir.toPath();
+    try (Stream<Path> stream = Files.walk(root)) {
+      files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+    }
+    Collections.sort(files);
+    buffer  = new byte[64 * 1024];
+    largest = -1;
+    for (Path file: files) {
+      name = root.relativize(file).toString().replace(File.separatorChar, '/');
+      size = Files.size(file);
+      nameBytes = name.getBytes(StandardCharsets.UTF_8);
+      update(digest, nameBytes.length);
+      digest.update(nameBytes);
+      update(digest, size);
+      try (InputStream in = Files.newInputStream(file)) {
+	while ((read = in.read(buffer)) != -1)
+	  digest.update(buffer, 0, read);
+      }
+      if ((size > largest) && TreeCopier.isImmutable(name)) {
+	largest = size;
+	sample.setLength(0);
+	sample.append(name);
+      }
+    }
+
+    result = new StringBuilder();
+    for (byte b: digest.digest())
+      result.append(String.format("%02x", b));
+
+    return result.toString();
+  }
+
+  /**
+   * Checks whether the package directory is still linked to the package
+   * version in the store, using the recorded sample jar.
+   *
+   * @param dir		the package directory
+   * @param recorded	the recorded hash and sample file
+   * @return		true if linked
+   */
+  protected static boolean isLinked(File dir, String[] recorded) {
+    File	file;
+    File	stored;
+
+    if ((recorded == null) || recorded[1].isEmpty())
+      return false;
+    file   = new File(dir, recorded[1]);
+    stored = new File(getEntryDir(recorded[0]), recorded[1]);
+    try {
+      return file.exists() && stored.exists() && Files.isSameFile(file.toPath(), stored.toPath());
+    }
+    catch (Exception e) {
+      return false;
+    }
+  }
+
+  /**
+   * Copies the directory, hardlinking the jars and copying all other files,
+   * first into a temporary directory that then gets renamed.
+   *
+   * @param from	the directory to copy
+   * @param to		the directory to create/replace
+   * @throws IOException	if copying fails
+   */
+  protected static void link(File from, File to) throws IOException {
+    TreeCopier	copier;
+    File	tmp;
+    File	old;
+    String	msg;
+
+    tmp    = new File(to.getAbsolutePath() + ".tmp");
+    old    = new File(to.getAbsolutePath() + ".old");
+    copier = new TreeCopier();
+    FileUtils.delete(tmp);
+    msg = copier.copy(from, tmp);
+    if (msg != null) {
+      FileUtils.delete(tmp);
+      throw new IOException(msg);
+    }
+    if (to.exists() && !to.renameTo(old))
+      throw new IOException("Failed to rename " + to + " to " + old);
+    if (!tmp.renameTo(to))
+      throw new IOException("Failed to rename " + tmp + " to " + to);
+    FileUtils.delete(old);
+  }
+
+  /**
+   * Opens the lock file of the store. Acquire the lock via
+   * {@link FileChannel#lock()}, closing the channel releases it.
+   *
+   * @return		the channel of the lock file
+   * @throws IOException	if opening fails
+   */
+  protected static FileChannel openLock() throws IOException {
+    if (!getStoreDir().exists() && !getStoreDir().mkdirs())
+      throw new IOException("Failed to create store: " + getStoreDir());
+    return FileChannel.open(
+      new File(getStoreDir(), LOCK).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Moves the packages of the environment into the store, replacing their
+   * jars with hardlinks, or links them to identical package versions already
+   * in the store. Marks the environment as using the store.
+   *
+   * @param env		the name of the environment
+   * @return		null if successful, otherwise error message
+   */
+  public static String share(String env) {
+    return share(env, null);
+  }
+
+  /**
+   * Moves the packages of the environment into the store, replacing their
+   * jars with hardlinks, or links them to identical package versions already
+   * in the store. Marks the environment as using the store. The packages recorded for the template environment
+   * (e.g., the one the environment got cloned from) get checked first,
+   * avoiding the hashing of packages that are still linked.
+   *
+   * @param env		the name of the environment
+   * @param template	the name of the template environment, null if none
+   * @return		null if successful, otherwise error message
+   */
+  public static String share(String env, String template) {
+    File			packages;
+    File[]			dirs;
+    Map<String,String[]>	current;
+    Map<String,String[]>	previous;
+    Map<String,String[]>	templates;
+    String[]			recorded;
+    String			hash;
+    StringBuilder		sample;
+    File			entry;
+
+    packages = getPackagesDir(env);
+    try (FileChannel channel = openLock()) {
+      channel.lock();
+      previous  = readRecord(env);
+      templates = readRecord(template);
+      current   = new LinkedHashMap<>();
+      dirs      = packages.listFiles(File::isDirectory);
+      if (dirs != null) {
+	for (File dir: dirs) {
+	  if (dir.getName().endsWith(".tmp") || dir.getName().endsWith(".old"))
+	    continue;
+	  recorded = previous.get(dir.getName());
+	  if (!isLinked(dir, recorded))
+	    recorded = templates.get(dir.getName());
+	  if (!isLinked(dir, recorded)) {
+	    sample = new StringBuilder();
+	    hash   = hash(dir, sample);
+	    entry  = getEntryDir(hash);
+	    if (entry.exists())
+	      link(entry, dir);
+	    else
+	      link(dir, entry);
+	    recorded = new String[]{hash, sample.toString()};
+	  }
+	  current.put(dir.getName(), recorded);
+	  addRef(recorded[0], env);
+	}
+      }
+      for (String name: previous.keySet()) {
+	if (!current.containsKey(name) || !current.get(name)[0].equals(previous.get(name)[0]))
+	  removeRef(previous.get(name)[0], env);
+      }
+      writeRecord(env, current);
+      return null;
+    }
+    catch (Exception e) {
+      return "Failed to share packages of environment '" + env + "' via store " + getStoreDir() + ":\n" + e;
+    }
+  }
+
+  /**
+   * Removes the references of environments that no longer exist (e.g.,
+   * after a crash) and the package versions no longer referenced.
+   *
+   * @return		null if successful, otherwise error message
+   */
+  public static String gc() {
+    File[]	files;
+    String	hash;
+    Set<String>	refs;
+
+    if (!getStoreDir().exists())
+      return null;
+
+    try (FileChannel channel = openLock()) {
+      channel.lock();
+      files = getStoreDir().listFiles();
+      if (files == null)
+	return null;
+      for (File file: files) {
+	if (file.getName().endsWith(REFS)) {
+	  hash = file.getName().substring(0, file.getName().length() - REFS.length());
+	  refs = readRefs(hash);
+	  for (String env: refs.toArray(new String[0])) {
+	    if (!new File(Environments.getEnvDir(env)).exists())
+	      removeRef(hash, env);
+	  }
+	}
+	else if (file.isDirectory() && !getRefsFile(file.getName()).exists()) {
+	  // never referenced, e.g., crashed while sharing
+	  if (!FileUtils.delete(file))
+	    throw new IOException("Failed to remove from store: " + file);
+	}
+      }
+      return null;
+    }
+    catch (Exception e) {
+      return "Failed to clean up store " + getStoreDir() + ":\n" + e;
+    }
+  }
+
+  /**
+   * Releases all packages of the environment, e.g., before it gets deleted
+   * or reset. Package versions no longer referenced get removed from the
+   * store.
+   *
+   * @param env		the name of the environment
+   * @return		null if successful, otherwise error message
+   */
+  public static String release(String env) {
+    if (!getRecordFile(env).exists())
+      return null;
+
+    try (FileChannel channel = openLock()) {
+      channel.lock();
+      for (String[] recorded: readRecord(env).values())
+	removeRef(recorded[0], env);
+      Files.deleteIfExists(getRecordFile(env).toPath());
+      return null;
+    }
+    catch (Exception e) {
+      return "Failed to release packages of environment '" + env + "' from store " + getStoreDir() + ":\n" + e;
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * SharedArchive.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.env;
+
+import nz.ac.waikato.cms.core.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Helper class for the class-data-sharing (AppCDS) archive of an environment,
+ * which is stored in the environment directory.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class SharedArchive {
+
+  /** the file name of the archive. */
+  public final static String ARCHIVE = "classes.jsa";
+
+  /** the file name of the class list used for generating the archive. */
+  public final static String CLASSLIST = "classes.lst";
+
+  /** the file name of the archive setup. */
+  public final static String SETUP = "cds.props";
+
+  /** the weka jar the archive was generated for. */
+  public final static String KEY_WEKA = "weka";
+
+  /** the size of the weka jar. */
+  public final static String KEY_SIZE = "size";
+
+  /** the timestamp of the weka jar. */
+  public final static String KEY_LASTMODIFIED = "lastmodified";
+
+  /** the java binary the archive was generated with. */
+  public final static String KEY_JAVA = "java";
+
+  /**
+   * Returns the archive file of the environment.
+   *
+   * @param env		the environment
+   * @return		the file
+   */
+  public static File getArchiveFile(Environment env) {
+    return new File(Environments.getEnvDir(env.name) + File.separator + ARCHIVE);
+  }
+
+  /**
+   * Returns the class list file of the environment.
+   *
+   * @param env		the environment
+   * @return		the file
+   */
+  public static File getClassListFile(Environment env) {
+    return new File(Environments.getEnvDir(env.name) + File.separator + CLASSLIST);
+  }
+
+  /**
+   * Returns the setup file of the archive.
+   *
+   * @param env		the environment
+   * @return		the file
+   */
+  public static File getSetupFile(Environment env) {
+    return new File(Environments.getEnvDir(env.name) + File.separator + SETUP);
+  }
+
+  /**
+   * Generates the properties describing the current state of the environment.
+   *
+   * @param env		the environment
+   * @param java	the java binary in use
+   * @return		the properties
+   */
+  protected static Properties getCurrentSetup(Environment env, String java) {
+    Properties	result;
+    File	jar;
+
+    jar    = new File(env.weka);
+    result = new Properties();
+    result.setProperty(KEY_WEKA, jar.getAbsolutePath());
+    result.setProperty(KEY_SIZE, "" + jar.length());
+    result.setProperty(KEY_LASTMODIFIED, "" + jar.lastModified());
+    result.setProperty(KEY_JAVA, java);
+
+    return result;
+  }
+
+  /**
+   * Returns whether the archive exists and still matches the weka jar
+   * (path, size, timestamp) and java binary.
+   *
+   * @param env		the environment
+   * @param java	the java binary in use
+   * @return		true if the archive can be used
+   */
+  public static boolean isValid(Environment env, String java) {
+    Properties	props;
+    FileReader	freader;
+    File	setup;
+
+    if (!getArchiveFile(env).exists())
+      return false;
+    setup = getSetupFile(env);
+    if (!setup.exists())
+      return false;
+
+    props   = new Properties();
+    freader = null;
+    try {
+      freader = new FileReader(setup);
+      props.load(freader);
+    }
+    catch (Exception e) {
+      return false;
+    }
+    finally {
+      FileUtils.closeQuietly(freader);
+    }
+
+    return props.equals(getCurrentSetup(env, java));
+  }
+
+  /**
+   * Records the state of the weka jar and java binary the archive was
+   * generated for.
+   *
+   * @param env		the environment
+   * @param java	the java binary in use
+   * @return		null if successful, otherwise error message
+   */
+  public static String writeSetup(Environment env, String java) {
+    String		result;
+    FileWriter		fwriter;
+    BufferedWriter	bwriter;
+
+    result  = null;
+    fwriter = null;
+    bwriter = null;
+    try {
+      fwriter = new FileWriter(getSetupFile(env));
+      bwriter = new BufferedWriter(fwriter);
+      getCurrentSetup(env, java).store(bwriter, null);
+    }
+    catch (Exception e) {
+      result = "Failed to save archive setup to: " + getSetupFile(env) + "\n" + e;
+    }
+    finally {
+      FileUtils.closeQuietly(bwriter);
+      FileUtils.closeQuietly(fwriter);
+    }
+
+    return result;
+  }
+
+  /**
+   * Removes the archive and its associated files.
+   *
+   * @param env		the environment
+   * @return		true if successfully removed (or not present)
+   */
+  public static boolean delete(Environment env) {
+    boolean	result;
+
+    result = true;
+    for (File file: new File[]{getArchiveFile(env), getClassListFile(env), getSetupFile(env)}) {
+      if (file.exists()) {
+        // archives get generated read-only
+        file.setWritable(true);
+	result = file.delete() && result;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the JVM options for using the archive.
+   *
+   * @param env		the environment
+   * @return		the options
+   */
+  public static List<String> getJvmOptions(Environment env) {
+    List<String>	result;
+
+    result = new ArrayList<>();
+    result.add("-Xshare:auto");
+    result.add("-XX:SharedArchiveFile=" + getArchiveFile(env).getAbsolutePath());
+
+    return result;
+  }
+}
@@ -22,19 +22,18 @@ package com.github.fracpete.wekavirtualenv.gui.command;
 
 import com.github.fracpete.wekavirtualenv.command.AbstractLaunchCommand;
 import com.github.fracpete.wekavirtualenv.command.OutputListener;
+import com.github.fracpete.wekavirtualenv.core.ClassIndex;
 import com.github.fracpete.wekavirtualenv.env.Environment;
 import com.github.fracpete.wekavirtualenv.gui.core.IconHelper;
 import com.github.fracpete.wekavirtualenv.gui.env.ActionOutputPanel;
 import com.github.fracpete.wekavirtualenv.gui.env.EnvironmentsPanel;
 import nz.ac.waikato.cms.gui.core.GUIHelper;
-import nz.ac.waikato.cms.locator.ClassLocator;
 
 import javax.swing.AbstractAction;
 import javax.swing.ImageIcon;
 import javax.swing.JTabbedPane;
 import javax.swing.SwingWorker;
 import java.awt.event.ActionEvent;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -53,6 +52,10 @@ public abstract class AbstractGUICommand
   /** the key for the owner. */
   public final static String KEY_OWNER = "Owner";
 
+  /** the index of the commands (classname - class). */
+  protected static ClassIndex<AbstractGUICommand> m_Index = new ClassIndex<>(
+    AbstractGUICommand.class, AbstractGUICommand.class.getPackage().getName(), "guicommands", (AbstractGUICommand cmd) -> cmd.getClass().getName());
+
   /** the output listeners. */
   protected Set<OutputListener> m_OutputListeners;
 
@@ -342,26 +345,19 @@ public abstract class AbstractGUICommand
    */
   public static List<AbstractGUICommand> getCommands() {
     List<AbstractGUICommand>	result;
-    List<Class>			classes;
-    AbstractGUICommand command;
-
-    result = new ArrayList<>();
-    classes = ClassLocator.getSingleton().findClasses(
-      AbstractGUICommand.class,
-      new String[]{AbstractGUICommand.class.getPackage().getName()});
-
-    for (Class cls: classes) {
-      try {
-	command = (AbstractGUICommand) cls.newInstance();
-	result.add(command);
-      }
-      catch (Exception e) {
-	// ignored
-      }
-    }
 
+    result = m_Index.newInstances();
     Collections.sort(result);
 
     return result;
   }
+
+  /**
+   * Returns the index of the commands.
+   *
+   * @return		the index
+   */
+  public static ClassIndex<AbstractGUICommand> getIndex() {
+    return m_Index;
+  }
 }
@@ -0,0 +1,70 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * BootstrapMain.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.launch;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+
+/**
+ * Main class of a pre-spawned JVM. Blocks till a single {@link JobRequest}
+ * is received on stdin, executes it and then behaves like a JVM that was
+ * launched with that class directly.
+ * <br>
+ * NB: only uses JDK classes, as the JVM only has the Weka jar and the wenv
+ * classes on its classpath.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class BootstrapMain {
+
+  /**
+   * Waits for the job and executes it.
+   *
+   * @param args	ignored
+   * @throws Exception	if reading from stdin fails
+   */
+  public static void main(String[] args) throws Exception {
+    BufferedReader	reader;
+    String		line;
+    JobRequest		job;
+
+    reader = new BufferedReader(new InputStreamReader(System.in, JobRequest.ENCODING));
+    line   = reader.readLine();
+    // parent went away without using this JVM
+    if (line == null)
+      System.exit(0);
+
+    job = JobRequest.parse(line);
+    if (job == null) {
+      System.err.println("Invalid job request: " + line);
+      System.exit(1);
+    }
+
+    try {
+      job.execute();
+    }
+    catch (Throwable t) {
+      System.err.println("Failed to execute: " + job.classname);
+      t.printStackTrace();
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ClassLoadingProbe.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.launch;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+
+/**
+ * Loads (without initializing) all the classes listed in a class list file
+ * as generated by -XX:DumpLoadedClassList. Used for measuring the class
+ * loading part of the startup time of CLI and GUI classes, without
+ * actually executing them.
+ * <br>
+ * NB: only uses JDK classes, as the JVM only has the Weka jar and the wenv
+ * classes on its classpath.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class ClassLoadingProbe {
+
+  /**
+   * Loads the classes.
+   *
+   * @param args	the class list file
+   * @throws Exception	if reading of the class list fails
+   */
+  public static void main(String[] args) throws Exception {
+    BufferedReader	reader;
+    String		line;
+    String		name;
+    int			loaded;
+    int			failed;
+
+    reader = new BufferedReader(new FileReader(args[0]));
+    loaded = 0;
+    failed = 0;
+    try {
+      while ((line = reader.readLine()) != null) {
+	if (line.isEmpty() || line.startsWith("#") || line.startsWith("@"))
+	  continue;
+	name = line.split(" ")[0].replace('/', '.');
+	try {
+	  Class.forName(name, false, ClassLoadingProbe.class.getClassLoader());
+	  loaded++;
+	}
+	catch (Throwable t) {
+	  failed++;
+	}
+      }
+    }
+    finally {
+      reader.close();
+    }
+
+    System.out.println("Loaded: " + loaded + ", failed: " + failed);
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * InProcessEngine.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.launch;
+
+import com.github.fracpete.processoutput4j.core.StreamingProcessOwner;
+import com.github.fracpete.wekavirtualenv.env.Environment;
+import com.github.fracpete.wekavirtualenv.env.Environments;
+import com.github.fracpete.wekavirtualenv.launch.WorkerMain.ExitTrap;
+import com.github.fracpete.wekavirtualenv.launch.WorkerMain.ExitTrappedException;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Executes classes within the current JVM, using a separate classloader
+ * per environment that only sees the Weka jar of the environment (and
+ * the JDK). The classloaders get cached, with the least recently used
+ * ones getting closed once the maximum is exceeded.
+ * <br>
+ * WEKA_HOME gets set to the 'wekafiles' directory of the environment in
+ * Weka's system-wide environment ({@code weka.core.Environment}) of the
+ * classloader, i.e., packages get loaded from the environment, like when
+ * launching a JVM, and not from the global installation.
+ * <br>
+ * Output on System.out/err gets routed to the owner via {@link OutputRouter}
+ * and System.exit calls get trapped and turned into exit codes.
+ * <br>
+ * NB: all other environment variables of the environment cannot be applied.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class InProcessEngine {
+
+  /** the default maximum number of cached classloaders. */
+  public final static int DEFAULT_MAX_LOADERS = 5;
+
+  /**
+   * Exit trap that only traps System.exit calls from threads whose output
+   * gets routed, i.e., threads executing a class in-process.
+   */
+  public static class RoutedExitTrap
+    extends ExitTrap {
+
+    /**
+     * Throws an {@link ExitTrappedException} if the current thread is
+     * executing a class in-process.
+     *
+     * @param status	the exit status
+     */
+    @Override
+    public void checkExit(int status) {
+      if (OutputRouter.isRouted())
+	throw new ExitTrappedException(status);
+    }
+  }
+
+  /** the singleton. */
+  protected static InProcessEngine m_Singleton;
+
+  /** the name of the variable for the Weka home directory. */
+  public final static String WEKA_HOME = "WEKA_HOME";
+
+  /** the cached classloaders (key: wekafiles dir, jar, size, timestamp). */
+  protected Map<String,URLClassLoader> m_Loaders;
+
+  /** the maximum number of cached classloaders. */
+  protected int m_MaxLoaders;
+
+  /** whether the exit trap is installed. */
+  protected boolean m_TrapInstalled;
+
+  /**
+   * Initializes the engine.
+   */
+  protected InProcessEngine() {
+    m_MaxLoaders = DEFAULT_MAX_LOADERS;
+    m_Loaders    = new LinkedHashMap<String,URLClassLoader>(16, 0.75f, true) {
+      private static final long serialVersionUID = 2904470434564937405L;
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String,URLClassLoader> eldest) {
+	if (size() <= m_MaxLoaders)
+	  return false;
+	try {
+	  eldest.getValue().close();
+	}
+	catch (Exception e) {
+	  // ignored
+	}
+	return true;
+      }
+    };
+  }
+
+  /**
+   * Sets the maximum number of classloaders to cache.
+   *
+   * @param value	the maximum (at least 1)
+   */
+  public synchronized void setMaxLoaders(int value) {
+    if (value >= 1)
+      m_MaxLoaders = value;
+  }
+
+  /**
+   * Returns the maximum number of classloaders to cache.
+   *
+   * @return		the maximum
+   */
+  public synchronized int getMaxLoaders() {
+    return m_MaxLoaders;
+  }
+
+  /**
+   * Sets WEKA_HOME in Weka's system-wide environment of the classloader,
+   * which Weka uses for locating the packages.
+   *
+   * @param loader	the classloader to configure
+   * @param dir		the Weka home directory
+   * @throws Exception	if setting the directory fails
+   */
+  protected void setWekaHome(ClassLoader loader, String dir) throws Exception {
+    Class<?>	cls;
+    Object	systemWide;
+
+    try {
+      cls = Class.forName("weka.core.Environment", true, loader);
+    }
+    catch (ClassNotFoundException e) {
+      // Weka version without package support
+      return;
+    }
+    systemWide = cls.getMethod("getSystemWide").invoke(null);
+    cls.getMethod("addVariable", String.class, String.class).invoke(systemWide, WEKA_HOME, dir);
+  }
+
+  /**
+   * Returns the (cached) classloader for the environment. A changed Weka
+   * jar results in a new classloader. Environments don't share classloaders,
+   * as each uses its own WEKA_HOME.
+   *
+   * @param env		the environment
+   * @return		the classloader
+   * @throws Exception	if the jar cannot be turned into a URL or WEKA_HOME cannot be set
+   */
+  public synchronized ClassLoader getClassLoader(Environment env) throws Exception {
+    URLClassLoader	result;
+    File		jar;
+    String		home;
+    String		key;
+
+    jar    = new File(env.weka).getAbsoluteFile();
+    home   = Environments.getWekaFilesDir(env.name);
+    key    = home + "\t" + jar.getPath() + "\t" + jar.length() + "\t" + jar.lastModified();
+    result = m_Loaders.get(key);
+    if (result == null) {
+      // parent is the platform/extension classloader, hiding the wenv classes and libraries
+      result = new URLClassLoader(new URL[]{jar.toURI().toURL()}, ClassLoader.getSystemClassLoader().getParent());
+      try {
+	setWekaHome(result, home);
+      }
+      catch (Exception e) {
+	result.close();
+	throw new IllegalStateException("Failed to set " + WEKA_HOME + " for in-process execution: " + home, e);
+      }
+      m_Loaders.put(key, result);
+    }
+
+    return result;
+  }
+
+  /**
+   * Installs output routing and the exit trap, if not already done.
+   *
+   * @return		null if successful, otherwise error message
+   */
+  protected synchronized String setUp() {
+    if (!m_TrapInstalled) {
+      try {
+	System.setSecurityManager(new RoutedExitTrap());
+	m_TrapInstalled = true;
+      }
+      catch (Throwable t) {
+	return "Failed to install exit trap, cannot execute classes in-process "
+	  + "(Java " + System.getProperty("java.version") + " may no longer support security managers): " + t;
+      }
+    }
+    OutputRouter.install();
+    return null;
+  }
+
+  /**
+   * Executes the main method of the class in the current thread.
+   *
+   * @param env		the environment to use
+   * @param owner	the owner to forward the output to
+   * @param cls		the class to execute
+   * @param options	the options for the class (null to ignore)
+   * @return		the exit code
+   * @throws Exception	if the class cannot be loaded/executed
+   */
+  public int execute(Environment env, StreamingProcessOwner owner, String cls, String[] options) throws Exception {
+    int		result;
+    String	msg;
+    ClassLoader	loader;
+    ClassLoader	current;
+    Thread	thread;
+    Method	method;
+    Throwable	cause;
+
+    msg = setUp();
+    if (msg != null)
+      throw new IllegalStateException(msg);
+    if (options == null)
+      options = new String[0];
+
+    loader  = getClassLoader(env);
+    method  = Class.forName(cls, true, loader).getMethod("main", String[].class);
+    thread  = Thread.currentThread();
+    current = thread.getContextClassLoader();
+    result  = 0;
+    thread.setContextClassLoader(loader);
+    OutputRouter.setOwner(owner);
+    try {
+      method.invoke(null, (Object) options);
+    }
+    catch (InvocationTargetException e) {
+      cause = e.getCause();
+      if (cause instanceof ExitTrappedException) {
+	result = ((ExitTrappedException) cause).getStatus();
+      }
+      else {
+	// mimic the JVM
+	System.err.print("Exception in thread \"" + thread.getName() + "\" ");
+	cause.printStackTrace();
+	result = 1;
+      }
+    }
+    finally {
+      OutputRouter.setOwner(null);
+      thread.setContextClassLoader(current);
+    }
+
+    return result;
+  }
+
+  /**
+   * Closes all cached classloaders.
+   */
+  public synchronized void clear() {
+    for (URLClassLoader loader: m_Loaders.values()) {
+      try {
+	loader.close();
+      }
+      catch (Exception e) {
+	// ignored
+      }
+    }
+    m_Loaders.clear();
+  }
+
+  /**
+   * Returns the singleton.
+   *
+   * @return		the singleton
+   */
+  public static synchronized InProcessEngine getSingleton() {
+    if (m_Singleton == null)
+      m_Singleton = new InProcessEngine();
+    return m_Singleton;
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * JobRequest.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.launch;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Container for a class and its options that gets sent to a JVM launched
+ * by wenv (as a single line on stdin).
+ * <br>
+ * NB: only uses JDK classes, as the launched JVMs only have the Weka jar
+ * and the wenv classes on their classpath.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class JobRequest
+  implements Serializable {
+
+  private static final long serialVersionUID = 4180927343766453219L;
+
+  /** the keyword for running a class. */
+  public final static String RUN = "RUN";
+
+  /** the keyword for shutting down. */
+  public final static String QUIT = "QUIT";
+
+  /** the encoding to use. */
+  public final static String ENCODING = "UTF-8";
+
+  /** the class to execute. */
+  public String classname;
+
+  /** the options for the class. */
+  public String[] options;
+
+  /**
+   * Initializes the request.
+   *
+   * @param classname	the class to execute
+   * @param options	the options for the class, can be null
+   */
+  public JobRequest(String classname, String[] options) {
+    this.classname = classname;
+    this.options   = (options == null) ? new String[0] : options;
+  }
+
+  /**
+   * Turns the request into a single line.
+   *
+   * @return		the generated line
+   * @throws Exception	if encoding fails
+   */
+  public String toLine() throws Exception {
+    StringBuilder	result;
+
+    result = new StringBuilder(RUN);
+    result.append(" ").append(URLEncoder.encode(classname, ENCODING));
+    for (String option: options)
+      result.append(" ").append(URLEncoder.encode(option, ENCODING));
+
+    return result.toString();
+  }
+
+  /**
+   * Executes the main method of the class in the current JVM.
+   *
+   * @throws Throwable	any exception thrown by the main method
+   */
+  public void execute() throws Throwable {
+    Class<?>	cls;
+    Method	method;
+
+    cls    = Class.forName(classname);
+    method = cls.getMethod("main", String[].class);
+    try {
+      method.invoke(null, new Object[]{options});
+    }
+    catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Parses the line generated by {@link #toLine()}.
+   *
+   * @param line	the line to parse
+   * @return		the request, null if not a request to run a class
+   * @throws Exception	if decoding fails
+   */
+  public static JobRequest parse(String line) throws Exception {
+    String[]		parts;
+    List<String>	options;
+    int			i;
+
+    parts = line.split(" ", -1);
+    if ((parts.length < 2) || !parts[0].equals(RUN))
+      return null;
+
+    options = new ArrayList<>();
+    for (i = 2; i < parts.length; i++)
+      options.add(URLDecoder.decode(parts[i], ENCODING));
+
+    return new JobRequest(
+      URLDecoder.decode(parts[1], ENCODING),
+      options.toArray(new String[options.size()]));
+  }
+}
@@ -0,0 +1,416 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * OutputPump.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.launch;
+
+import com.github.fracpete.processoutput4j.core.StreamingProcessOutputType;
+import com.github.fracpete.processoutput4j.core.StreamingProcessOwner;
+import com.github.fracpete.wekavirtualenv.core.RingBuffer;
+
+import java.io.BufferedWriter;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Forwards the output of a process to its owner. Stdout and stderr get
+ * read by separate threads in large chunks, split into lines and handed
+ * to the thread that monitors the process in batches (via a lock-free
+ * ring buffer per stream). Lines longer than the maximum line length get
+ * split.
+ * <br>
+ * Owners that implement {@link BatchOwner} receive the batches, all
+ * others a line at a time.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class OutputPump {
+
+  /** the size of the read buffers. */
+  public final static int BUFFER_SIZE = 64 * 1024;
+
+  /** the maximum number of lines in a batch. */
+  public final static int MAX_BATCH = 1024;
+
+  /** the number of batches to buffer per stream. */
+  public final static int RING_SIZE = 64;
+
+  /** the default maximum line length (in characters). */
+  public final static int DEFAULT_MAX_LINE_LENGTH = 1024 * 1024;
+
+  /**
+   * Interface for owners that process the output in batches.
+   */
+  public interface BatchOwner
+    extends StreamingProcessOwner {
+
+    /**
+     * Processes the incoming lines.
+     *
+     * @param lines	the lines to process
+     * @param stdout	whether stdout or stderr
+     */
+    public void processOutput(List<String> lines, boolean stdout);
+  }
+
+  /**
+   * Reads the output of a stream and puts it in the ring buffer.
+   */
+  public static class Reader
+    implements Runnable {
+
+    /** the stream to read. */
+    protected InputStream m_Input;
+
+    /** the buffer for the batches. */
+    protected RingBuffer<List<String>> m_Ring;
+
+    /** the consumer to notify. */
+    protected Thread m_Consumer;
+
+    /** whether to discard the output. */
+    protected boolean m_Discard;
+
+    /** the maximum line length. */
+    protected int m_MaxLineLength;
+
+    /** the current batch. */
+    protected List<String> m_Batch;
+
+    /** whether the consumer stopped consuming. */
+    protected volatile boolean m_Stopped;
+
+    /**
+     * Initializes the reader.
+     *
+     * @param input		the stream to read
+     * @param ring		the buffer for the batches
+     * @param consumer		the consumer to notify
+     * @param discard		whether to discard the output
+     * @param maxLineLength	the maximum line length
+     */
+    public Reader(InputStream input, RingBuffer<List<String>> ring, Thread consumer, boolean discard, int maxLineLength) {
+      m_Input         = input;
+      m_Ring          = ring;
+      m_Consumer      = consumer;
+      m_Discard       = discard;
+      m_MaxLineLength = maxLineLength;
+      m_Batch         = new ArrayList<>();
+    }
+
+    /**
+     * Adds the line to the current batch, publishes full batches.
+     *
+     * @param line	the line to add
+     */
+    protected void add(String line) {
+      if (m_Discard)
+	return;
+      m_Batch.add(line);
+      if (m_Batch.size() >= MAX_BATCH)
+	publish();
+    }
+
+    /**
+     * Hands the current batch to the consumer, waits if the buffer is full.
+     */
+    protected void publish() {
+      if (m_Batch.isEmpty())
+	return;
+      while (!m_Stopped && !m_Ring.offer(m_Batch)) {
+	LockSupport.unpark(m_Consumer);
+	LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+      }
+      LockSupport.unpark(m_Consumer);
+      m_Batch = new ArrayList<>();
+    }
+
+    /**
+     * Signals that the consumer no longer consumes any batches.
+     */
+    public void stop() {
+      m_Stopped = true;
+    }
+
+    /**
+     * Splits the characters into lines.
+     *
+     * @param chars	the decoded characters
+     * @param line	the incomplete line so far
+     */
+    protected void split(CharBuffer chars, StringBuilder line) {
+      char[]	buf;
+      int	start;
+      int	end;
+      int	i;
+
+      buf   = chars.array();
+      start = chars.position();
+      end   = chars.limit();
+      for (i = start; i < end; i++) {
+	if (buf[i] == '\n') {
+	  line.append(buf, start, i - start);
+	  if ((line.length() > 0) && (line.charAt(line.length() - 1) == '\r'))
+	    line.setLength(line.length() - 1);
+	  add(line.toString());
+	  line.setLength(0);
+	  start = i + 1;
+	}
+	else if (line.length() + (i - start) >= m_MaxLineLength) {
+	  line.append(buf, start, i - start);
+	  add(line.toString());
+	  line.setLength(0);
+	  start = i;
+	}
+      }
+      line.append(buf, start, end - start);
+      chars.clear();
+    }
+
+    /**
+     * Reads the stream till the end.
+     */
+    @Override
+    public void run() {
+      ReadableByteChannel	channel;
+      ByteBuffer		bytes;
+      CharBuffer		chars;
+      CharsetDecoder		decoder;
+      StringBuilder		line;
+
+      channel = Channels.newChannel(m_Input);
+      bytes   = ByteBuffer.allocate(BUFFER_SIZE);
+      chars   = CharBuffer.allocate(BUFFER_SIZE);
+      decoder = Charset.defaultCharset().newDecoder()
+	.onMalformedInput(CodingErrorAction.REPLACE)
+	.onUnmappableCharacter(CodingErrorAction.REPLACE);
+      line    = new StringBuilder();
+      try {
+	while (channel.read(bytes) != -1) {
+	  bytes.flip();
+	  decoder.decode(bytes, chars, false);
+	  bytes.compact();
+	  chars.flip();
+	  split(chars, line);
+	  publish();
+	}
+	bytes.flip();
+	decoder.decode(bytes, chars, true);
+	decoder.flush(chars);
+	chars.flip();
+	split(chars, line);
+	if (line.length() > 0)
+	  add(line.toString());
+      }
+      catch (Exception e) {
+	// stream got closed, e.g., process destroyed
+      }
+      finally {
+	publish();
+	m_Ring.finish();
+	LockSupport.unpark(m_Consumer);
+      }
+    }
+  }
+
+  /** the owner. */
+  protected StreamingProcessOwner m_Owner;
+
+  /** the maximum line length. */
+  protected int m_MaxLineLength;
+
+  /** the process. */
+  protected Process m_Process;
+
+  /** the exit code. */
+  protected int m_ExitCode;
+
+  /**
+   * Initializes the pump.
+   *
+   * @param owner	the owner to forward the output to
+   */
+  public OutputPump(StreamingProcessOwner owner) {
+    m_Owner         = owner;
+    m_MaxLineLength = DEFAULT_MAX_LINE_LENGTH;
+    m_ExitCode      = -1;
+  }
+
+  /**
+   * Sets the maximum line length, longer lines get split.
+   *
+   * @param value	the maximum number of characters
+   */
+  public void setMaxLineLength(int value) {
+    m_MaxLineLength = Math.max(1, value);
+  }
+
+  /**
+   * Returns the maximum line length, longer lines get split.
+   *
+   * @return		the maximum number of characters
+   */
+  public int getMaxLineLength() {
+    return m_MaxLineLength;
+  }
+
+  /**
+   * Starts the process and forwards its output till it finishes.
+   *
+   * @param builder	the process to start
+   * @throws Exception	if execution fails
+   */
+  public void monitor(ProcessBuilder builder) throws Exception {
+    monitor(null, builder.start());
+  }
+
+  /**
+   * Forwards the output of the process till it finishes.
+   *
+   * @param input	the input to send to the process, null if none
+   * @param process	the process to monitor
+   * @throws Exception	if execution fails
+   */
+  public void monitor(String input, Process process) throws Exception {
+    RingBuffer<List<String>>	stdout;
+    RingBuffer<List<String>>	stderr;
+    StreamingProcessOutputType	type;
+    Thread			consumer;
+    Reader			readerOut;
+    Reader			readerErr;
+    Thread			threadOut;
+    Thread			threadErr;
+    List<String>		batch;
+    Writer			writer;
+
+    m_Process = process;
+    consumer  = Thread.currentThread();
+    type      = m_Owner.getOutputType();
+    stdout    = new RingBuffer<>(RING_SIZE);
+    stderr    = new RingBuffer<>(RING_SIZE);
+    readerOut = new Reader(
+      process.getInputStream(), stdout, consumer,
+      (type == StreamingProcessOutputType.STDERR), m_MaxLineLength);
+    readerErr = new Reader(
+      process.getErrorStream(), stderr, consumer,
+      (type == StreamingProcessOutputType.STDOUT), m_MaxLineLength);
+    threadOut = new Thread(readerOut, "stdout");
+    threadErr = new Thread(readerErr, "stderr");
+    threadOut.setDaemon(true);
+    threadErr.setDaemon(true);
+    threadOut.start();
+    threadErr.start();
+
+    if (input != null) {
+      writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+      writer.write(input);
+      writer.close();
+    }
+
+    try {
+      while (!stdout.isDone() || !stderr.isDone()) {
+	if (Thread.interrupted())
+	  throw new InterruptedException("Interrupted while monitoring process!");
+	batch = stdout.poll();
+	if (batch != null) {
+	  forward(batch, true);
+	  continue;
+	}
+	batch = stderr.poll();
+	if (batch != null) {
+	  forward(batch, false);
+	  continue;
+	}
+	LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+      }
+      m_ExitCode = process.waitFor();
+    }
+    catch (InterruptedException e) {
+      process.destroy();
+      throw e;
+    }
+    finally {
+      readerOut.stop();
+      readerErr.stop();
+    }
+  }
+
+  /**
+   * Forwards the batch to the owner.
+   *
+   * @param batch	the lines to forward
+   * @param stdout	whether stdout or stderr
+   */
+  protected void forward(List<String> batch, boolean stdout) {
+    if (m_Owner instanceof BatchOwner) {
+      ((BatchOwner) m_Owner).processOutput(batch, stdout);
+    }
+    else {
+      for (String line: batch)
+	m_Owner.processOutput(line, stdout);
+    }
+  }
+
+  /**
+   * Returns the exit code of the process.
+   *
+   * @return		the exit code, -1 if not finished
+   */
+  public int getExitCode() {
+    return m_ExitCode;
+  }
+
+  /**
+   * Returns whether the process has finished with exit code 0.
+   *
+   * @return		true if successful
+   */
+  public boolean hasSucceeded() {
+    return (m_ExitCode == 0);
+  }
+
+  /**
+   * Returns the process.
+   *
+   * @return		the process, null if not started
+   */
+  public Process getProcess() {
+    return m_Process;
+  }
+
+  /**
+   * Destroys the process if possible.
+   */
+  public void destroy() {
+    if (m_Process != null)
+      m_Process.destroy();
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * OutputRouter.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.launch;
+
+import com.github.fracpete.processoutput4j.core.StreamingProcessOwner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Replaces System.out and System.err with streams that forward the lines
+ * written by a thread (and the threads it spawns) to the owner registered
+ * for that thread. Threads without an owner write to the original streams.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class OutputRouter {
+
+  /**
+   * Stream that routes the output of a thread to its owner.
+   */
+  public static class RoutingOutputStream
+    extends OutputStream {
+
+    /** whether stdout or stderr. */
+    protected boolean m_Stdout;
+
+    /** the original stream. */
+    protected PrintStream m_Original;
+
+    /** the buffer for the current line of a thread. */
+    protected ThreadLocal<ByteArrayOutputStream> m_Line;
+
+    /**
+     * Initializes the stream.
+     *
+     * @param original	the original stream
+     * @param stdout	whether stdout or stderr
+     */
+    public RoutingOutputStream(PrintStream original, boolean stdout) {
+      m_Original = original;
+      m_Stdout   = stdout;
+      m_Line     = ThreadLocal.withInitial(ByteArrayOutputStream::new);
+    }
+
+    /**
+     * Forwards the buffered line of the current thread to the owner.
+     * While forwarding, the owner gets unregistered to avoid loops in case
+     * the owner outputs the line on System.out/err itself.
+     *
+     * @param owner	the owner to forward to
+     */
+    protected void forwardLine(StreamingProcessOwner owner) {
+      ByteArrayOutputStream	line;
+
+      line = m_Line.get();
+      m_Owner.set(null);
+      try {
+	owner.processOutput(line.toString(), m_Stdout);
+      }
+      finally {
+	line.reset();
+	m_Owner.set(owner);
+      }
+    }
+
+    /**
+     * Writes the byte.
+     *
+     * @param b		the byte to write
+     * @throws IOException	never
+     */
+    @Override
+    public void write(int b) throws IOException {
+      StreamingProcessOwner	owner;
+
+      owner = m_Owner.get();
+      if (owner == null)
+	m_Original.write(b);
+      else if (b == '\n')
+	forwardLine(owner);
+      else if (b != '\r')
+	m_Line.get().write(b);
+    }
+
+    /**
+     * Flushes the original stream if the current thread has no owner.
+     */
+    @Override
+    public void flush() {
+      if (m_Owner.get() == null)
+	m_Original.flush();
+    }
+
+    /**
+     * Forwards any incomplete line of the current thread.
+     */
+    public void finish() {
+      StreamingProcessOwner	owner;
+
+      owner = m_Owner.get();
+      if ((owner != null) && (m_Line.get().size() > 0))
+	forwardLine(owner);
+    }
+  }
+
+  /** the owner of the current thread. */
+  protected static InheritableThreadLocal<StreamingProcessOwner> m_Owner = new InheritableThreadLocal<>();
+
+  /** the routing stdout. */
+  protected static RoutingOutputStream m_Stdout;
+
+  /** the routing stderr. */
+  protected static RoutingOutputStream m_Stderr;
+
+  /**
+   * Replaces System.out and System.err, if not already done.
+   */
+  public static synchronized void install() {
+    if (m_Stdout != null)
+      return;
+    m_Stdout = new RoutingOutputStream(System.out, true);
+    m_Stderr = new RoutingOutputStream(System.err, false);
+    System.setOut(new PrintStream(m_Stdout, true));
+    System.setErr(new PrintStream(m_Stderr, true));
+  }
+
+  /**
+   * Sets the owner for the current thread (and the threads it spawns from
+   * now on).
+   *
+   * @param owner	the owner, null to output on the original streams again
+   */
+  public static void setOwner(StreamingProcessOwner owner) {
+    if ((owner == null) && (m_Stdout != null)) {
+      System.out.flush();
+      System.err.flush();
+      m_Stdout.finish();
+      m_Stderr.finish();
+    }
+    m_Owner.set(owner);
+  }
+
+  /**
+   * Returns whether the output of the current thread gets routed to an owner.
+   *
+   * @return		true if routed
+   */
+  public static boolean isRouted() {
+    return (m_Owner.get() != null);
+  }
+}
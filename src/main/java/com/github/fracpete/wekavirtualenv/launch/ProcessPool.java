@@ -0,0 +1,172 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ProcessPool.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.launch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps a small number of JVMs per environment (running {@link BootstrapMain})
+ * started ahead of time. Each of these JVMs executes only a single class,
+ * i.e., the isolation is the same as launching a fresh JVM, but the startup
+ * overlaps with the execution of the previous class.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class ProcessPool {
+
+  /** the singleton. */
+  protected static ProcessPool m_Singleton;
+
+  /** the pre-spawned processes (key: environment key). */
+  protected Map<String,List<Process>> m_Processes;
+
+  /** the number of processes currently being spawned (key: environment key). */
+  protected Map<String,Integer> m_Pending;
+
+  /** for spawning processes in the background. */
+  protected ExecutorService m_Spawner;
+
+  /** whether the pool got shut down. */
+  protected boolean m_Closed;
+
+  /**
+   * Initializes the pool.
+   */
+  protected ProcessPool() {
+    m_Processes = new HashMap<>();
+    m_Pending   = new HashMap<>();
+    m_Spawner   = Executors.newSingleThreadExecutor((Runnable r) -> {
+      Thread result = new Thread(r);
+      result.setDaemon(true);
+      return result;
+    });
+    Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+  }
+
+  /**
+   * Spawns processes in the background till the pool for the key is full.
+   *
+   * @param key		the environment key
+   * @param builder	for launching the processes
+   * @param size	the size of the pool
+   */
+  protected synchronized void replenish(final String key, final ProcessBuilder builder, int size) {
+    int		missing;
+    int		i;
+
+    if (!m_Processes.containsKey(key))
+      m_Processes.put(key, new ArrayList<>());
+    if (!m_Pending.containsKey(key))
+      m_Pending.put(key, 0);
+
+    if (m_Closed)
+      return;
+
+    missing = size - m_Processes.get(key).size() - m_Pending.get(key);
+    for (i = 0; i < missing; i++) {
+      m_Pending.put(key, m_Pending.get(key) + 1);
+      m_Spawner.submit(() -> {
+	Process process = null;
+	try {
+	  process = builder.start();
+	}
+	catch (Exception e) {
+	  System.err.println("Failed to pre-spawn JVM: " + builder.command());
+	  e.printStackTrace();
+	}
+	synchronized (ProcessPool.this) {
+	  if (m_Closed) {
+	    // pool shut down while spawning
+	    if (process != null)
+	      process.destroy();
+	    return;
+	  }
+	  m_Pending.put(key, m_Pending.get(key) - 1);
+	  if (process != null)
+	    m_Processes.get(key).add(process);
+	}
+      });
+    }
+  }
+
+  /**
+   * Returns a pre-spawned process for the environment, or starts one if none
+   * available. The pool gets filled up again in the background.
+   *
+   * @param key		the environment key
+   * @param builder	for launching the processes (must run {@link BootstrapMain})
+   * @param size	the size of the pool
+   * @return		the process, waiting for its {@link JobRequest}
+   * @throws Exception	if launching fails
+   * @see		Worker#getKey(com.github.fracpete.wekavirtualenv.env.Environment)
+   */
+  public Process take(String key, ProcessBuilder builder, int size) throws Exception {
+    Process		result;
+    List<Process>	processes;
+
+    result = null;
+    synchronized (this) {
+      processes = m_Processes.get(key);
+      while ((result == null) && (processes != null) && !processes.isEmpty()) {
+	result = processes.remove(0);
+	if (!result.isAlive())
+	  result = null;
+      }
+    }
+
+    if (result == null)
+      result = builder.start();
+    replenish(key, builder, size);
+
+    return result;
+  }
+
+  /**
+   * Destroys all pre-spawned processes. Processes still being spawned get
+   * destroyed once started, no further processes get spawned.
+   */
+  public synchronized void shutdown() {
+    m_Closed = true;
+    m_Spawner.shutdownNow();
+    for (List<Process> processes: m_Processes.values()) {
+      for (Process process: processes)
+	process.destroy();
+    }
+    m_Processes.clear();
+    m_Pending.clear();
+  }
+
+  /**
+   * Returns the singleton.
+   *
+   * @return		the singleton
+   */
+  public static synchronized ProcessPool getSingleton() {
+    if (m_Singleton == null)
+      m_Singleton = new ProcessPool();
+    return m_Singleton;
+  }
+}
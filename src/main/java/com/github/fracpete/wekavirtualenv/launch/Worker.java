@@ -0,0 +1,337 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Worker.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.launch;
+
+import com.github.fracpete.processoutput4j.core.StreamingProcessOwner;
+import com.github.fracpete.wekavirtualenv.core.Destroyable;
+import com.github.fracpete.wekavirtualenv.env.Environment;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Handle for a persistent JVM (running {@link WorkerMain}) that executes
+ * classes of a specific environment.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Worker
+  implements Destroyable {
+
+  /** the environment the worker is for. */
+  protected Environment m_Environment;
+
+  /** the maximum number of jobs before recycling the worker. */
+  protected int m_MaxJobs;
+
+  /** the fraction of the heap still in use after a job that triggers recycling. */
+  protected double m_MaxHeap;
+
+  /** the worker process. */
+  protected Process m_Process;
+
+  /** for sending jobs to the worker. */
+  protected BufferedWriter m_Writer;
+
+  /** the owner of the current job. */
+  protected volatile StreamingProcessOwner m_Owner;
+
+  /** for waiting for the end of the current job. */
+  protected volatile CountDownLatch m_JobEnd;
+
+  /** the exit code of the last job. */
+  protected volatile int m_ExitCode;
+
+  /** the fraction of the heap in use after the last job. */
+  protected volatile double m_HeapUsage;
+
+  /** the number of jobs executed so far. */
+  protected int m_Jobs;
+
+  /**
+   * Initializes the worker.
+   *
+   * @param env		the environment the worker is for
+   * @param maxJobs	the maximum number of jobs before recycling, less than 1 for unlimited
+   * @param maxHeap	the fraction of the heap (0-1) still in use after a
+   *                    job that triggers recycling
+   */
+  public Worker(Environment env, int maxJobs, double maxHeap) {
+    m_Environment = env.clone();
+    m_MaxJobs     = maxJobs;
+    m_MaxHeap     = maxHeap;
+    m_Jobs        = 0;
+  }
+
+  /**
+   * Returns the environment the worker is for.
+   *
+   * @return		the environment
+   */
+  public Environment getEnvironment() {
+    return m_Environment;
+  }
+
+  /**
+   * Returns the key for the environment, takes all parameters into account
+   * that influence the launched JVM.
+   *
+   * @param env		the environment to get the key for
+   * @return		the key
+   */
+  public static String getKey(Environment env) {
+    return env.name + "\t" + env.java + "\t" + env.memory + "\t" + env.weka + "\t" + env.envvars;
+  }
+
+  /**
+   * Returns the key for the environment and the recycling limits, i.e., only
+   * workers with the same limits are interchangeable.
+   *
+   * @param env		the environment to get the key for
+   * @param maxJobs	the maximum number of jobs before recycling, less than 1 for unlimited
+   * @param maxHeap	the fraction of the heap (0-1) still in use after a
+   *                    job that triggers recycling
+   * @return		the key
+   * @see		#getKey(Environment)
+   */
+  public static String getKey(Environment env, int maxJobs, double maxHeap) {
+    return getKey(env) + "\t" + maxJobs + "\t" + maxHeap;
+  }
+
+  /**
+   * Returns the key of this worker, including its recycling limits.
+   *
+   * @return		the key
+   * @see		#getKey(Environment, int, double)
+   */
+  public String getKey() {
+    return getKey(m_Environment, m_MaxJobs, m_MaxHeap);
+  }
+
+  /**
+   * Returns the classpath for a JVM that is to run {@link WorkerMain}
+   * (or any other of the wenv launch classes), i.e., the weka jar and the
+   * location of the wenv classes.
+   *
+   * @param env		the environment to get the classpath for
+   * @return		the classpath
+   */
+  public static String getClassPath(Environment env) {
+    String	result;
+
+    result = env.weka;
+    try {
+      result += File.pathSeparator + new File(WorkerMain.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+    }
+    catch (Exception e) {
+      System.err.println("Failed to determine location of wenv classes!");
+      e.printStackTrace();
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the options for the {@link WorkerMain} class.
+   *
+   * @return		the options
+   */
+  public String[] getMainOptions() {
+    return new String[]{"" + m_MaxHeap};
+  }
+
+  /**
+   * Forwards the line of output to the owner of the current job.
+   *
+   * @param line	the line to forward
+   * @param stdout	whether stdout or stderr
+   */
+  protected void forward(String line, boolean stdout) {
+    StreamingProcessOwner	owner;
+
+    owner = m_Owner;
+    if (owner != null)
+      owner.processOutput(line, stdout);
+    else if (stdout)
+      System.out.println(line);
+    else
+      System.err.println(line);
+  }
+
+  /**
+   * Starts reading from the stream.
+   *
+   * @param stream	the stream to read from
+   * @param stdout	whether stdout or stderr
+   */
+  protected void startReader(final InputStream stream, final boolean stdout) {
+    Thread	thread;
+
+    thread = new Thread(() -> {
+      BufferedReader 		reader;
+      String 			line;
+      String[]			parts;
+      int			pos;
+      CountDownLatch		latch;
+
+      try {
+	reader = new BufferedReader(new InputStreamReader(stream));
+	while ((line = reader.readLine()) != null) {
+	  pos = line.indexOf(WorkerMain.END_MARKER);
+	  if (pos > -1) {
+	    // job output without trailing newline precedes the marker
+	    if (pos > 0)
+	      forward(line.substring(0, pos), stdout);
+	    parts = line.substring(pos).split(" ");
+	    if (stdout && (parts.length == 4)) {
+	      m_ExitCode  = Integer.parseInt(parts[1]);
+	      m_HeapUsage = Double.parseDouble(parts[2]) / Double.parseDouble(parts[3]);
+	    }
+	    latch = m_JobEnd;
+	    if (latch != null)
+	      latch.countDown();
+	    continue;
+	  }
+	  forward(line, stdout);
+	}
+      }
+      catch (Exception e) {
+        // ignored, process got terminated
+      }
+      // worker died, release any waiting job
+      latch = m_JobEnd;
+      if (latch != null) {
+	while (latch.getCount() > 0)
+	  latch.countDown();
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Starts the worker process.
+   *
+   * @param builder	the builder for the process
+   * @throws Exception	if launching fails
+   */
+  public void start(ProcessBuilder builder) throws Exception {
+    m_Process = builder.start();
+    m_Writer  = new BufferedWriter(new OutputStreamWriter(m_Process.getOutputStream(), JobRequest.ENCODING));
+    startReader(m_Process.getInputStream(), true);
+    startReader(m_Process.getErrorStream(), false);
+  }
+
+  /**
+   * Returns whether the worker process is still alive.
+   *
+   * @return		true if alive
+   */
+  public boolean isAlive() {
+    return (m_Process != null) && m_Process.isAlive();
+  }
+
+  /**
+   * Returns whether the worker should be replaced with a fresh one, either
+   * because it executed the maximum number of jobs, used too much memory
+   * or is no longer alive.
+   *
+   * @return		true if to recycle
+   */
+  public boolean needsRecycling() {
+    if (!isAlive())
+      return true;
+    if ((m_MaxJobs > 0) && (m_Jobs >= m_MaxJobs))
+      return true;
+    return (m_HeapUsage >= m_MaxHeap);
+  }
+
+  /**
+   * Returns the number of jobs executed so far.
+   *
+   * @return		the number of jobs
+   */
+  public int getJobs() {
+    return m_Jobs;
+  }
+
+  /**
+   * Executes the class in the worker and forwards the output to the owner.
+   * Blocks till the job has finished.
+   *
+   * @param owner	the owner to forward the output to
+   * @param cls		the class to execute
+   * @param options	the options for the class, can be null
+   * @return		the exit code
+   * @throws Exception	if sending the job fails
+   */
+  public synchronized int execute(StreamingProcessOwner owner, String cls, String[] options) throws Exception {
+    if (!isAlive())
+      throw new IllegalStateException("Worker not running!");
+
+    m_Owner    = owner;
+    m_ExitCode = -1;
+    m_JobEnd   = new CountDownLatch(2);
+    try {
+      m_Writer.write(new JobRequest(cls, options).toLine());
+      m_Writer.newLine();
+      m_Writer.flush();
+      m_JobEnd.await();
+      m_Jobs++;
+      if (!isAlive())
+        m_ExitCode = m_Process.waitFor();
+      return m_ExitCode;
+    }
+    finally {
+      m_JobEnd = null;
+      m_Owner  = null;
+    }
+  }
+
+  /**
+   * Shuts down the worker gracefully.
+   */
+  public void shutdown() {
+    if (!isAlive())
+      return;
+    try {
+      m_Writer.write(JobRequest.QUIT);
+      m_Writer.newLine();
+      m_Writer.close();
+    }
+    catch (Exception e) {
+      destroy();
+    }
+  }
+
+  /**
+   * Destroys the worker process.
+   */
+  public void destroy() {
+    if (m_Process != null)
+      m_Process.destroy();
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * WorkerMain.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.launch;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.security.Permission;
+
+/**
+ * Main class of a persistent worker JVM. Reads {@link JobRequest}s from
+ * stdin and executes them one after the other. After each job, an end marker
+ * (with the exit code and the heap usage) is output on stdout and stderr.
+ * <br>
+ * Calls to System.exit from within a job get trapped, if the JVM still
+ * allows installing a security manager.
+ * <br>
+ * NB: only uses JDK classes, as the worker only has the Weka jar and the wenv
+ * classes on its classpath.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class WorkerMain {
+
+  /** the marker that indicates the end of a job. */
+  public final static String END_MARKER = "\u0001wenv-worker-end";
+
+  /**
+   * Exception that gets thrown when System.exit gets called within a job.
+   */
+  public static class ExitTrappedException
+    extends SecurityException {
+
+    private static final long serialVersionUID = -2791583406233175622L;
+
+    /** the exit status. */
+    protected int m_Status;
+
+    /**
+     * Initializes the exception.
+     *
+     * @param status	the exit status
+     */
+    public ExitTrappedException(int status) {
+      super("System.exit(" + status + ") trapped");
+      m_Status = status;
+    }
+
+    /**
+     * Returns the exit status.
+     *
+     * @return		the status
+     */
+    public int getStatus() {
+      return m_Status;
+    }
+  }
+
+  /**
+   * Security manager that only prevents System.exit calls while trapping
+   * is enabled.
+   */
+  public static class ExitTrap
+    extends SecurityManager {
+
+    /** whether to trap exits. */
+    protected volatile boolean m_Trapping;
+
+    /**
+     * Sets whether to trap exit calls.
+     *
+     * @param value	true if to trap
+     */
+    public void setTrapping(boolean value) {
+      m_Trapping = value;
+    }
+
+    /**
+     * Allows everything.
+     *
+     * @param perm	the permission to check
+     */
+    @Override
+    public void checkPermission(Permission perm) {
+    }
+
+    /**
+     * Allows everything.
+     *
+     * @param perm	the permission to check
+     * @param context	the context
+     */
+    @Override
+    public void checkPermission(Permission perm, Object context) {
+    }
+
+    /**
+     * Throws an {@link ExitTrappedException} if trapping is enabled.
+     *
+     * @param status	the exit status
+     */
+    @Override
+    public void checkExit(int status) {
+      if (m_Trapping)
+	throw new ExitTrappedException(status);
+    }
+  }
+
+  /**
+   * Installs the exit trap, if possible.
+   *
+   * @return		the trap, null if failed to install
+   */
+  protected static ExitTrap installExitTrap() {
+    ExitTrap	result;
+
+    result = new ExitTrap();
+    try {
+      System.setSecurityManager(result);
+    }
+    catch (Throwable t) {
+      System.err.println("Failed to install exit trap, System.exit calls will terminate the worker: " + t);
+      result = null;
+    }
+
+    return result;
+  }
+
+  /**
+   * Executes the job.
+   *
+   * @param job		the job to execute
+   * @return		the exit code
+   */
+  protected static int execute(JobRequest job) {
+    try {
+      job.execute();
+      return 0;
+    }
+    catch (ExitTrappedException e) {
+      return e.getStatus();
+    }
+    catch (Throwable t) {
+      System.err.println("Failed to execute: " + job.classname);
+      t.printStackTrace();
+      return 1;
+    }
+  }
+
+  /**
+   * Outputs the end marker on stdout and stderr.
+   *
+   * @param exitCode	the exit code of the job
+   * @param maxHeap	the fraction of the heap above which a garbage
+   *                    collection is performed before reporting the usage
+   */
+  protected static void outputEndMarker(int exitCode, double maxHeap) {
+    Runtime	rt;
+    long	used;
+    String	marker;
+
+    rt   = Runtime.getRuntime();
+    used = rt.totalMemory() - rt.freeMemory();
+    if ((double) used / rt.maxMemory() >= maxHeap) {
+      System.gc();
+      used = rt.totalMemory() - rt.freeMemory();
+    }
+
+    marker = END_MARKER + " " + exitCode + " " + used + " " + rt.maxMemory();
+    System.out.println(marker);
+    System.out.flush();
+    System.err.println(marker);
+    System.err.flush();
+  }
+
+  /**
+   * Executes the worker.
+   *
+   * @param args	the first (optional) parameter is the heap fraction
+   *                    (0-1) above which the usage is checked after a GC
+   * @throws Exception	if reading from stdin fails
+   */
+  public static void main(String[] args) throws Exception {
+    BufferedReader	reader;
+    String		line;
+    JobRequest		job;
+    ExitTrap		trap;
+    double		maxHeap;
+    int			exitCode;
+
+    maxHeap = 0.75;
+    if (args.length > 0)
+      maxHeap = Double.parseDouble(args[0]);
+
+    trap   = installExitTrap();
+    reader = new BufferedReader(new InputStreamReader(System.in, JobRequest.ENCODING));
+    while ((line = reader.readLine()) != null) {
+      if (line.equals(JobRequest.QUIT))
+        break;
+      job = JobRequest.parse(line);
+      if (job == null) {
+        System.err.println("Invalid job request: " + line);
+        outputEndMarker(1, maxHeap);
+        continue;
+      }
+      if (trap != null)
+        trap.setTrapping(true);
+      exitCode = execute(job);
+      if (trap != null)
+        trap.setTrapping(false);
+      outputEndMarker(exitCode, maxHeap);
+    }
+
+    System.exit(0);
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Workers.java
+ * Copyright (C) 2018 University of Waikato, Hamilton, NZ
+ */
+
+package com.github.fracpete.wekavirtualenv.launch;
+
+import com.github.fracpete.wekavirtualenv.env.Environment;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Manages the persistent worker JVMs of the environments. Workers are
+ * checked out for a single job and then returned. Idle workers are kept
+ * alive till the wenv JVM exits.
+ *
+ * @author FracPete (fracpete at waikato dot ac dot nz)
+ */
+public class Workers {
+
+  /** the singleton. */
+  protected static Workers m_Singleton;
+
+  /** the idle workers (key: environment key). */
+  protected Map<String,List<Worker>> m_Idle;
+
+  /** all the workers that are alive. */
+  protected Set<Worker> m_All;
+
+  /**
+   * Initializes the manager.
+   */
+  protected Workers() {
+    m_Idle = new HashMap<>();
+    m_All  = new HashSet<>();
+    Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+  }
+
+  /**
+   * Checks out an idle worker for the environment that uses the same
+   * recycling limits.
+   *
+   * @param env		the environment to get the worker for
+   * @param maxJobs	the maximum number of jobs before recycling, less than 1 for unlimited
+   * @param maxHeap	the fraction of the heap (0-1) still in use after a
+   *                    job that triggers recycling
+   * @return		the worker, null if none available
+   */
+  public synchronized Worker checkout(Environment env, int maxJobs, double maxHeap) {
+    List<Worker>	idle;
+    Worker		result;
+
+    idle = m_Idle.get(Worker.getKey(env, maxJobs, maxHeap));
+    if (idle == null)
+      return null;
+
+    result = null;
+    while ((result == null) && !idle.isEmpty()) {
+      result = idle.remove(idle.size() - 1);
+      if (!result.isAlive()) {
+	m_All.remove(result);
+	result = null;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Registers a newly started worker that is currently in use.
+   *
+   * @param worker	the worker to add
+   */
+  public synchronized void add(Worker worker) {
+    m_All.add(worker);
+  }
+
+  /**
+   * Returns the worker after executing a job. Workers that need recycling
+   * get shut down.
+   *
+   * @param worker	the worker to return
+   * @see		Worker#needsRecycling()
+   */
+  public synchronized void checkin(Worker worker) {
+    if (worker.needsRecycling()) {
+      m_All.remove(worker);
+      worker.shutdown();
+      return;
+    }
+    if (!m_Idle.containsKey(worker.getKey()))
+      m_Idle.put(worker.getKey(), new ArrayList<>());
+    m_Idle.get(worker.getKey()).add(worker);
+  }
+
+  /**
+   * Shuts down all workers.
+   */
+  public synchronized void shutdown() {
+    for (Worker worker: m_All)
+      worker.destroy();
+    m_All.clear();
+    m_Idle.clear();
+  }
+
+  /**
+   * Returns the singleton.
+   *
+   * @return		the singleton
+   */
+  public static synchronized Workers getSingleton() {
+    if (m_Singleton == null)
+      m_Singleton = new Workers();
+    return m_Singleton;
+  }
+}